@@ -0,0 +1,164 @@
+package benchmarks;
+
+import java.io.IOException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import processors.Analyzers;
+import processors.KeywordMatcher;
+import processors.MmKeywordSearcher;
+import processors.MmLuceneQueryProcessor;
+import processors.ProcessorMetrics;
+import processors.QueryMatcher;
+
+/**
+ * Scaling of {@link MmKeywordSearcher} and {@link MmLuceneQueryProcessor}
+ * with "Concurrent Tasks": one compiled matcher and one set of metrics are
+ * shared by all threads, as in the processors, and every operation matches
+ * one tweet and records its latency.
+ * <p>
+ * {@code single} runs one thread, {@code allCores} one thread per core;
+ * near-linear scaling means the ops/s of {@code allCores} are close to the
+ * ops/s of {@code single} times the number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentMatchBenchmark {
+
+    /** Matcher: key words with either engine, or named queries. */
+    @Param({"KeywordLucene", "KeywordAutomaton", "Query"})
+    private String matcher;
+
+    /** Number of key words or queries. */
+    @Param({"1000"})
+    private int termCount;
+
+    /** Shared compiled key words, null when matching queries. */
+    private KeywordMatcher keywords;
+
+    /** Shared compiled queries, null when matching key words. */
+    private QueryMatcher queries;
+
+    /** Shared metrics. */
+    private final ProcessorMetrics metrics = new ProcessorMetrics("Match Time");
+
+    /** Texts to match. */
+    private String[] texts;
+
+    /**
+     * Compiles the matcher and creates the texts.
+     *
+     * @throws ParseException if a key word or query cannot be parsed
+     * @throws IOException if the matcher or texts cannot be prepared
+     */
+    @Setup
+    public void setUp() throws ParseException, IOException {
+        TweetCorpus corpus = new TweetCorpus(42);
+        // the shared analyzer, as configured in the processors
+        Analyzer analyzer = Analyzers.get(Analyzers.STANDARD.getValue(), null);
+        if ("Query".equals(matcher)) {
+            Map<String, String> named = new LinkedHashMap<String, String>();
+            QueryMatchBenchmark.Complexity[] shapes =
+                    QueryMatchBenchmark.Complexity.values();
+            for (int i = 0; i < termCount; i++) {
+                named.put("q" + i, QueryMatchBenchmark.query(corpus,
+                        shapes[i % (shapes.length - 1)]));
+            }
+            queries = new QueryMatcher(named, analyzer);
+        } else {
+            keywords = new KeywordMatcher(
+                    corpus.keywords(termCount),
+                    "KeywordAutomaton".equals(matcher), false, analyzer);
+        }
+        texts = corpus.texts(TweetCorpus.Length.SHORT);
+    }
+
+    /**
+     * Per-thread position in the texts.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        /** Index of the next text. */
+        private int next;
+
+        /**
+         * Starts every thread at a different text.
+         *
+         * @param aParams thread parameters
+         */
+        @Setup
+        public void setUp(final ThreadParams aParams) {
+            next = (aParams.getThreadIndex() * 997)
+                    & (TweetCorpus.TEXT_COUNT - 1);
+        }
+    }
+
+    /**
+     * Matches the next text on one thread.
+     *
+     * @param aCursor thread position
+     * @return hits
+     * @throws IOException if the text cannot be analysed
+     */
+    @Benchmark
+    @Threads(1)
+    public List<String> single(final Cursor aCursor) throws IOException {
+        return match(aCursor);
+    }
+
+    /**
+     * Matches the next text on one thread per core.
+     *
+     * @param aCursor thread position
+     * @return hits
+     * @throws IOException if the text cannot be analysed
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<String> allCores(final Cursor aCursor) throws IOException {
+        return match(aCursor);
+    }
+
+    /**
+     * Matches the next text and records the latency, as the processors do.
+     *
+     * @param aCursor thread position
+     * @return hits
+     * @throws IOException if the text cannot be analysed
+     */
+    private List<String> match(final Cursor aCursor) throws IOException {
+        String text = texts[aCursor.next];
+        aCursor.next = (aCursor.next + 1) & (TweetCorpus.TEXT_COUNT - 1);
+        long start = System.nanoTime();
+        List<String> hits = (null != keywords) ? keywords.match(text)
+                : queries.match(text, "42");
+        metrics.recordLatency(System.nanoTime() - start);
+        return hits;
+    }
+
+}
@@ -0,0 +1,88 @@
+package benchmarks;
+
+import java.io.IOException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import processors.KeywordMatcher;
+import processors.MmKeywordSearcher;
+
+/**
+ * Key word matching of {@link MmKeywordSearcher}: one tweet against the
+ * compiled key words per operation, with the analyzer the processor uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeywordMatchBenchmark {
+
+    /** Number of key words. */
+    @Param({"10", "100", "1000", "10000"})
+    private int keywordCount;
+
+    /** Match engine, see {@link MmKeywordSearcher#MATCH_ENGINE}. */
+    @Param({"Lucene", "Automaton"})
+    private String engine;
+
+    /** Text length. */
+    @Param({"SHORT", "LONG"})
+    private TweetCorpus.Length textLength;
+
+    /** Compiled key words. */
+    private KeywordMatcher matcher;
+
+    /** Texts to match. */
+    private String[] texts;
+
+    /** Index of the next text. */
+    private int next;
+
+    /**
+     * Compiles the key words and creates the texts.
+     *
+     * @throws ParseException if a key word cannot be parsed
+     * @throws IOException if the key words or texts cannot be prepared
+     */
+    @Setup
+    public void setUp() throws ParseException, IOException {
+        TweetCorpus corpus = new TweetCorpus(42);
+        List<String> keywords = corpus.keywords(keywordCount);
+        matcher = new KeywordMatcher(keywords,
+                MmKeywordSearcher.ENGINE_AUTOMATON.getValue().equals(engine),
+                false, new StandardAnalyzer());
+        texts = corpus.texts(textLength);
+    }
+
+    /**
+     * Matches the next text.
+     *
+     * @return hit key words
+     * @throws IOException if the text cannot be analysed
+     */
+    @Benchmark
+    public List<String> match() throws IOException {
+        String text = texts[next];
+        next = (next + 1) & (TweetCorpus.TEXT_COUNT - 1);
+        return matcher.match(text);
+    }
+
+}
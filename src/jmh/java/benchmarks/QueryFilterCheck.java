@@ -0,0 +1,176 @@
+package benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.search.Query;
+
+import processors.MatchEngine;
+import processors.QueryMatcher;
+
+/**
+ * Checks that the required-term shortcuts of {@link QueryMatcher}, the
+ * pre-filter and the candidate selection of the query monitor, never lose a
+ * tweet a query matches. For every query and text, the plain in-memory
+ * search of the parsed query decides; {@code evaluate} must agree with it
+ * and {@code mayMatch || evaluate.isEmpty()} must hold.
+ * <p>
+ * Queries of every shape the filter reduces (required and optional clauses,
+ * wildcards and fuzzy terms next to plain ones, negations, phrases, the user
+ * ID field) are drawn from the benchmark corpus and run with both analyzers.
+ * Run with: {@code mvn -P jmh test-compile exec:exec@query-filter-check};
+ * it exits with 1 on the first mismatching query.
+ */
+public final class QueryFilterCheck {
+
+    /** Queries per shape and analyzer. */
+    private static final int QUERIES_PER_SHAPE = 40;
+
+    /** Texts per query. */
+    private static final int TEXTS_PER_QUERY = 512;
+
+    /** Number of query shapes of {@link #query(TweetCorpus, int)}. */
+    private static final int SHAPES = 16;
+
+    /**
+     * Utility class.
+     */
+    private QueryFilterCheck() {}
+
+    /**
+     * Runs the check.
+     *
+     * @param aArgs unused
+     * @throws Exception if a query cannot be parsed or a text analysed
+     */
+    public static void main(final String[] aArgs) throws Exception {
+        // the shapes the filter got wrong once, with a text they match
+        check("+eth* bitcoin", new String[] {"ethereum is up"},
+                new StandardAnalyzer());
+        check("+(eth* OR btc) bitcoin", new String[] {"ethereum is up"},
+                new StandardAnalyzer());
+
+        TweetCorpus corpus = new TweetCorpus(7);
+        String[] texts = corpus.texts(TweetCorpus.Length.SHORT);
+        Analyzer[] analyzers = {new StandardAnalyzer(), new KeywordAnalyzer()};
+        int queries = 0;
+        int matching = 0;
+        for (Analyzer analyzer : analyzers) {
+            for (int shape = 0; shape < SHAPES; shape++) {
+                for (int i = 0; i < QUERIES_PER_SHAPE; i++) {
+                    String[] sample = new String[TEXTS_PER_QUERY];
+                    int offset = corpus.getRandom().nextInt(texts.length);
+                    for (int t = 0; t < sample.length; t++) {
+                        sample[t] = texts[(offset + t) % texts.length];
+                    }
+                    if (check(query(corpus, shape), sample, analyzer)) {
+                        matching++;
+                    }
+                    queries++;
+                }
+            }
+        }
+        System.out.println("OK: " + queries + " queries, " + matching
+                + " matching at least one text");
+    }
+
+    /**
+     * Checks one query against texts and exits on a mismatch.
+     *
+     * @param aQuery query string
+     * @param aTexts texts
+     * @param aAnalyzer analyzer
+     * @return true - if the query matched any text
+     * @throws Exception if the query cannot be parsed or a text analysed
+     */
+    private static boolean check(final String aQuery, final String[] aTexts,
+            final Analyzer aAnalyzer) throws Exception {
+        QueryMatcher matcher = new QueryMatcher(
+                Collections.singletonMap("q", aQuery), aAnalyzer);
+        MatchEngine engine = new MatchEngine(aAnalyzer);
+        Query query = QueryMatcher.parse(aQuery, aAnalyzer);
+        boolean matched = false;
+        for (String text : aTexts) {
+            boolean expected =
+                    MatchEngine.matches(engine.load(text, "42"), query);
+            List<String> hits = matcher.evaluate(text, "42");
+            matched |= expected;
+            if (expected != !hits.isEmpty()) {
+                fail(aQuery, aAnalyzer, text, "evaluate returns " + hits);
+            }
+            if (!hits.isEmpty() && !matcher.mayMatch(text, "42")) {
+                fail(aQuery, aAnalyzer, text, "the filter rejects it");
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Reports a mismatch and exits.
+     *
+     * @param aQuery query string
+     * @param aAnalyzer analyzer
+     * @param aText text
+     * @param aProblem what went wrong
+     */
+    private static void fail(final String aQuery, final Analyzer aAnalyzer,
+            final String aText, final String aProblem) {
+        System.out.println("MISMATCH: query '" + aQuery + "' ("
+                + aAnalyzer.getClass().getSimpleName() + ") on '" + aText
+                + "': " + aProblem);
+        System.exit(1);
+    }
+
+    /**
+     * Creates a query of a shape.
+     *
+     * @param aCorpus corpus to draw words from
+     * @param aShape shape index, below {@link #SHAPES}
+     * @return query string
+     */
+    private static String query(final TweetCorpus aCorpus, final int aShape) {
+        String a = aCorpus.nextWord();
+        String b = aCorpus.nextWord();
+        String c = aCorpus.nextWord();
+        String p = a.substring(0, Math.min(a.length(), 2)) + "*";
+        switch (aShape) {
+        case 0:
+            return a;
+        case 1:
+            return a + " " + b;
+        case 2:
+            return "+" + a + " " + b;
+        case 3:
+            return "+" + p + " " + b;
+        case 4:
+            return "+(" + p + " OR " + c + ") " + b;
+        case 5:
+            return "+" + a + "~1 " + b;
+        case 6:
+            return a + " AND " + b;
+        case 7:
+            return "(" + a + " OR " + b + ") AND " + c + " NOT "
+                    + aCorpus.nextWord();
+        case 8:
+            return "-" + a + " " + b;
+        case 9:
+            return "\"" + a + " " + b + "\"~2";
+        case 10:
+            return p;
+        case 11:
+            return a + "~1";
+        case 12:
+            return "+" + p + " +" + b;
+        case 13:
+            return a + "^2 OR " + p;
+        case 14:
+            return "UserId:42 AND " + a;
+        default:
+            return "+UserId:42 " + a + " " + p;
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+package benchmarks;
+
+import java.io.IOException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import processors.MmLuceneQueryProcessor;
+import processors.QueryMatcher;
+
+/**
+ * Query matching of {@link MmLuceneQueryProcessor}: one tweet against all
+ * named queries per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryMatchBenchmark {
+
+    /** Query shape. */
+    public enum Complexity {
+        /** A single term. */
+        TERM,
+        /** Nested boolean clauses with a negation. */
+        BOOLEAN,
+        /** A sloppy two-word phrase. */
+        PHRASE,
+        /** A prefix query; rewritten against every tweet. */
+        WILDCARD,
+        /** All of the above in turn. */
+        MIXED
+    }
+
+    /** Number of queries. */
+    @Param({"10", "100", "1000"})
+    private int queryCount;
+
+    /** Query shape. */
+    @Param({"TERM", "BOOLEAN", "PHRASE", "WILDCARD", "MIXED"})
+    private Complexity complexity;
+
+    /** Text length. */
+    @Param({"SHORT", "LONG"})
+    private TweetCorpus.Length textLength;
+
+    /**
+     * Analyzer; "Keyword" is the one the processor uses, which indexes the
+     * whole text as a single term.
+     */
+    @Param({"Keyword", "Standard"})
+    private String analyzer;
+
+    /** Compiled queries. */
+    private QueryMatcher matcher;
+
+    /** Texts to match. */
+    private String[] texts;
+
+    /** Index of the next text. */
+    private int next;
+
+    /**
+     * Compiles the queries and creates the texts.
+     *
+     * @throws ParseException if a query cannot be parsed
+     * @throws IOException if the texts cannot be prepared
+     */
+    @Setup
+    public void setUp() throws ParseException, IOException {
+        TweetCorpus corpus = new TweetCorpus(42);
+        Map<String, String> queries = new LinkedHashMap<String, String>();
+        Complexity[] shapes = Complexity.values();
+        for (int i = 0; i < queryCount; i++) {
+            Complexity shape = (Complexity.MIXED == complexity)
+                    ? shapes[i % (shapes.length - 1)] : complexity;
+            queries.put("q" + i, query(corpus, shape));
+        }
+        Analyzer a = "Keyword".equals(analyzer) ? new KeywordAnalyzer()
+                : new StandardAnalyzer();
+        matcher = new QueryMatcher(queries, a);
+        texts = corpus.texts(textLength);
+    }
+
+    /**
+     * Matches the next text.
+     *
+     * @return names of the matching queries
+     * @throws IOException if the text cannot be analysed
+     */
+    @Benchmark
+    public List<String> match() throws IOException {
+        String text = texts[next];
+        next = (next + 1) & (TweetCorpus.TEXT_COUNT - 1);
+        return matcher.match(text, "42");
+    }
+
+    /**
+     * Creates a query of a shape.
+     *
+     * @param aCorpus corpus to draw words from
+     * @param aShape query shape
+     * @return query string
+     */
+    static String query(final TweetCorpus aCorpus,
+            final Complexity aShape) {
+        Random random = aCorpus.getRandom();
+        switch (aShape) {
+        case BOOLEAN:
+            return "(" + aCorpus.nextWord() + " OR " + aCorpus.nextWord()
+                    + ") AND " + aCorpus.nextWord() + " NOT "
+                    + aCorpus.nextWord();
+        case PHRASE:
+            return "\"" + aCorpus.nextWord() + " " + aCorpus.nextWord()
+                    + "\"~2";
+        case WILDCARD:
+            String word = aCorpus.nextWord();
+            return word.substring(0, Math.min(word.length(),
+                    2 + random.nextInt(3))) + "*";
+        default:
+            return aCorpus.nextWord();
+        }
+    }
+
+}
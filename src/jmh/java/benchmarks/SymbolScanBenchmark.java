@@ -0,0 +1,95 @@
+package benchmarks;
+
+import java.io.IOException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import processors.MmSymbolExtractor;
+import processors.SymbolScanner;
+import processors.SymbolTable;
+
+/**
+ * Symbol routing of {@link MmSymbolExtractor}: one tweet scanned and looked
+ * up in the symbol table per operation, without writing attributes. The
+ * allocation rate should be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SymbolScanBenchmark {
+
+    /** Number of hashtags per route. */
+    @Param({"10", "1000"})
+    private int symbolCount;
+
+    /** Number of routes. */
+    @Param({"1", "64"})
+    private int routeCount;
+
+    /** Text length. */
+    @Param({"SHORT", "LONG"})
+    private TweetCorpus.Length textLength;
+
+    /** Symbol table. */
+    private SymbolTable table;
+
+    /** Scanner. */
+    private final SymbolScanner scanner = new SymbolScanner();
+
+    /** Texts to scan. */
+    private String[] texts;
+
+    /** Index of the next text. */
+    private int next;
+
+    /**
+     * Builds the symbol table and creates the texts.
+     *
+     * @throws IOException if the texts cannot be prepared
+     */
+    @Setup
+    public void setUp() throws IOException {
+        TweetCorpus corpus = new TweetCorpus(42);
+        Map<String, String> routes = new LinkedHashMap<String, String>();
+        for (int route = 0; route < routeCount; route++) {
+            StringBuilder symbols = new StringBuilder();
+            for (int i = 0; i < symbolCount; i++) {
+                symbols.append(" #").append(corpus.nextWord());
+            }
+            routes.put("route" + route, symbols.toString());
+        }
+        table = new SymbolTable(routes);
+        texts = corpus.texts(textLength);
+    }
+
+    /**
+     * Scans and routes the next text.
+     *
+     * @return bit mask of routes
+     */
+    @Benchmark
+    public long route() {
+        String text = texts[next];
+        next = (next + 1) & (TweetCorpus.TEXT_COUNT - 1);
+        scanner.scan(text);
+        return table.routes(scanner);
+    }
+
+}
@@ -0,0 +1,225 @@
+package benchmarks;
+
+import java.io.IOException;
+
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import processors.MappedLineReader;
+
+import twitter4j.TwitterException;
+import twitter4j.TwitterObjectFactory;
+
+/**
+ * Tweet-like texts and matching key words for the benchmarks.
+ * <p>
+ * Words are drawn from a synthetic vocabulary with a Zipf distribution, so a
+ * few words are very common and most are rare, as in real tweets; texts mix
+ * in hashtags, mentions and links. A recorded corpus, e.g. the NDJSON
+ * content of {@code MmTwitterReceiver}, is used instead when the system
+ * property {@code corpus} names a file. All randomness is seeded, so runs
+ * are comparable.
+ */
+public final class TweetCorpus {
+
+    /** Text length of the generated tweets. */
+    public enum Length {
+        /** About 60 characters. */
+        SHORT(60),
+        /** About the 280 characters limit. */
+        LONG(280);
+
+        /** Target length in characters. */
+        private final int chars;
+
+        /**
+         * Constructor.
+         *
+         * @param aChars target length in characters
+         */
+        Length(final int aChars) {
+            chars = aChars;
+        }
+    }
+
+    /** Vocabulary size. */
+    private static final int VOCABULARY_SIZE = 50000;
+
+    /** Zipf exponent. */
+    private static final double ZIPF_EXPONENT = 1.05;
+
+    /** Number of texts, a power of two. */
+    public static final int TEXT_COUNT = 1 << 12;
+
+    /** Syllables of the generated words. */
+    private static final String[] SYLLABLES = {"ka", "to", "ri", "mo", "sa",
+            "ne", "lu", "pi", "da", "vo", "chi", "ze", "ba", "gu", "fe", "ly",
+            "ran", "tor", "mek", "sol"};
+
+    /** Vocabulary, most common word first. */
+    private final String[] words = new String[VOCABULARY_SIZE];
+
+    /** Cumulative Zipf probabilities. */
+    private final double[] cumulative = new double[VOCABULARY_SIZE];
+
+    /** Random source. */
+    private final Random random;
+
+    /**
+     * Constructor.
+     *
+     * @param aSeed random seed
+     */
+    public TweetCorpus(final long aSeed) {
+        random = new Random(aSeed);
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            words[i] = word(i);
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            cumulative[i] /= sum;
+        }
+    }
+
+    /**
+     * Creates the texts to match, recorded ones if configured.
+     *
+     * @param aLength text length of generated tweets
+     * @return {@link #TEXT_COUNT} texts
+     * @throws IOException if the recorded corpus cannot be read
+     */
+    public String[] texts(final Length aLength) throws IOException {
+        String file = System.getProperty("corpus");
+        if (null != file && !file.isEmpty()) {
+            return recorded(file);
+        }
+        String[] texts = new String[TEXT_COUNT];
+        StringBuilder sb = new StringBuilder(aLength.chars + 32);
+        for (int i = 0; i < TEXT_COUNT; i++) {
+            sb.setLength(0);
+            while (sb.length() < aLength.chars) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                int kind = random.nextInt(20);
+                if (0 == kind) {
+                    sb.append('#').append(nextWord());
+                } else if (1 == kind) {
+                    sb.append('@').append(nextWord());
+                } else if (2 == kind) {
+                    sb.append("https://t.co/").append(random.nextInt(1000000));
+                } else {
+                    sb.append(nextWord());
+                }
+            }
+            texts[i] = sb.toString();
+        }
+        return texts;
+    }
+
+    /**
+     * Creates key words: single words and, for every third, two-word
+     * phrases, drawn from across the frequency range.
+     *
+     * @param aCount number of key words
+     * @return key words
+     */
+    public List<String> keywords(final int aCount) {
+        List<String> keywords = new ArrayList<String>(aCount);
+        for (int i = 0; i < aCount; i++) {
+            String keyword = nextWord();
+            if (0 == i % 3) {
+                keyword += " " + nextWord();
+            }
+            keywords.add(keyword);
+        }
+        return keywords;
+    }
+
+    /**
+     * Draws a word from the Zipf distribution.
+     *
+     * @return word
+     */
+    public String nextWord() {
+        double p = random.nextDouble();
+        int low = 0;
+        int high = VOCABULARY_SIZE - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < p) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return words[low];
+    }
+
+    /**
+     * Getter.
+     *
+     * @return random source of the corpus
+     */
+    public Random getRandom() {
+        return random;
+    }
+
+    /**
+     * Builds a distinct word from syllables.
+     *
+     * @param aIndex word index
+     * @return word
+     */
+    private static String word(final int aIndex) {
+        StringBuilder sb = new StringBuilder();
+        int n = aIndex;
+        do {
+            sb.append(SYLLABLES[n % SYLLABLES.length]);
+            n /= SYLLABLES.length;
+        } while (n > 0);
+        return sb.toString();
+    }
+
+    /**
+     * Reads the texts of a recorded NDJSON corpus, repeated to
+     * {@link #TEXT_COUNT} texts.
+     *
+     * @param aFile file name
+     * @return texts
+     * @throws IOException if the file cannot be read or has no tweets
+     */
+    private static String[] recorded(final String aFile) throws IOException {
+        List<String> read = new ArrayList<String>();
+        try (MappedLineReader reader =
+                new MappedLineReader(Paths.get(aFile))) {
+            String line;
+            while (read.size() < TEXT_COUNT
+                    && null != (line = reader.readLine())) {
+                try {
+                    String text =
+                            TwitterObjectFactory.createStatus(line).getText();
+                    if (null != text) {
+                        read.add(text);
+                    }
+                } catch (TwitterException e) {
+                    // not a status
+                }
+            }
+        }
+        if (read.isEmpty()) {
+            throw new IOException("No tweets in " + aFile);
+        }
+        String[] texts = new String[TEXT_COUNT];
+        for (int i = 0; i < TEXT_COUNT; i++) {
+            texts[i] = read.get(i % read.size());
+        }
+        return texts;
+    }
+
+}
@@ -0,0 +1,313 @@
+package processors;
+
+import java.io.IOException;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.analysis.ja.JapaneseAnalyzer;
+import org.apache.lucene.analysis.phonetic.DoubleMetaphoneFilter;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.processor.util.StandardValidators;
+
+/**
+ * The analyzer chains selectable by the matching processors.
+ * <p>
+ * Analyzers are created once per configuration and shared by all processors
+ * of the JVM: an analyzer already keeps its tokenizer and filters per
+ * thread, so sharing one instance means expensive chains, e.g. kuromoji with
+ * its dictionary, are built once per thread instead of once per processor
+ * and schedule. Shared analyzers are never closed.
+ */
+public final class Analyzers {
+
+    /** Analyzer value. */
+    public static final AllowableValue STANDARD = new AllowableValue(
+            "Standard", "Standard",
+            "Unicode word boundaries, lower-cased, English stop words removed.");
+
+    /** Analyzer value. */
+    public static final AllowableValue KEYWORD = new AllowableValue(
+            "Keyword", "Keyword", "The whole text as a single term.");
+
+    /** Analyzer value. */
+    public static final AllowableValue JAPANESE = new AllowableValue(
+            "Japanese", "Japanese",
+            "Kuromoji morphological analysis with base forms and Japanese "
+                    + "stop words.");
+
+    /** Analyzer value. */
+    public static final AllowableValue PHONETIC = new AllowableValue(
+            "Phonetic", "Phonetic",
+            "Standard words replaced by their Double Metaphone codes, so "
+                    + "words that sound alike match.");
+
+    /** Analyzer value. */
+    public static final AllowableValue CUSTOM = new AllowableValue(
+            "Custom", "Custom",
+            "The chain given by the custom analyzer property.");
+
+    /** Maximum length of a Double Metaphone code. */
+    private static final int METAPHONE_LENGTH = 6;
+
+    /** Shared analyzers by configuration. */
+    private static final ConcurrentMap<String, Analyzer> CACHE =
+            new ConcurrentHashMap<String, Analyzer>();
+
+    /**
+     * Utility class.
+     */
+    private Analyzers() {}
+
+    /**
+     * Creates an analyzer property.
+     *
+     * @param aDefault default analyzer
+     * @return property
+     */
+    public static PropertyDescriptor analyzerProperty(
+            final AllowableValue aDefault) {
+        return analyzerBuilder().defaultValue(aDefault.getValue()).build();
+    }
+
+    /**
+     * Creates an analyzer property without a default, for a chain shared by
+     * processors whose own defaults differ.
+     *
+     * @return property
+     */
+    public static PropertyDescriptor analyzerProperty() {
+        return analyzerBuilder().build();
+    }
+
+    /**
+     * Starts an analyzer property.
+     *
+     * @return property builder
+     */
+    private static PropertyDescriptor.Builder analyzerBuilder() {
+        return new PropertyDescriptor.Builder().name("Analyzer").description(
+                "Specifies how tweets and search terms are split into terms.")
+                .allowableValues(STANDARD, KEYWORD, JAPANESE, PHONETIC, CUSTOM)
+                .required(true);
+    }
+
+    /**
+     * Creates a custom analyzer property.
+     *
+     * @return property
+     */
+    public static PropertyDescriptor customAnalyzerProperty() {
+        return new PropertyDescriptor.Builder().name("Custom Analyzer")
+                .description(
+                        "Specifies the custom analyzer as a tokenizer and "
+                                + "token filters separated by '>', each with "
+                                + "optional parameters, e.g. \"standard > "
+                                + "lowercase > porterstem\" or \"whitespace "
+                                + "> phonetic(encoder=Soundex, inject=false)"
+                                + "\". Names are those of the Lucene "
+                                + "analysis factories.")
+                .required(false)
+                .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+    }
+
+    /**
+     * Creates a language analyzers property.
+     *
+     * @return property
+     */
+    public static PropertyDescriptor languageAnalyzersProperty() {
+        return new PropertyDescriptor.Builder().name("Language Analyzers")
+                .description(
+                        "Specifies comma-separated language:analyzer pairs, "
+                                + "e.g. \"ja:Japanese, en:Phonetic\". A tweet "
+                                + "whose Lang attribute is listed is analysed "
+                                + "with that analyzer; all others with the "
+                                + "main one.")
+                .required(false)
+                .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+    }
+
+    /**
+     * Returns the shared analyzer of a configuration.
+     *
+     * @param aName analyzer name, one of the allowable values
+     * @param aCustom custom analyzer specification, used for "Custom" only
+     * @return analyzer
+     * @throws IOException if the analyzer cannot be created
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    public static Analyzer get(final String aName, final String aCustom)
+            throws IOException {
+        String key = CUSTOM.getValue().equals(aName)
+                ? aName + ":" + normalize(aCustom) : aName;
+        Analyzer analyzer = CACHE.get(key);
+        if (null == analyzer) {
+            analyzer = create(aName, aCustom);
+            Analyzer raced = CACHE.putIfAbsent(key, analyzer);
+            if (null != raced) {
+                analyzer.close();
+                analyzer = raced;
+            }
+        }
+        return analyzer;
+    }
+
+    /**
+     * Parses language:analyzer pairs.
+     *
+     * @param aLanguages pairs, may be null
+     * @return analyzer names by language, in the given order
+     * @throws IllegalArgumentException if a pair is invalid
+     */
+    public static Map<String, String> parseLanguages(final String aLanguages) {
+        Map<String, String> languages = new LinkedHashMap<String, String>();
+        if (null == aLanguages) {
+            return languages;
+        }
+        for (String pair : aLanguages.split(",")) {
+            if (pair.trim().isEmpty()) {
+                continue;
+            }
+            int colon = pair.indexOf(':');
+            String language = (colon < 0) ? "" : pair.substring(0, colon).trim();
+            String name = (colon < 0) ? "" : pair.substring(colon + 1).trim();
+            if (language.isEmpty() || !isName(name)) {
+                throw new IllegalArgumentException("invalid language analyzer '"
+                        + pair.trim() + "'");
+            }
+            languages.put(language, name);
+        }
+        return languages;
+    }
+
+    /**
+     * Creates an analyzer.
+     *
+     * @param aName analyzer name
+     * @param aCustom custom analyzer specification
+     * @return analyzer
+     * @throws IOException if the analyzer cannot be created
+     */
+    private static Analyzer create(final String aName, final String aCustom)
+            throws IOException {
+        if (STANDARD.getValue().equals(aName)) {
+            return new StandardAnalyzer();
+        } else if (KEYWORD.getValue().equals(aName)) {
+            return new KeywordAnalyzer();
+        } else if (JAPANESE.getValue().equals(aName)) {
+            return new JapaneseAnalyzer();
+        } else if (PHONETIC.getValue().equals(aName)) {
+            return new PhoneticAnalyzer();
+        } else if (CUSTOM.getValue().equals(aName)) {
+            return custom(aCustom);
+        }
+        throw new IllegalArgumentException("unknown analyzer '" + aName + "'");
+    }
+
+    /**
+     * Builds a custom analyzer, e.g. from "standard > lowercase >
+     * phonetic(encoder=Soundex, inject=false)".
+     *
+     * @param aSpec specification
+     * @return analyzer
+     * @throws IOException if a component cannot load its resources
+     */
+    private static Analyzer custom(final String aSpec) throws IOException {
+        if (null == aSpec || aSpec.trim().isEmpty()) {
+            throw new IllegalArgumentException(
+                    "the custom analyzer is not specified");
+        }
+        CustomAnalyzer.Builder builder = CustomAnalyzer.builder();
+        String[] stages = aSpec.split(">");
+        for (int i = 0; i < stages.length; i++) {
+            String stage = stages[i].trim();
+            Map<String, String> params = new HashMap<String, String>();
+            int open = stage.indexOf('(');
+            String name = stage;
+            if (open >= 0) {
+                if (!stage.endsWith(")")) {
+                    throw new IllegalArgumentException(
+                            "unbalanced parameters in '" + stage + "'");
+                }
+                name = stage.substring(0, open).trim();
+                for (String param : stage.substring(open + 1,
+                        stage.length() - 1).split(",")) {
+                    int eq = param.indexOf('=');
+                    if (eq < 0) {
+                        throw new IllegalArgumentException(
+                                "invalid parameter '" + param.trim() + "'");
+                    }
+                    params.put(param.substring(0, eq).trim(),
+                            param.substring(eq + 1).trim());
+                }
+            }
+            if (0 == i) {
+                builder.withTokenizer(name, params);
+            } else {
+                builder.addTokenFilter(name, params);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Checks an analyzer name.
+     *
+     * @param aName name
+     * @return true - if it is one of the allowable values, otherwise - false
+     */
+    private static boolean isName(final String aName) {
+        for (AllowableValue value : new AllowableValue[] {STANDARD, KEYWORD,
+                JAPANESE, PHONETIC, CUSTOM}) {
+            if (value.getValue().equals(aName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Normalizes the whitespace of a specification for the cache key.
+     *
+     * @param aSpec specification
+     * @return normalized specification
+     */
+    private static String normalize(final String aSpec) {
+        return (null == aSpec) ? "" : aSpec.replaceAll("\\s+", "");
+    }
+
+    /**
+     * Standard words replaced by their Double Metaphone codes.
+     */
+    private static final class PhoneticAnalyzer extends Analyzer {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected TokenStreamComponents createComponents(
+                final String aFieldName) {
+            Tokenizer source = new StandardTokenizer();
+            TokenStream result = new StandardFilter(source);
+            result = new LowerCaseFilter(result);
+            result = new DoubleMetaphoneFilter(result, METAPHONE_LENGTH, false);
+            return new TokenStreamComponents(source, result);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package processors;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer queue.
+ * <p>
+ * Producers never block: an element offered to a full queue is rejected and
+ * counted as dropped. This keeps stream callback threads from stalling when
+ * the consumer falls behind.
+ *
+ * @param <E> element type
+ */
+public class BoundedQueue<E> {
+
+    /** Elements. */
+    private final Queue<E> elements = new ConcurrentLinkedQueue<E>();
+
+    /** Number of elements, reserved before an element is added. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** Number of rejected elements. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Maximum number of elements. */
+    private final int capacity;
+
+    /**
+     * Constructor.
+     *
+     * @param aCapacity maximum number of elements
+     */
+    public BoundedQueue(final int aCapacity) {
+        capacity = aCapacity;
+    }
+
+    /**
+     * Adds an element unless the queue is full.
+     *
+     * @param aElement element
+     * @return true - if the element was added, false - if it was dropped
+     */
+    public boolean offer(final E aElement) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+        elements.add(aElement);
+        return true;
+    }
+
+    /**
+     * Removes the oldest element.
+     *
+     * @return element or null if the queue is empty
+     */
+    public E poll() {
+        E element = elements.poll();
+        if (null != element) {
+            size.decrementAndGet();
+        }
+        return element;
+    }
+
+    /**
+     * Returns the oldest element without removing it.
+     *
+     * @return element or null if the queue is empty
+     */
+    public E peek() {
+        return elements.peek();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of queued elements
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return maximum number of elements
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of elements dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+}
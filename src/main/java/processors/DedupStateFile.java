@@ -0,0 +1,145 @@
+package processors;
+
+import java.io.IOException;
+
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A compact, memory-mapped snapshot of a {@link LongDedupSet}.
+ * <p>
+ * The file holds a small header followed by the IDs and their insertion
+ * times as two raw {@code long} arrays, oldest first, so a snapshot of
+ * millions of IDs is written and read with two bulk copies. A snapshot is
+ * written to a temporary file and moved into place atomically; a reader
+ * never sees a partial file. Writes of the same file are serialized, since
+ * they share the temporary file.
+ */
+public final class DedupStateFile {
+
+    /** File magic, "MMDS". */
+    private static final int MAGIC = 0x4D4D4453;
+
+    /** File format version. */
+    private static final int VERSION = 1;
+
+    /** Header length in bytes: magic, version, count, padding. */
+    private static final int HEADER_LENGTH = 16;
+
+    /** Write lock per snapshot file. */
+    private static final ConcurrentMap<Path, Object> LOCKS =
+            new ConcurrentHashMap<Path, Object>();
+
+    /**
+     * Utility class.
+     */
+    private DedupStateFile() {}
+
+    /**
+     * Writes a snapshot of a set.
+     *
+     * @param aSet set
+     * @param aFile target file
+     * @return number of written IDs
+     * @throws IOException if the file cannot be written
+     */
+    public static int write(final LongDedupSet aSet, final Path aFile)
+            throws IOException {
+        Object lock = LOCKS.computeIfAbsent(
+                aFile.toAbsolutePath().normalize(), path -> new Object());
+        synchronized (lock) {
+            return writeLocked(aSet, aFile);
+        }
+    }
+
+    /**
+     * Writes a snapshot of a set while holding the lock of the file.
+     *
+     * @param aSet set
+     * @param aFile target file
+     * @return number of written IDs
+     * @throws IOException if the file cannot be written
+     */
+    private static int writeLocked(final LongDedupSet aSet, final Path aFile)
+            throws IOException {
+        int capacity = aSet.getCapacity();
+        long[] ids = new long[capacity];
+        long[] times = new long[capacity];
+        int count = aSet.export(ids, times);
+
+        Path parent = aFile.toAbsolutePath().getParent();
+        if (null != parent) {
+            Files.createDirectories(parent);
+        }
+        Path temp = aFile.resolveSibling(aFile.getFileName() + ".tmp");
+        long length = HEADER_LENGTH + 16L * count;
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer =
+                    channel.map(MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0);
+            LongBuffer longs = buffer.asLongBuffer();
+            longs.put(ids, 0, count);
+            longs.put(times, 0, count);
+            buffer.force();
+        }
+        Files.move(temp, aFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Restores a snapshot into a set. IDs that have expired in the meantime
+     * are skipped.
+     *
+     * @param aSet set
+     * @param aFile snapshot file
+     * @param aNow current time in milliseconds
+     * @return number of IDs in the snapshot, 0 if there is no snapshot
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static int read(final LongDedupSet aSet, final Path aFile,
+            final long aNow) throws IOException {
+        if (!Files.isRegularFile(aFile)) {
+            return 0;
+        }
+        try (FileChannel channel =
+                FileChannel.open(aFile, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_LENGTH) {
+                throw new IOException("Truncated dedup state: " + aFile);
+            }
+            MappedByteBuffer buffer =
+                    channel.map(MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            int count = buffer.getInt();
+            buffer.getInt();
+            if (MAGIC != magic || VERSION != version || count < 0
+                    || length != HEADER_LENGTH + 16L * count) {
+                throw new IOException("Not a dedup state file: " + aFile);
+            }
+            long[] ids = new long[count];
+            long[] times = new long[count];
+            LongBuffer longs = buffer.asLongBuffer();
+            longs.get(ids);
+            longs.get(times);
+            aSet.restore(ids, times, count, aNow);
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+package processors;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.logging.ComponentLog;
+
+/**
+ * Watches a text file and hands its content to a loader whenever it
+ * changes, e.g. to compile a new matcher.
+ * <p>
+ * The file is polled on a daemon thread of its own, so the loader runs in
+ * the background and the hot path only ever reads the last loaded result.
+ * A change is detected by modification time and size. A content that fails
+ * to load is logged and skipped; the previous result stays in use until the
+ * file changes again. Once {@link #close()} returns, the loader is not
+ * called any more, so the owner can reset what it published.
+ */
+public class FileReloader implements Closeable {
+
+    /** Time to wait for a running load when closing, in seconds. */
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Loads the content of the file.
+     */
+    public interface Loader {
+
+        /**
+         * Loads a content, typically by compiling it and publishing the
+         * result with a single volatile write.
+         *
+         * @param aContent file content
+         * @throws Exception if the content cannot be loaded
+         */
+        void load(String aContent) throws Exception;
+    }
+
+    /** Watched file. */
+    private final Path file;
+
+    /** Content loader. */
+    private final Loader loader;
+
+    /** Logger. */
+    private final ComponentLog logger;
+
+    /** Polling thread, null until started. */
+    private ScheduledExecutorService executor;
+
+    /** Whether the reloader is closed. */
+    private volatile boolean closed;
+
+    /** Modification time and size of the last seen version. */
+    private String lastVersion;
+
+    /** Number of loaded versions. */
+    private final AtomicLong loads = new AtomicLong();
+
+    /** Number of versions that failed to load. */
+    private final AtomicLong failures = new AtomicLong();
+
+    /** Duration of the last successful load in milliseconds. */
+    private volatile long lastLoadMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param aFile watched file
+     * @param aLoader content loader
+     * @param aLogger logger
+     */
+    public FileReloader(final Path aFile, final Loader aLoader,
+            final ComponentLog aLogger) {
+        file = aFile;
+        loader = aLoader;
+        logger = aLogger;
+    }
+
+    /**
+     * Loads the current content on the calling thread and starts watching.
+     *
+     * @param aInterval polling interval in milliseconds
+     * @throws Exception if the current content cannot be read or loaded
+     */
+    public synchronized void start(final long aInterval) throws Exception {
+        String version = version();
+        load();
+        lastVersion = version;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "FileReloader " + file);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::check, aInterval, aInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops watching and waits for a load in progress to finish.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (null == executor) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS,
+                    TimeUnit.SECONDS)) {
+                logger.warn("Reload of " + file + " still running after "
+                        + CLOSE_TIMEOUT_SECONDS + " s, interrupting it");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of loaded versions, including the initial one
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of versions that failed to load
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return duration of the last successful load in milliseconds
+     */
+    public long getLastLoadMillis() {
+        return lastLoadMillis;
+    }
+
+    /**
+     * Splits a content into entries: one per line, trimmed, without blank
+     * lines and comments. A comment is a line of '#' followed by white space
+     * or nothing, so hashtags like "#HardFork" stay entries.
+     *
+     * @param aContent content
+     * @return entries
+     */
+    public static List<String> entries(final String aContent) {
+        List<String> entries = new ArrayList<String>();
+        for (String line : aContent.split("\r?\n")) {
+            String entry = line.trim();
+            if (!entry.isEmpty() && !isComment(entry)) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Checks for a comment line.
+     *
+     * @param aEntry trimmed line
+     * @return true - if it is '#' alone or followed by white space
+     */
+    private static boolean isComment(final String aEntry) {
+        return '#' == aEntry.charAt(0) && (1 == aEntry.length()
+                || Character.isWhitespace(aEntry.charAt(1)));
+    }
+
+    /**
+     * Loads the file if it changed; runs on the polling thread.
+     */
+    private void check() {
+        if (closed) {
+            return;
+        }
+        String version;
+        try {
+            version = version();
+        } catch (IOException e) {
+            // e.g. replaced by a rename right now, try again next time
+            logger.warn("Cannot check " + file + ": " + e.getMessage());
+            return;
+        }
+        if (version.equals(lastVersion)) {
+            return;
+        }
+        lastVersion = version;
+        try {
+            load();
+            logger.info("Reloaded " + file + " in " + lastLoadMillis + " ms");
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            logger.error("Cannot reload " + file + ", keeping the previous "
+                    + "version: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads and loads the file.
+     *
+     * @throws Exception if the file cannot be read or loaded
+     */
+    private void load() throws Exception {
+        long start = System.nanoTime();
+        loader.load(new String(Files.readAllBytes(file),
+                StandardCharsets.UTF_8));
+        lastLoadMillis = TimeUnit.NANOSECONDS
+                .toMillis(System.nanoTime() - start);
+        loads.incrementAndGet();
+    }
+
+    /**
+     * Identifies the current version of the file.
+     *
+     * @return modification time and size
+     * @throws IOException if the file cannot be read
+     */
+    private String version() throws IOException {
+        BasicFileAttributes attributes =
+                Files.readAttributes(file, BasicFileAttributes.class);
+        return attributes.lastModifiedTime().toMillis() + ":"
+                + attributes.size();
+    }
+
+}
@@ -0,0 +1,262 @@
+package processors;
+
+import java.util.Arrays;
+
+/**
+ * A time-windowed locality-sensitive hashing index of 64-bit fingerprints,
+ * e.g. {@link MinHash} fingerprints, for lookups by Hamming distance.
+ * <p>
+ * The 64 bits of a fingerprint are cut into one band more than the maximum
+ * Hamming distance, so two fingerprints within the distance agree on at
+ * least one whole band. Every band has a {@link LongIntHashMap} from band
+ * value to the newest fingerprint with it, and the fingerprints with the
+ * same band value are chained from new to old; a lookup only compares the
+ * fingerprints sharing a band with the probe.
+ * <p>
+ * Fingerprints live in a ring of fixed capacity in insertion order and
+ * expire after the time window or when the ring is full. Stale band values
+ * are purged by rebuilding the maps once they hold twice as many values as
+ * the ring. All memory but the maps is allocated up front. All methods are
+ * synchronized.
+ */
+public class FingerprintIndex {
+
+    /** Value of the band maps for absent band values. */
+    private static final int NONE = -1;
+
+    /** Maximum Hamming distance of near-duplicates. */
+    private final int maxDistance;
+
+    /** Time window in milliseconds. */
+    private final long windowMillis;
+
+    /** Number of bands. */
+    private final int bands;
+
+    /** Width of a band in bits, the last band takes the rest. */
+    private final int bandBits;
+
+    /** Newest slot by band value, per band. */
+    private final LongIntHashMap[] newest;
+
+    /** Sequence number of the next older slot with the same band value. */
+    private final long[][] older;
+
+    /** Fingerprints by slot. */
+    private final long[] fingerprints;
+
+    /** Insertion times by slot. */
+    private final long[] times;
+
+    /** Sequence numbers by slot, -1 if free. */
+    private final long[] sequences;
+
+    /** Values, e.g. status URLs, by slot. */
+    private final String[] values;
+
+    /** Sequence number of the next fingerprint. */
+    private long next;
+
+    /**
+     * Constructor.
+     *
+     * @param aMaxDistance maximum Hamming distance, 0 to 31
+     * @param aWindowMillis time window in milliseconds
+     * @param aCapacity maximum number of fingerprints
+     */
+    public FingerprintIndex(final int aMaxDistance, final long aWindowMillis,
+            final int aCapacity) {
+        if (aMaxDistance < 0 || aMaxDistance >= Long.SIZE / 2
+                || aCapacity <= 0) {
+            throw new IllegalArgumentException("invalid distance "
+                    + aMaxDistance + " or capacity " + aCapacity);
+        }
+        maxDistance = aMaxDistance;
+        windowMillis = aWindowMillis;
+        bands = aMaxDistance + 1;
+        bandBits = Long.SIZE / bands;
+        newest = new LongIntHashMap[bands];
+        older = new long[bands][aCapacity];
+        for (int b = 0; b < bands; b++) {
+            newest[b] = new LongIntHashMap(aCapacity, NONE);
+        }
+        fingerprints = new long[aCapacity];
+        times = new long[aCapacity];
+        sequences = new long[aCapacity];
+        Arrays.fill(sequences, -1);
+        values = new String[aCapacity];
+    }
+
+    /**
+     * Looks up the oldest fingerprint within the maximum distance; a
+     * fingerprint without one is added.
+     *
+     * @param aFingerprint fingerprint
+     * @param aValue value of the fingerprint, e.g. its status URL
+     * @param aNow current time in milliseconds
+     * @return value and distance of the match or null if it was added
+     */
+    public synchronized Match findOrAdd(final long aFingerprint,
+            final String aValue, final long aNow) {
+        long cutoff = aNow - windowMillis;
+        int bestSlot = -1;
+        int bestDistance = 0;
+        for (int b = 0; b < bands; b++) {
+            long band = band(aFingerprint, b);
+            int slot = newest[b].get(band);
+            long sequence = (NONE == slot) ? -1 : sequences[slot];
+            // a chain ends at an expired or overwritten slot
+            while (sequence >= 0 && live(slot, sequence, cutoff)
+                    && band(fingerprints[slot], b) == band) {
+                int distance = MinHash.distance(aFingerprint,
+                        fingerprints[slot]);
+                if (distance <= maxDistance && (bestSlot < 0
+                        || sequence < sequences[bestSlot])) {
+                    bestSlot = slot;
+                    bestDistance = distance;
+                }
+                sequence = older[b][slot];
+                slot = slotOf(sequence);
+            }
+        }
+        if (bestSlot >= 0) {
+            return new Match(values[bestSlot], bestDistance);
+        }
+        add(aFingerprint, aValue, aNow);
+        return null;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of added fingerprints
+     */
+    public synchronized long getAddedCount() {
+        return next;
+    }
+
+    /**
+     * Adds a fingerprint as the newest one, overwriting the oldest slot.
+     *
+     * @param aFingerprint fingerprint
+     * @param aValue value
+     * @param aNow current time in milliseconds
+     */
+    private void add(final long aFingerprint, final String aValue,
+            final long aNow) {
+        long sequence = next++;
+        int slot = slotOf(sequence);
+        fingerprints[slot] = aFingerprint;
+        times[slot] = aNow;
+        values[slot] = aValue;
+        for (int b = 0; b < bands; b++) {
+            long band = band(aFingerprint, b);
+            int previous = newest[b].get(band);
+            // the overwritten fingerprint keeps its sequence number until
+            // all bands are linked, so a chain never points to itself
+            older[b][slot] = (NONE == previous) ? -1 : sequences[previous];
+            newest[b].put(band, slot);
+            if (newest[b].size() > 2 * fingerprints.length) {
+                rebuild(b);
+            }
+        }
+        sequences[slot] = sequence;
+    }
+
+    /**
+     * Rebuilds the map of a band from the live slots, dropping stale band
+     * values.
+     *
+     * @param aBand band
+     */
+    private void rebuild(final int aBand) {
+        LongIntHashMap map =
+                new LongIntHashMap(fingerprints.length, NONE);
+        // oldest first, so the newest slot of a band value wins
+        long first = Math.max(0, next - fingerprints.length);
+        for (long sequence = first; sequence < next; sequence++) {
+            int slot = slotOf(sequence);
+            map.put(band(fingerprints[slot], aBand), slot);
+        }
+        newest[aBand] = map;
+    }
+
+    /**
+     * Checks whether a slot still holds a fingerprint within the window.
+     *
+     * @param aSlot slot
+     * @param aSequence expected sequence number
+     * @param aCutoff oldest live insertion time
+     * @return true - if the slot is live
+     */
+    private boolean live(final int aSlot, final long aSequence,
+            final long aCutoff) {
+        return sequences[aSlot] == aSequence && times[aSlot] >= aCutoff;
+    }
+
+    /**
+     * Maps a sequence number to its slot.
+     *
+     * @param aSequence sequence number
+     * @return slot
+     */
+    private int slotOf(final long aSequence) {
+        return (int) (Math.max(aSequence, 0) % fingerprints.length);
+    }
+
+    /**
+     * Extracts a band of a fingerprint.
+     *
+     * @param aFingerprint fingerprint
+     * @param aBand band
+     * @return band bits
+     */
+    private long band(final long aFingerprint, final int aBand) {
+        int shift = aBand * bandBits;
+        int width = (aBand == bands - 1) ? Long.SIZE - shift : bandBits;
+        long bits = aFingerprint >>> shift;
+        return (Long.SIZE == width) ? bits : bits & ((1L << width) - 1);
+    }
+
+    /**
+     * A near-duplicate found in the index.
+     */
+    public static final class Match {
+
+        /** Value of the earlier fingerprint. */
+        private final String value;
+
+        /** Hamming distance to it. */
+        private final int distance;
+
+        /**
+         * Constructor.
+         *
+         * @param aValue value of the earlier fingerprint
+         * @param aDistance Hamming distance
+         */
+        Match(final String aValue, final int aDistance) {
+            value = aValue;
+            distance = aDistance;
+        }
+
+        /**
+         * Getter.
+         *
+         * @return value of the earlier fingerprint
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Getter.
+         *
+         * @return Hamming distance
+         */
+        public int getDistance() {
+            return distance;
+        }
+    }
+
+}
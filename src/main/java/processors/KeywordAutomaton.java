@@ -0,0 +1,524 @@
+package processors;
+
+import java.io.IOException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArrayMap;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.Operations;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
+
+/**
+ * An Aho-Corasick automaton over analysed tokens that finds all keywords
+ * (phrases) of a list in a single pass over a tweet.
+ * <p>
+ * Keywords and tweets are run through the same analyzer, so a keyword hits
+ * exactly when the Lucene phrase query for it would. Position gaps left by
+ * removed stop words are wildcards, as in a phrase query: only the part of a
+ * keyword up to its first gap is put into the automaton, the rest is verified
+ * against the token positions of the tweet. Stacked tokens (position
+ * increment 0) are ignored.
+ * <p>
+ * If patterns are enabled, fuzzy and wildcard key words
+ * ({@link KeywordPattern}) match single terms and are not part of the
+ * Aho-Corasick automaton: their character automata are unioned into one
+ * deterministic automaton that every tweet token is run through once, and
+ * only a token it accepts is checked against the individual patterns.
+ * <p>
+ * An automaton is immutable once built and can be shared by any number of
+ * threads; per-tweet scratch space is kept per thread.
+ */
+public class KeywordAutomaton {
+
+    /** The root state. */
+    private static final int ROOT = 0;
+
+    /** Marker for "no such state/keyword/term". */
+    private static final int NONE = -1;
+
+    /** Keywords in their original order. */
+    private final List<String> keywords;
+
+    /** Analyzer for keywords and tweets. */
+    private final Analyzer analyzer;
+
+    /** Field name passed to the analyzer. */
+    private final String field;
+
+    /** Term dictionary: term to term ID. */
+    private final CharArrayMap<Integer> terms;
+
+    /** Goto function: (state, term ID) to state. */
+    private final LongIntHashMap transitions;
+
+    /** Failure function. */
+    private final int[] failure;
+
+    /** First keyword ending in a state. */
+    private final int[] firstOutput;
+
+    /** Next keyword ending in the same state as a keyword. */
+    private final int[] nextOutput;
+
+    /** Nearest state on the failure chain that has an output. */
+    private final int[] outputLink;
+
+    /** Number of positions in the automaton part of a keyword. */
+    private final int[] headLength;
+
+    /** Terms of a keyword after its first gap or null. */
+    private final int[][] tailTerms;
+
+    /** Positions of the tail terms relative to the keyword start. */
+    private final int[][] tailOffsets;
+
+    /** Fuzzy and wildcard key words. */
+    private final KeywordPattern[] patterns;
+
+    /** Keyword indexes of the patterns. */
+    private final int[] patternKeywords;
+
+    /**
+     * Union of all patterns or null if there are none or the union is too
+     * complex, in which case every pattern is checked.
+     */
+    private final CharacterRunAutomaton patternUnion;
+
+    /** Per-thread scratch space. */
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Compiles keywords into an automaton.
+     *
+     * @param aKeywords keywords or phrases
+     * @param aAnalyzer analyzer used for keywords and tweets
+     * @param aField field name passed to the analyzer
+     * @param aPatterns whether fuzzy and wildcard keywords are patterns
+     * @throws IOException if analysis fails
+     */
+    public KeywordAutomaton(final List<String> aKeywords,
+            final Analyzer aAnalyzer, final String aField,
+            final boolean aPatterns) throws IOException {
+        keywords = Collections.unmodifiableList(new ArrayList<>(aKeywords));
+        analyzer = aAnalyzer;
+        field = aField;
+
+        int count = keywords.size();
+        terms = new CharArrayMap<>(count, false);
+        nextOutput = new int[count];
+        headLength = new int[count];
+        tailTerms = new int[count][];
+        tailOffsets = new int[count][];
+        Arrays.fill(nextOutput, NONE);
+
+        // 1. build the trie over the keyword heads
+        LongIntHashMap trie = new LongIntHashMap(count * 2, NONE);
+        List<List<int[]>> children = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        children.add(new ArrayList<>());
+        outputs.add(NONE);
+
+        int[] ids = new int[16];
+        int[] positions = new int[16];
+        List<KeywordPattern> patternList = new ArrayList<>();
+        List<Integer> patternIndexes = new ArrayList<>();
+        for (int k = 0; k < count; k++) {
+            KeywordPattern pattern = aPatterns ? KeywordPattern
+                    .compile(keywords.get(k), analyzer, field) : null;
+            if (null != pattern) {
+                patternList.add(pattern);
+                patternIndexes.add(k);
+                continue;
+            }
+            int length = 0;
+            try (TokenStream ts =
+                    analyzer.tokenStream(field, keywords.get(k))) {
+                CharTermAttribute term =
+                        ts.addAttribute(CharTermAttribute.class);
+                PositionIncrementAttribute increment =
+                        ts.addAttribute(PositionIncrementAttribute.class);
+                ts.reset();
+                int position = NONE;
+                while (ts.incrementToken()) {
+                    int inc = increment.getPositionIncrement();
+                    if (0 == inc) {
+                        continue;
+                    }
+                    // leading gaps are dropped, as by PhraseQuery
+                    position = (NONE == position) ? 0 : position + inc;
+                    if (length == ids.length) {
+                        ids = Arrays.copyOf(ids, length * 2);
+                        positions = Arrays.copyOf(positions, length * 2);
+                    }
+                    ids[length] = termId(term);
+                    positions[length] = position;
+                    length++;
+                }
+                ts.end();
+            }
+            if (0 == length) {
+                // nothing left after analysis, a phrase query never matches
+                continue;
+            }
+
+            int head = 1;
+            while (head < length && positions[head] == head) {
+                head++;
+            }
+            headLength[k] = head;
+            if (head < length) {
+                tailTerms[k] = Arrays.copyOfRange(ids, head, length);
+                tailOffsets[k] = Arrays.copyOfRange(positions, head, length);
+            }
+
+            int state = ROOT;
+            for (int i = 0; i < head; i++) {
+                int next = trie.get(key(state, ids[i]));
+                if (NONE == next) {
+                    next = children.size();
+                    trie.put(key(state, ids[i]), next);
+                    children.get(state).add(new int[] {ids[i], next});
+                    children.add(new ArrayList<>());
+                    outputs.add(NONE);
+                }
+                state = next;
+            }
+            nextOutput[k] = outputs.get(state);
+            outputs.set(state, k);
+        }
+        transitions = trie;
+
+        patterns = patternList.toArray(new KeywordPattern[0]);
+        patternKeywords = new int[patterns.length];
+        List<Automaton> automata = new ArrayList<>();
+        for (int p = 0; p < patterns.length; p++) {
+            patternKeywords[p] = patternIndexes.get(p);
+            automata.add(patterns[p].getAutomaton());
+        }
+        patternUnion = unionOf(automata);
+
+        // 2. breadth-first computation of the failure and output links
+        int states = children.size();
+        failure = new int[states];
+        firstOutput = new int[states];
+        outputLink = new int[states];
+        for (int s = 0; s < states; s++) {
+            firstOutput[s] = outputs.get(s);
+        }
+        outputLink[ROOT] = NONE;
+
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(ROOT);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int[] edge : children.get(state)) {
+                int termId = edge[0];
+                int child = edge[1];
+                int fail = ROOT;
+                if (ROOT != state) {
+                    fail = step(failure[state], termId);
+                }
+                failure[child] = fail;
+                outputLink[child] = (NONE != firstOutput[fail]) ? fail
+                        : outputLink[fail];
+                queue.add(child);
+            }
+        }
+
+        scratch = ThreadLocal.withInitial(() -> new Scratch(count));
+    }
+
+    /**
+     * Finds all keywords contained in a text.
+     *
+     * @param aText tweet text
+     * @return hit keywords in their original order
+     * @throws IOException if analysis fails
+     */
+    public List<String> match(final String aText) throws IOException {
+        Scratch s = scratch.get();
+        s.start();
+        int position = NONE;
+        try (TokenStream ts = analyzer.tokenStream(field, aText)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute increment =
+                    ts.addAttribute(PositionIncrementAttribute.class);
+            ts.reset();
+            int state = ROOT;
+            while (ts.incrementToken()) {
+                int inc = increment.getPositionIncrement();
+                if (0 == inc) {
+                    continue;
+                }
+                if (inc > 1) {
+                    // a gap breaks every partial match
+                    state = ROOT;
+                    for (int i = 1; i < inc; i++) {
+                        s.token(++position, NONE);
+                    }
+                }
+                Integer id = terms.get(term.buffer(), 0, term.length());
+                int termId = (null == id) ? NONE : id;
+                s.token(++position, termId);
+                if (0 != patterns.length) {
+                    matchPatterns(term.buffer(), term.length(), s);
+                }
+                if (NONE == termId) {
+                    state = ROOT;
+                    continue;
+                }
+
+                state = step(state, termId);
+                int out = (NONE != firstOutput[state]) ? state
+                        : outputLink[state];
+                for (; NONE != out; out = outputLink[out]) {
+                    for (int k = firstOutput[out]; NONE != k;
+                            k = nextOutput[k]) {
+                        if (null == tailTerms[k]) {
+                            s.hit(k);
+                        } else {
+                            s.candidate(k, position - headLength[k] + 1);
+                        }
+                    }
+                }
+            }
+            ts.end();
+        }
+
+        // verify the parts of keywords after stop word gaps
+        for (int c = 0; c < s.candidateCount; c++) {
+            int k = s.candidateKeywords[c];
+            int start = s.candidateStarts[c];
+            int[] tail = tailTerms[k];
+            boolean matches = true;
+            for (int i = 0; i < tail.length && matches; i++) {
+                int p = start + tailOffsets[k][i];
+                matches = p <= position && s.tokens[p] == tail[i];
+            }
+            if (matches) {
+                s.hit(k);
+            }
+        }
+        return s.finish(keywords);
+    }
+
+    /**
+     * Getter.
+     *
+     * @return keywords in their original order
+     */
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of automaton states
+     */
+    public int getStateCount() {
+        return failure.length;
+    }
+
+    /**
+     * Records the patterns matching a token.
+     *
+     * @param aBuffer token characters
+     * @param aLength token length
+     * @param aScratch scratch space of the match
+     */
+    private void matchPatterns(final char[] aBuffer, final int aLength,
+            final Scratch aScratch) {
+        if (null != patternUnion && !patternUnion.run(aBuffer, 0, aLength)) {
+            return;
+        }
+        for (int p = 0; p < patterns.length; p++) {
+            if (patterns[p].matches(aBuffer, aLength)) {
+                aScratch.hit(patternKeywords[p]);
+            }
+        }
+    }
+
+    /**
+     * Determinizes the union of pattern automata.
+     *
+     * @param aAutomata automata
+     * @return runner or null if there are none or the union is too complex
+     */
+    private static CharacterRunAutomaton unionOf(
+            final List<Automaton> aAutomata) {
+        if (aAutomata.isEmpty()) {
+            return null;
+        }
+        try {
+            return new CharacterRunAutomaton(Operations.union(aAutomata),
+                    KeywordPattern.MAX_DETERMINIZED_STATES);
+        } catch (TooComplexToDeterminizeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Follows the goto and failure functions.
+     *
+     * @param aState current state
+     * @param aTermId next term
+     * @return next state
+     */
+    private int step(final int aState, final int aTermId) {
+        int state = aState;
+        while (true) {
+            int next = transitions.get(key(state, aTermId));
+            if (NONE != next) {
+                return next;
+            }
+            if (ROOT == state) {
+                return ROOT;
+            }
+            state = failure[state];
+        }
+    }
+
+    /**
+     * Returns the ID of a term, adding it to the dictionary if needed.
+     *
+     * @param aTerm term
+     * @return term ID
+     */
+    private int termId(final CharTermAttribute aTerm) {
+        Integer id = terms.get(aTerm.buffer(), 0, aTerm.length());
+        if (null == id) {
+            id = terms.size();
+            terms.put(aTerm.toString(), id);
+        }
+        return id;
+    }
+
+    /**
+     * Builds a transition key.
+     *
+     * @param aState state
+     * @param aTermId term ID
+     * @return key
+     */
+    private static long key(final int aState, final int aTermId) {
+        return ((long) aState << 32) | (aTermId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Per-thread, reusable scratch space of a match.
+     */
+    private static final class Scratch {
+
+        /** Term IDs by token position. */
+        private int[] tokens = new int[64];
+
+        /** Whether a keyword was hit. */
+        private final boolean[] hits;
+
+        /** Hit keywords in hit order. */
+        private final int[] hitList;
+
+        /** Number of hit keywords. */
+        private int hitCount;
+
+        /** Keywords waiting for tail verification. */
+        private int[] candidateKeywords = new int[8];
+
+        /** Start positions of the candidates. */
+        private int[] candidateStarts = new int[8];
+
+        /** Number of candidates. */
+        private int candidateCount;
+
+        /**
+         * Constructor.
+         *
+         * @param aKeywordCount number of keywords
+         */
+        Scratch(final int aKeywordCount) {
+            hits = new boolean[aKeywordCount];
+            hitList = new int[aKeywordCount];
+        }
+
+        /** Prepares a new match. */
+        void start() {
+            hitCount = 0;
+            candidateCount = 0;
+        }
+
+        /**
+         * Records a token.
+         *
+         * @param aPosition token position
+         * @param aTermId term ID
+         */
+        void token(final int aPosition, final int aTermId) {
+            if (aPosition == tokens.length) {
+                tokens = Arrays.copyOf(tokens, aPosition * 2);
+            }
+            tokens[aPosition] = aTermId;
+        }
+
+        /**
+         * Records a hit keyword.
+         *
+         * @param aKeyword keyword index
+         */
+        void hit(final int aKeyword) {
+            if (!hits[aKeyword]) {
+                hits[aKeyword] = true;
+                hitList[hitCount++] = aKeyword;
+            }
+        }
+
+        /**
+         * Records a keyword that needs tail verification.
+         *
+         * @param aKeyword keyword index
+         * @param aStart start position of the keyword in the tweet
+         */
+        void candidate(final int aKeyword, final int aStart) {
+            if (candidateCount == candidateKeywords.length) {
+                candidateKeywords = Arrays.copyOf(candidateKeywords,
+                        candidateCount * 2);
+                candidateStarts = Arrays.copyOf(candidateStarts,
+                        candidateCount * 2);
+            }
+            candidateKeywords[candidateCount] = aKeyword;
+            candidateStarts[candidateCount] = aStart;
+            candidateCount++;
+        }
+
+        /**
+         * Collects the hits and resets the hit flags.
+         *
+         * @param aKeywords keywords
+         * @return hit keywords in their original order
+         */
+        List<String> finish(final List<String> aKeywords) {
+            if (0 == hitCount) {
+                return Collections.emptyList();
+            }
+            Arrays.sort(hitList, 0, hitCount);
+            List<String> result = new ArrayList<>(hitCount);
+            for (int i = 0; i < hitCount; i++) {
+                result.add(aKeywords.get(hitList[i]));
+                hits[hitList[i]] = false;
+            }
+            return result;
+        }
+    }
+
+}
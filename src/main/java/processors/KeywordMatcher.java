@@ -0,0 +1,145 @@
+package processors;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.memory.MemoryIndex;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+
+/**
+ * A compiled list of key words/phrases.
+ * <p>
+ * The key word list is split, parsed into phrase queries or compiled into a
+ * {@link KeywordAutomaton} once, so matching a tweet does no configuration
+ * work at all. A matcher is immutable and can be shared by any number of
+ * threads.
+ */
+public class KeywordMatcher {
+
+    /** Match engine. */
+    private final MatchEngine engine;
+
+    /** Key words in their original order. */
+    private final List<String> keywords;
+
+    /** Phrase query per key word, null if the automaton is used. */
+    private final Query[] queries;
+
+    /** Keyword automaton, null if the phrase queries are used. */
+    private final KeywordAutomaton automaton;
+
+    /**
+     * Compiles key words.
+     *
+     * @param aKeywords key words, e.g. from {@link #parseKeywords(String)}
+     * @param aUseAutomaton true - to compile an automaton, false - to run
+     *            one phrase query per key word
+     * @param aPatterns true - to treat fuzzy and wildcard key words as
+     *            {@link KeywordPattern}s, false - to analyse them as text
+     * @param aAnalyzer analyzer for key words and tweets
+     * @throws ParseException if a key word cannot be parsed
+     * @throws IOException if the automaton cannot be built
+     */
+    public KeywordMatcher(final List<String> aKeywords,
+            final boolean aUseAutomaton,
+            final boolean aPatterns, final Analyzer aAnalyzer)
+            throws ParseException, IOException {
+        engine = new MatchEngine(aAnalyzer);
+        keywords = Collections
+                .unmodifiableList(new ArrayList<String>(aKeywords));
+        if (aUseAutomaton) {
+            queries = null;
+            automaton = new KeywordAutomaton(keywords, aAnalyzer,
+                    MatchEngine.TEXT_FIELD, aPatterns);
+        } else {
+            queries = new Query[keywords.size()];
+            for (int i = 0; i < queries.length; i++) {
+                queries[i] = parse(keywords.get(i), aAnalyzer, aPatterns);
+            }
+            automaton = null;
+        }
+    }
+
+    /**
+     * Finds the key words contained in a tweet.
+     *
+     * @param aText tweet text
+     * @return hit key words in their original order
+     * @throws IOException if the tweet cannot be analysed
+     */
+    public List<String> match(final String aText) throws IOException {
+        if (null != automaton) {
+            return automaton.match(aText);
+        }
+
+        // the tweet is analysed once and then matched against
+        // every keyword
+        MemoryIndex index = engine.load(aText, null);
+
+        List<String> hits = null;
+        for (int i = 0; i < queries.length; i++) {
+            if (MatchEngine.matches(index, queries[i])) {
+                if (null == hits) {
+                    hits = new ArrayList<String>();
+                }
+                hits.add(keywords.get(i));
+            }
+        }
+        return (null == hits) ? Collections.<String> emptyList() : hits;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return key words in their original order
+     */
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+    /**
+     * Parses a key word into a phrase query, or into a precompiled automaton
+     * query if patterns are enabled and it is a fuzzy or wildcard pattern.
+     *
+     * @param aKeyword key word or phrase
+     * @param aAnalyzer analyzer
+     * @param aPatterns whether fuzzy and wildcard key words are patterns
+     * @return query
+     * @throws ParseException if the key word cannot be parsed
+     */
+    public static Query parse(final String aKeyword, final Analyzer aAnalyzer,
+            final boolean aPatterns) throws ParseException {
+        KeywordPattern pattern = aPatterns ? KeywordPattern.compile(aKeyword,
+                aAnalyzer, MatchEngine.TEXT_FIELD) : null;
+        if (null != pattern) {
+            return pattern.toQuery(MatchEngine.TEXT_FIELD);
+        }
+        // the "Text" arg specifies the default field to use
+        // when no field is explicitly specified in the query.
+        return new QueryParser(MatchEngine.TEXT_FIELD, aAnalyzer)
+                .parse("\"" + aKeyword + "\"");
+    }
+
+    /**
+     * Splits the comma-separated key words.
+     *
+     * @param aKeywords property value
+     * @return key words
+     */
+    public static List<String> parseKeywords(final String aKeywords) {
+        List<String> keywords = new ArrayList<String>();
+        if (!aKeywords.trim().isEmpty()) {
+            keywords = Arrays.asList(aKeywords
+                    .replaceAll("(\\r|\\n|\\r\\n)", "").split(","));
+        }
+        return keywords;
+    }
+
+}
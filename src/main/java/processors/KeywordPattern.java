@@ -0,0 +1,145 @@
+package processors;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.AutomatonQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+
+/**
+ * A single-term key word that matches a set of terms: a fuzzy term such as
+ * {@code bitcoin~1} (up to 1 or 2 edits, transpositions included) or a
+ * wildcard term such as {@code eth*} or {@code d?ge}.
+ * <p>
+ * The pattern is compiled once into a deterministic automaton over the
+ * characters of a term. It is normalized like a Lucene multi-term query:
+ * only the character-level part of the analyzer, e.g. lower-casing, is
+ * applied, and it is matched against the analysed terms of a tweet. A
+ * pattern is immutable and can be shared by any number of threads.
+ * <p>
+ * Patterns are opt-in: callers only compile key words as patterns when
+ * asked to, since "why?" or "what~2" are plain words otherwise.
+ */
+public final class KeywordPattern {
+
+    /** Fuzzy key word syntax: a term and the maximum number of edits. */
+    private static final Pattern FUZZY = Pattern.compile("(\\S+)~([12])");
+
+    /** Maximum number of states when determinizing automata. */
+    static final int MAX_DETERMINIZED_STATES = 100000;
+
+    /** Key word as given. */
+    private final String keyword;
+
+    /** Terms matched by the pattern. */
+    private final Automaton automaton;
+
+    /** Deterministic runner of the automaton. */
+    private final CharacterRunAutomaton runner;
+
+    /**
+     * Constructor.
+     *
+     * @param aKeyword key word as given
+     * @param aAutomaton terms matched by the pattern
+     */
+    private KeywordPattern(final String aKeyword, final Automaton aAutomaton) {
+        keyword = aKeyword;
+        automaton = aAutomaton;
+        runner = new CharacterRunAutomaton(aAutomaton, MAX_DETERMINIZED_STATES);
+    }
+
+    /**
+     * Compiles a key word if it is a pattern.
+     *
+     * @param aKeyword key word
+     * @param aAnalyzer analyzer of the tweets
+     * @param aField field name passed to the analyzer
+     * @return pattern or null if the key word is a plain term or phrase
+     */
+    public static KeywordPattern compile(final String aKeyword,
+            final Analyzer aAnalyzer, final String aField) {
+        String trimmed = aKeyword.trim();
+        if (trimmed.isEmpty() || containsWhitespace(trimmed)) {
+            return null;
+        }
+        Matcher fuzzy = FUZZY.matcher(trimmed);
+        if (fuzzy.matches()) {
+            String term = aAnalyzer.normalize(aField, fuzzy.group(1))
+                    .utf8ToString();
+            int edits = Integer.parseInt(fuzzy.group(2));
+            return new KeywordPattern(aKeyword,
+                    new LevenshteinAutomata(term, true).toAutomaton(edits));
+        }
+        if (trimmed.indexOf('*') >= 0 || trimmed.indexOf('?') >= 0) {
+            String pattern = aAnalyzer.normalize(aField, trimmed)
+                    .utf8ToString();
+            return new KeywordPattern(aKeyword,
+                    WildcardQuery.toAutomaton(new Term(aField, pattern)));
+        }
+        return null;
+    }
+
+    /**
+     * Checks a term.
+     *
+     * @param aBuffer term characters
+     * @param aLength term length
+     * @return true - if the term matches, otherwise - false
+     */
+    public boolean matches(final char[] aBuffer, final int aLength) {
+        return runner.run(aBuffer, 0, aLength);
+    }
+
+    /**
+     * Creates a query matching documents that contain a matching term; the
+     * automaton is compiled once, not on every rewrite.
+     *
+     * @param aField field name
+     * @return query
+     */
+    public Query toQuery(final String aField) {
+        return new AutomatonQuery(new Term(aField, keyword), automaton,
+                MAX_DETERMINIZED_STATES);
+    }
+
+    /**
+     * Getter.
+     *
+     * @return key word as given
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return terms matched by the pattern
+     */
+    public Automaton getAutomaton() {
+        return automaton;
+    }
+
+    /**
+     * Checks for whitespace.
+     *
+     * @param aText text
+     * @return true - if the text contains whitespace, otherwise - false
+     */
+    private static boolean containsWhitespace(final String aText) {
+        for (int i = 0; i < aText.length(); i++) {
+            if (Character.isWhitespace(aText.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
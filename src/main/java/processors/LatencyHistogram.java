@@ -0,0 +1,165 @@
+package processors;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, fixed-size latency histogram.
+ * <p>
+ * Values in nanoseconds are counted in log-linear buckets: every power of
+ * two is split into eight buckets, so a bucket is at most 12.5% wide and
+ * the whole {@code long} range fits into a few hundred counters. Recording
+ * is a single striped increment without allocation, so it is cheap enough
+ * for every FlowFile and does not contend when many concurrent tasks record
+ * the same latency bucket; readers take interval snapshots.
+ */
+public class LatencyHistogram {
+
+    /** Bits of the linear sub-buckets per power of two. */
+    private static final int SUB_BITS = 3;
+
+    /** Linear sub-buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Number of buckets covering the {@code long} range. */
+    private static final int BUCKETS = (64 - SUB_BITS) << SUB_BITS;
+
+    /** Counts per bucket. */
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+    /**
+     * Constructor.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param aNanos latency in nanoseconds
+     */
+    public void record(final long aNanos) {
+        counts[index(Math.max(0, aNanos))].increment();
+    }
+
+    /**
+     * Takes the counts recorded since the last snapshot and starts over.
+     *
+     * @return snapshot
+     */
+    public Snapshot snapshotAndReset() {
+        long[] taken = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            taken[i] = counts[i].sumThenReset();
+        }
+        return new Snapshot(taken);
+    }
+
+    /**
+     * Finds the bucket of a value.
+     *
+     * @param aValue non-negative value
+     * @return bucket index
+     */
+    static int index(final long aValue) {
+        if (aValue < SUB_BUCKETS) {
+            return (int) aValue;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(aValue);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS)
+                + (int) ((aValue >>> (exponent - SUB_BITS))
+                        & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Computes the largest value of a bucket.
+     *
+     * @param aIndex bucket index
+     * @return largest value
+     */
+    static long upperBound(final int aIndex) {
+        if (aIndex < SUB_BUCKETS) {
+            return aIndex;
+        }
+        int shift = (aIndex >>> SUB_BITS) - 1;
+        long lower = (long) (SUB_BUCKETS + (aIndex & (SUB_BUCKETS - 1)))
+                << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Counts of one interval.
+     */
+    public static final class Snapshot {
+
+        /** Counts per bucket. */
+        private final long[] counts;
+
+        /** Number of values. */
+        private final long count;
+
+        /**
+         * Constructor.
+         *
+         * @param aCounts counts per bucket
+         */
+        Snapshot(final long[] aCounts) {
+            counts = aCounts;
+            long sum = 0;
+            for (long c : aCounts) {
+                sum += c;
+            }
+            count = sum;
+        }
+
+        /**
+         * Getter.
+         *
+         * @return number of recorded values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Estimates a percentile; the result is at most one bucket (12.5%)
+         * above the exact value.
+         *
+         * @param aPercentile percentile, between 0 and 100
+         * @return value in nanoseconds, 0 if nothing was recorded
+         */
+        public long getPercentile(final double aPercentile) {
+            if (0 == count) {
+                return 0;
+            }
+            long rank = Math.max(1,
+                    (long) Math.ceil(count * aPercentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * Getter.
+         *
+         * @return upper bound of the largest value in nanoseconds, 0 if
+         *         nothing was recorded
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (0 != counts[i]) {
+                    return upperBound(i);
+                }
+            }
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,409 @@
+package processors;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size, time-windowed set of primitive {@code long} IDs used to omit
+ * duplicate tweets.
+ * <p>
+ * IDs live in an open-addressing hash table with linear probing and
+ * backward-shift deletion, so lookups are O(1) and nothing is boxed. A ring
+ * buffer keeps the insertion order: when the set is full the oldest ID is
+ * evicted, and IDs older than the time-to-live are evicted on the next
+ * access. All memory is allocated up front.
+ * <p>
+ * An optional Bloom filter in front of the table answers most "never seen"
+ * lookups from a much smaller bit array, which pays off once the table no
+ * longer fits the CPU cache. It has two generations that are rotated every
+ * {@code capacity} insertions, so an ID is always covered for as long as it
+ * can be in the set.
+ * <p>
+ * All methods are synchronized; the monitor is uncontended with a single
+ * stream thread.
+ */
+public class LongDedupSet {
+
+    /** Bloom filter bits per ID and generation. */
+    private static final int BLOOM_BITS_PER_ID = 16;
+
+    /** Maximum number of IDs. */
+    private final int capacity;
+
+    /** Time-to-live of an ID in milliseconds, 0 for no limit. */
+    private final long ttlMillis;
+
+    /** Hash table of IDs; 0 marks a free slot. */
+    private final long[] table;
+
+    /** Hash table size minus one. */
+    private final int mask;
+
+    /** Whether the ID 0 is present. */
+    private boolean hasZero;
+
+    /** IDs in insertion order. */
+    private final long[] ringIds;
+
+    /** Insertion times, parallel to the ring IDs. */
+    private final long[] ringTimes;
+
+    /** Ring index of the oldest ID. */
+    private int head;
+
+    /** Number of IDs. */
+    private int size;
+
+    /** Bloom filter generations, null if disabled. */
+    private final long[][] bloom;
+
+    /** Index of the current Bloom filter generation. */
+    private int bloomCurrent;
+
+    /** Insertions into the current Bloom filter generation. */
+    private int bloomInserts;
+
+    /**
+     * Constructor.
+     *
+     * @param aCapacity maximum number of IDs
+     * @param aTtlMillis time-to-live of an ID in milliseconds, 0 for no limit
+     * @param aBloomFilter whether to put a Bloom filter in front of the table
+     */
+    public LongDedupSet(final int aCapacity, final long aTtlMillis,
+            final boolean aBloomFilter) {
+        capacity = aCapacity;
+        ttlMillis = aTtlMillis;
+        int tableSize = LongIntHashMap.tableSize(aCapacity);
+        table = new long[tableSize];
+        mask = tableSize - 1;
+        ringIds = new long[aCapacity];
+        ringTimes = new long[aCapacity];
+        if (aBloomFilter) {
+            long bits = (long) aCapacity * BLOOM_BITS_PER_ID;
+            int words = (int) Math.min(1 << 30,
+                    Long.highestOneBit(Math.max(bits >>> 6, 1) - 1) << 1);
+            bloom = new long[2][Math.max(words, 1)];
+        } else {
+            bloom = null;
+        }
+    }
+
+    /**
+     * Adds an ID unless it is already present.
+     *
+     * @param aId ID
+     * @param aNow current time in milliseconds
+     * @return true - if the ID is new, false - if it is a duplicate
+     */
+    public synchronized boolean add(final long aId, final long aNow) {
+        expire(aNow);
+        if (contains(aId)) {
+            return false;
+        }
+        if (size == capacity) {
+            evictOldest();
+        }
+        insert(aId);
+        int tail = head + size;
+        if (tail >= capacity) {
+            tail -= capacity;
+        }
+        ringIds[tail] = aId;
+        ringTimes[tail] = aNow;
+        size++;
+        if (null != bloom) {
+            bloomAdd(aId);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether an ID is present.
+     *
+     * @param aId ID
+     * @param aNow current time in milliseconds
+     * @return true - if the ID was seen within the window, otherwise - false
+     */
+    public synchronized boolean contains(final long aId, final long aNow) {
+        expire(aNow);
+        return contains(aId);
+    }
+
+    /**
+     * Removes an ID again, e.g. when the tweet it was added for could not be
+     * kept, so a later copy is not taken for a duplicate. Newer IDs move
+     * back one ring slot, which is cheap for a recently added ID. The Bloom
+     * filter keeps its bits, and the insertion no longer counts towards its
+     * rotation, since the freed slot lets the other IDs stay longer.
+     *
+     * @param aId ID
+     * @return true - if the ID was present, otherwise - false
+     */
+    public synchronized boolean forget(final long aId) {
+        if (!contains(aId)) {
+            return false;
+        }
+        int i = size - 1;
+        while (i >= 0 && ringIds[ring(i)] != aId) {
+            i--;
+        }
+        if (i < 0) {
+            return false;
+        }
+        for (; i < size - 1; i++) {
+            ringIds[ring(i)] = ringIds[ring(i + 1)];
+            ringTimes[ring(i)] = ringTimes[ring(i + 1)];
+        }
+        size--;
+        remove(aId);
+        if (null != bloom) {
+            bloomInserts--;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the IDs and their insertion times, oldest first.
+     *
+     * @param aIds target for the IDs, at least {@link #size()} long
+     * @param aTimes target for the insertion times, parallel to the IDs
+     * @return number of copied IDs
+     */
+    public synchronized int export(final long[] aIds, final long[] aTimes) {
+        int first = Math.min(size, capacity - head);
+        System.arraycopy(ringIds, head, aIds, 0, first);
+        System.arraycopy(ringTimes, head, aTimes, 0, first);
+        System.arraycopy(ringIds, 0, aIds, first, size - first);
+        System.arraycopy(ringTimes, 0, aTimes, first, size - first);
+        return size;
+    }
+
+    /**
+     * Adds previously exported IDs, oldest first, keeping their original
+     * insertion times. Expired IDs and duplicates are skipped.
+     *
+     * @param aIds IDs
+     * @param aTimes insertion times
+     * @param aCount number of IDs
+     * @param aNow current time in milliseconds
+     */
+    public synchronized void restore(final long[] aIds, final long[] aTimes,
+            final int aCount, final long aNow) {
+        for (int i = Math.max(0, aCount - capacity); i < aCount; i++) {
+            if (0 == ttlMillis || aTimes[i] >= aNow - ttlMillis) {
+                add(aIds[i], aTimes[i]);
+            }
+        }
+        expire(aNow);
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of IDs
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return maximum number of IDs
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return time-to-live of an ID in milliseconds, 0 for no limit
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return whether a Bloom filter is used
+     */
+    public boolean hasBloomFilter() {
+        return null != bloom;
+    }
+
+    /**
+     * Checks the table (and Bloom filter) for an ID.
+     *
+     * @param aId ID
+     * @return true - if present, otherwise - false
+     */
+    private boolean contains(final long aId) {
+        if (0L == aId) {
+            return hasZero;
+        }
+        if (null != bloom && !bloomMightContain(aId)) {
+            return false;
+        }
+        int slot = LongIntHashMap.mix(aId) & mask;
+        long current;
+        while (0L != (current = table[slot])) {
+            if (current == aId) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Evicts the IDs older than the time-to-live.
+     *
+     * @param aNow current time in milliseconds
+     */
+    private void expire(final long aNow) {
+        if (0 == ttlMillis) {
+            return;
+        }
+        long oldest = aNow - ttlMillis;
+        while (size > 0 && ringTimes[head] < oldest) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * Maps a position in insertion order to a ring index.
+     *
+     * @param aPosition position, 0 for the oldest ID
+     * @return ring index
+     */
+    private int ring(final int aPosition) {
+        int index = head + aPosition;
+        return (index >= capacity) ? index - capacity : index;
+    }
+
+    /**
+     * Evicts the oldest ID.
+     */
+    private void evictOldest() {
+        remove(ringIds[head]);
+        if (++head == capacity) {
+            head = 0;
+        }
+        size--;
+    }
+
+    /**
+     * Puts an absent ID into the table.
+     *
+     * @param aId ID
+     */
+    private void insert(final long aId) {
+        if (0L == aId) {
+            hasZero = true;
+            return;
+        }
+        int slot = LongIntHashMap.mix(aId) & mask;
+        while (0L != table[slot]) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = aId;
+    }
+
+    /**
+     * Removes an ID from the table, shifting later entries of its probe
+     * sequence back so that no tombstones are needed.
+     *
+     * @param aId ID
+     */
+    private void remove(final long aId) {
+        if (0L == aId) {
+            hasZero = false;
+            return;
+        }
+        int free = LongIntHashMap.mix(aId) & mask;
+        while (table[free] != aId) {
+            if (0L == table[free]) {
+                return;
+            }
+            free = (free + 1) & mask;
+        }
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long current = table[slot];
+            if (0L == current) {
+                break;
+            }
+            int ideal = LongIntHashMap.mix(current) & mask;
+            // move the entry unless its ideal slot lies in (free, slot]
+            boolean stays = (free <= slot) ? (free < ideal && ideal <= slot)
+                    : (free < ideal || ideal <= slot);
+            if (!stays) {
+                table[free] = current;
+                free = slot;
+            }
+        }
+        table[free] = 0L;
+    }
+
+    /**
+     * Adds an ID to the current Bloom filter generation, rotating the
+     * generations when it is full.
+     *
+     * @param aId ID
+     */
+    private void bloomAdd(final long aId) {
+        if (bloomInserts == capacity) {
+            bloomCurrent ^= 1;
+            Arrays.fill(bloom[bloomCurrent], 0L);
+            bloomInserts = 0;
+        }
+        long[] bits = bloom[bloomCurrent];
+        long hash = bloomHash(aId);
+        bits[(int) hash & (bits.length - 1)] |= bloomMask(hash);
+        bloomInserts++;
+    }
+
+    /**
+     * Checks both Bloom filter generations.
+     *
+     * @param aId ID
+     * @return false - if the ID is certainly absent, otherwise - true
+     */
+    private boolean bloomMightContain(final long aId) {
+        long hash = bloomHash(aId);
+        long bitMask = bloomMask(hash);
+        for (long[] bits : bloom) {
+            if ((bits[(int) hash & (bits.length - 1)] & bitMask) == bitMask) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hashes an ID for the Bloom filter; the low bits select the word.
+     *
+     * @param aId ID
+     * @return hash
+     */
+    private static long bloomHash(final long aId) {
+        long h = aId * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Selects three bits within one word (a blocked Bloom filter), so a
+     * lookup touches a single cache line per generation.
+     *
+     * @param aHash hash
+     * @return bit mask
+     */
+    private static long bloomMask(final long aHash) {
+        return (1L << (aHash >>> 34)) | (1L << (aHash >>> 40))
+                | (1L << (aHash >>> 46));
+    }
+
+}
@@ -0,0 +1,166 @@
+package processors;
+
+/**
+ * An open-addressing hash map from primitive {@code long} keys to primitive
+ * {@code int} values with linear probing.
+ * <p>
+ * The map never boxes and only allocates when it grows, so lookups on the
+ * hot path are allocation-free. Entries cannot be removed. Not thread-safe
+ * while being filled; safe to share for reading once fully built.
+ */
+public class LongIntHashMap {
+
+    /** Maximum fill ratio before the table is doubled. */
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /** Value returned for absent keys. */
+    private final int missingValue;
+
+    /** Keys; 0 marks a free slot. */
+    private long[] keys;
+
+    /** Values, parallel to the keys. */
+    private int[] values;
+
+    /** Table size minus one. */
+    private int mask;
+
+    /** Number of entries with a non-zero key. */
+    private int size;
+
+    /** Whether the key 0 is present. */
+    private boolean hasZeroKey;
+
+    /** Value of the key 0. */
+    private int zeroValue;
+
+    /**
+     * Constructor.
+     *
+     * @param aExpectedSize expected number of entries
+     * @param aMissingValue value returned for absent keys
+     */
+    public LongIntHashMap(final int aExpectedSize, final int aMissingValue) {
+        missingValue = aMissingValue;
+        int capacity = tableSize(aExpectedSize);
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Looks a key up.
+     *
+     * @param aKey key
+     * @return value or the missing value if the key is absent
+     */
+    public int get(final long aKey) {
+        if (0L == aKey) {
+            return hasZeroKey ? zeroValue : missingValue;
+        }
+        int slot = mix(aKey) & mask;
+        long current;
+        while (0L != (current = keys[slot])) {
+            if (current == aKey) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    /**
+     * Adds or replaces an entry.
+     *
+     * @param aKey key
+     * @param aValue value
+     */
+    public void put(final long aKey, final int aValue) {
+        if (0L == aKey) {
+            hasZeroKey = true;
+            zeroValue = aValue;
+            return;
+        }
+        int slot = mix(aKey) & mask;
+        long current;
+        while (0L != (current = keys[slot])) {
+            if (current == aKey) {
+                values[slot] = aValue;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = aKey;
+        values[slot] = aValue;
+        if (++size > keys.length * LOAD_FACTOR) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return hasZeroKey ? size + 1 : size;
+    }
+
+    /**
+     * Moves all entries into a larger table.
+     *
+     * @param aCapacity new table size, a power of two
+     */
+    private void rehash(final int aCapacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[aCapacity];
+        values = new int[aCapacity];
+        mask = aCapacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (0L != key) {
+                int slot = mix(key) & mask;
+                while (0L != keys[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Computes a power-of-two table size for the expected number of entries.
+     *
+     * @param aExpectedSize expected number of entries
+     * @return table size
+     */
+    static int tableSize(final int aExpectedSize) {
+        long needed =
+                (long) Math.ceil(Math.max(aExpectedSize, 2) / LOAD_FACTOR);
+        long capacity = Long.highestOneBit(needed - 1) << 1;
+        if (capacity > (1 << 30)) {
+            throw new IllegalArgumentException(
+                    "Too many entries: " + aExpectedSize);
+        }
+        return (int) capacity;
+    }
+
+    /**
+     * Spreads the bits of a key (the finalizer of MurmurHash3).
+     *
+     * @param aKey key
+     * @return hash
+     */
+    static int mix(final long aKey) {
+        long h = aKey;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+}
@@ -0,0 +1,176 @@
+package processors;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the UTF-8 lines of a file through memory-mapped windows.
+ * <p>
+ * The file is mapped in windows of a fixed size, so files larger than the
+ * address space limit of a single mapping can be read, and lines are found
+ * by scanning the mapped bytes directly without a stream or a decoder
+ * buffer in between. A line that crosses the end of a window is re-read
+ * from a window starting at the line. A reader is not thread-safe.
+ */
+public class MappedLineReader implements Closeable {
+
+    /** Default window size in bytes. */
+    static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    /** File channel. */
+    private final FileChannel channel;
+
+    /** File length at opening. */
+    private final long length;
+
+    /** Window size in bytes. */
+    private final int windowSize;
+
+    /** Current window or null. */
+    private MappedByteBuffer window;
+
+    /** File offset of the current window. */
+    private long windowStart;
+
+    /** File offset of the next line. */
+    private long position;
+
+    /** Line bytes, reused between lines. */
+    private byte[] lineBytes = new byte[1024];
+
+    /**
+     * Opens a file.
+     *
+     * @param aFile file
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedLineReader(final Path aFile) throws IOException {
+        this(aFile, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Opens a file.
+     *
+     * @param aFile file
+     * @param aWindowSize window size in bytes, also the maximum line length
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedLineReader(final Path aFile, final int aWindowSize)
+            throws IOException {
+        channel = FileChannel.open(aFile, StandardOpenOption.READ);
+        length = channel.size();
+        windowSize = aWindowSize;
+    }
+
+    /**
+     * Reads the next line without its line terminator.
+     *
+     * @return line or null at the end of the file
+     * @throws IOException if the file cannot be read or a line is longer
+     *             than the window
+     */
+    public String readLine() throws IOException {
+        if (position >= length) {
+            return null;
+        }
+        while (true) {
+            if (null == window || position < windowStart
+                    || position >= windowStart + window.limit()) {
+                map(position);
+            }
+            int from = (int) (position - windowStart);
+            int limit = window.limit();
+            for (int i = from; i < limit; i++) {
+                if ('\n' == window.get(i)) {
+                    return line(from, i, i + 1);
+                }
+            }
+            if (windowStart + limit >= length) {
+                // last line without a terminator
+                return line(from, limit, limit);
+            }
+            if (0 == from) {
+                throw new IOException("Line longer than " + windowSize
+                        + " bytes at offset " + position);
+            }
+            map(position);
+        }
+    }
+
+    /**
+     * Starts reading from the beginning of the file again.
+     */
+    public void rewind() {
+        position = 0;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return file offset of the next line
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return file length at opening
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Maps a window.
+     *
+     * @param aStart file offset of the window
+     * @throws IOException if the file cannot be mapped
+     */
+    private void map(final long aStart) throws IOException {
+        window = channel.map(MapMode.READ_ONLY, aStart,
+                Math.min(windowSize, length - aStart));
+        windowStart = aStart;
+    }
+
+    /**
+     * Decodes a line of the current window and moves past it.
+     *
+     * @param aFrom window offset of the line
+     * @param aTo window offset of the line end, exclusive
+     * @param aNext window offset of the next line
+     * @return line
+     */
+    private String line(final int aFrom, final int aTo, final int aNext) {
+        int end = aTo;
+        if (end > aFrom && '\r' == window.get(end - 1)) {
+            end--;
+        }
+        int count = end - aFrom;
+        if (count > lineBytes.length) {
+            lineBytes = new byte[Math.max(count, lineBytes.length << 1)];
+        }
+        window.position(aFrom);
+        window.get(lineBytes, 0, count);
+        position = windowStart + aNext;
+        return new String(lineBytes, 0, count, StandardCharsets.UTF_8);
+    }
+
+}
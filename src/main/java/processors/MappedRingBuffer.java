@@ -0,0 +1,172 @@
+package processors;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A FIFO of byte records in a memory-mapped file of fixed size.
+ * <p>
+ * Records are written back to back as a length, followed by the bytes, and
+ * wrap around at the end of the file; a record never straddles the end, the
+ * rest of the file is skipped instead. The operating system pages the file
+ * in and out, so the heap only holds the record being read or written.
+ * The content does not survive a restart: the file is a spill area, not a
+ * journal. All methods are synchronized.
+ */
+public class MappedRingBuffer implements Closeable {
+
+    /** Length marking the skipped rest of the file. */
+    private static final int WRAP = -1;
+
+    /** Bytes of a record header. */
+    private static final int HEADER = Integer.BYTES;
+
+    /** File. */
+    private final Path file;
+
+    /** Mapped file content, null once closed. */
+    private MappedByteBuffer buffer;
+
+    /** Size of the file. */
+    private final int capacity;
+
+    /** Position of the oldest record. */
+    private int head;
+
+    /** Position of the next record. */
+    private int tail;
+
+    /** Bytes in use, including skipped ends. */
+    private int used;
+
+    /** Number of records. */
+    private int count;
+
+    /**
+     * Creates and maps a file.
+     *
+     * @param aFile file, created or truncated
+     * @param aCapacity file size in bytes
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public MappedRingBuffer(final Path aFile, final int aCapacity)
+            throws IOException {
+        if (aCapacity <= HEADER) {
+            throw new IllegalArgumentException("invalid capacity "
+                    + aCapacity);
+        }
+        file = aFile;
+        capacity = aCapacity;
+        try (FileChannel channel = FileChannel.open(aFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, aCapacity);
+        }
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param aRecord record
+     * @return true - if it was appended, false - if the file is full
+     */
+    public synchronized boolean offer(final byte[] aRecord) {
+        int size = HEADER + aRecord.length;
+        boolean wrap = tail + size > capacity;
+        int skipped = wrap ? capacity - tail : 0;
+        if (null == buffer || used + skipped + size > capacity) {
+            return false;
+        }
+        if (wrap) {
+            // a reader treats less than a header at the end as skipped
+            if (skipped >= HEADER) {
+                buffer.putInt(tail, WRAP);
+            }
+            used += skipped;
+            tail = 0;
+        }
+        buffer.position(tail);
+        buffer.putInt(aRecord.length);
+        buffer.put(aRecord);
+        tail += size;
+        used += size;
+        count++;
+        return true;
+    }
+
+    /**
+     * Removes the oldest record.
+     *
+     * @return record or null if there is none
+     */
+    public synchronized byte[] poll() {
+        if (0 == count || null == buffer) {
+            return null;
+        }
+        if (capacity - head < HEADER || WRAP == buffer.getInt(head)) {
+            used -= capacity - head;
+            head = 0;
+        }
+        buffer.position(head);
+        byte[] record = new byte[buffer.getInt()];
+        buffer.get(record);
+        head += HEADER + record.length;
+        used -= HEADER + record.length;
+        if (0 == --count) {
+            // start over, so records wrap as rarely as possible
+            head = 0;
+            tail = 0;
+            used = 0;
+        }
+        return record;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of records
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return bytes in use
+     */
+    public synchronized int getUsedBytes() {
+        return used;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return file size in bytes
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Drops the records and deletes the file. The mapping is released by the
+     * garbage collector.
+     *
+     * @throws IOException if the file cannot be deleted
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        buffer = null;
+        count = 0;
+        Files.deleteIfExists(file);
+    }
+
+}
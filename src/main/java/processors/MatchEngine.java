@@ -0,0 +1,83 @@
+package processors;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.index.memory.MemoryIndex;
+import org.apache.lucene.search.Query;
+
+/**
+ * A reusable single-document match engine.
+ * <p>
+ * Every thread owns one {@link MemoryIndex} that is reset and refilled with
+ * the next tweet, so a tweet is analysed exactly once no matter how many
+ * queries are run against it afterwards. An engine is created once per
+ * scheduling and may be shared by all concurrent tasks of a processor.
+ */
+public class MatchEngine {
+
+    /** Name of the tweet text field. */
+    public static final String TEXT_FIELD = "Text";
+
+    /** Name of the (untokenized) user ID field. */
+    public static final String USER_ID_FIELD = "UserId";
+
+    /** Analyzer for the text field. */
+    private final Analyzer analyzer;
+
+    /** Analyzer for untokenized fields. */
+    private final Analyzer keywordAnalyzer = new KeywordAnalyzer();
+
+    /** Per-thread in-memory documents. */
+    private final ThreadLocal<MemoryIndex> indexes =
+            ThreadLocal.withInitial(MemoryIndex::new);
+
+    /**
+     * Constructor.
+     *
+     * @param aAnalyzer analyzer for the text field; the same analyzer has to
+     *            be used to parse the queries
+     */
+    public MatchEngine(final Analyzer aAnalyzer) {
+        analyzer = aAnalyzer;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return analyzer for the text field
+     */
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /**
+     * Loads a tweet into the in-memory document of the calling thread. The
+     * returned document stays valid until the next call from the same thread.
+     *
+     * @param aText tweet text
+     * @param aUserId user ID or null if it should not be indexed
+     * @return in-memory document
+     */
+    public MemoryIndex load(final String aText, final String aUserId) {
+        MemoryIndex index = indexes.get();
+        index.reset();
+        index.addField(TEXT_FIELD, aText, analyzer);
+        if (null != aUserId) {
+            index.addField(USER_ID_FIELD, aUserId, keywordAnalyzer);
+        }
+        return index;
+    }
+
+    /**
+     * Checks whether a query matches a loaded document.
+     *
+     * @param aIndex in-memory document
+     * @param aQuery query
+     * @return true - if the query matches, otherwise - false
+     */
+    public static boolean matches(final MemoryIndex aIndex,
+            final Query aQuery) {
+        return aIndex.search(aQuery) > 0.0f;
+    }
+
+}
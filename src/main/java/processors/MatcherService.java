@@ -0,0 +1,47 @@
+package processors;
+
+import java.io.IOException;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import org.apache.nifi.controller.ControllerService;
+
+/**
+ * A controller service owning compiled matchers, so that processors
+ * searching for the same key words or queries share one compiled matcher
+ * and one analyzer chain instead of compiling their own.
+ * <p>
+ * Returned matchers are immutable and may be used by any number of
+ * processors and concurrent tasks.
+ */
+public interface MatcherService extends ControllerService {
+
+    /**
+     * Returns the compiled key words, compiling them on first use.
+     *
+     * @param aKeywords key words
+     * @param aUseAutomaton whether the automaton engine is used
+     * @param aPatterns whether fuzzy and wildcard key words are patterns
+     * @return compiled key words per analyzer chain
+     * @throws IOException if the key words cannot be compiled
+     * @throws ParseException if a key word cannot be parsed
+     */
+    PerLanguage<KeywordMatcher> getKeywordMatchers(List<String> aKeywords,
+            boolean aUseAutomaton, boolean aPatterns)
+            throws IOException, ParseException;
+
+    /**
+     * Returns the compiled queries, compiling them on first use.
+     *
+     * @param aQueries query strings by name, in routing order
+     * @return compiled queries per analyzer chain
+     * @throws IOException if an analyzer cannot be created
+     * @throws ParseException if a query cannot be parsed
+     */
+    PerLanguage<QueryMatcher> getQueryMatchers(Map<String, String> aQueries)
+            throws IOException, ParseException;
+
+}
@@ -0,0 +1,135 @@
+package processors;
+
+import java.util.Arrays;
+
+/**
+ * 64-bit MinHash fingerprints of tweet texts.
+ * <p>
+ * A text is lower-cased and split into words of letters, digits, '$' and
+ * '#'; links are skipped, since copies of a text usually differ in them.
+ * Each of 64 hash functions picks the word with the smallest hash, and the
+ * fingerprint keeps the lowest bit of every minimum (one-bit MinHash). Two
+ * texts agree on a bit with probability (1 + J) / 2, where J is the Jaccard
+ * similarity of their word sets, so the expected Hamming distance is
+ * 32 (1 - J): 0 for the same words in any order, about 4 for one word
+ * changed in fifteen and 32 for unrelated texts. Only a small array of
+ * minima is allocated per text.
+ */
+public final class MinHash {
+
+    /** FNV-1a offset basis. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /** FNV-1a prime. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Step between the seeds of the hash functions (golden ratio). */
+    private static final long SEED_STEP = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Utility class.
+     */
+    private MinHash() {}
+
+    /**
+     * Computes the fingerprint of a text.
+     *
+     * @param aText text
+     * @param aMinWords minimum number of words
+     * @return fingerprint or 0 if the text has fewer words
+     */
+    public static long fingerprint(final CharSequence aText,
+            final int aMinWords) {
+        long[] minima = new long[Long.SIZE];
+        Arrays.fill(minima, -1L);
+        int words = 0;
+        long word = FNV_OFFSET;
+        boolean inWord = false;
+        boolean inLink = false;
+        int length = aText.length();
+        for (int i = 0; i <= length; i++) {
+            char c = (i < length) ? Character.toLowerCase(aText.charAt(i))
+                    : ' ';
+            if (inLink) {
+                inLink = !Character.isWhitespace(c);
+                continue;
+            }
+            if (Character.isLetterOrDigit(c) || '$' == c || '#' == c) {
+                if (!inWord && startsWith(aText, i, "http")) {
+                    inLink = true;
+                    continue;
+                }
+                word = (word ^ c) * FNV_PRIME;
+                inWord = true;
+            } else if (inWord) {
+                for (int h = 0; h < Long.SIZE; h++) {
+                    long hash = mix(word + h * SEED_STEP);
+                    if (Long.compareUnsigned(hash, minima[h]) < 0) {
+                        minima[h] = hash;
+                    }
+                }
+                words++;
+                word = FNV_OFFSET;
+                inWord = false;
+            }
+        }
+        if (words < aMinWords || 0 == words) {
+            return 0;
+        }
+        long fingerprint = 0;
+        for (int h = 0; h < Long.SIZE; h++) {
+            fingerprint |= (minima[h] & 1L) << h;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Computes the Hamming distance of two fingerprints.
+     *
+     * @param aFirst fingerprint
+     * @param aSecond fingerprint
+     * @return number of differing bits
+     */
+    public static int distance(final long aFirst, final long aSecond) {
+        return Long.bitCount(aFirst ^ aSecond);
+    }
+
+    /**
+     * Checks for a lower-case prefix at a position.
+     *
+     * @param aText text
+     * @param aStart position
+     * @param aPrefix lower-case prefix
+     * @return true - if the text continues with the prefix
+     */
+    private static boolean startsWith(final CharSequence aText,
+            final int aStart, final String aPrefix) {
+        if (aStart + aPrefix.length() > aText.length()) {
+            return false;
+        }
+        for (int i = 0; i < aPrefix.length(); i++) {
+            if (Character.toLowerCase(aText.charAt(aStart + i))
+                    != aPrefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Spreads the bits of a hash (the finalizer of MurmurHash3).
+     *
+     * @param aHash hash
+     * @return 64-bit hash
+     */
+    private static long mix(final long aHash) {
+        long h = aHash;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
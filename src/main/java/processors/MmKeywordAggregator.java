@@ -0,0 +1,489 @@
+package processors;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
+import org.apache.nifi.annotation.behavior.TriggerWhenEmpty;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.util.FormatUtils;
+
+import twitter4j.JSONObject;
+
+/**
+ * A processor counting the key word hits found by {@link MmKeywordSearcher}
+ * over time windows and emitting one summary per window step.
+ * <p>
+ * Hits are counted in {@link WindowedCounters}; the window step is the emit
+ * interval. Sliding windows are summarized on every step, tumbling windows
+ * once they end, aligned to the epoch (e.g. a 1 hour window ends on the full
+ * UTC hour). A summary is a single JSON object, e.g.
+ * <pre>
+ * {"windowEnd":1476795600000,"mode":"Sliding","windows":[
+ *   {"window":"1 min","millis":60000,"hits":{"bitcoin":12,"eth*":3}}]}
+ * </pre>
+ * The processor is also triggered without input, so summaries are emitted
+ * on time when no tweets arrive; idle triggers yield, so a summary may be
+ * up to the yield duration late.
+ */
+@SupportsBatching
+@TriggerWhenEmpty
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@Tags({"MM", "keyword", "aggregate", "window"})
+@CapabilityDescription("This processor counts key word hits over sliding or "
+        + "tumbling time windows and periodically emits summaries.")
+public class MmKeywordAggregator extends AbstractProcessor {
+
+    /** Relationship "Summary". */
+    public static final Relationship REL_SUMMARY = new Relationship.Builder()
+            .name("summary")
+            .description("This is where the window summaries are sent.")
+            .build();
+
+    /** Relationship "Original". */
+    public static final Relationship REL_ORIGINAL = new Relationship.Builder()
+            .name("original")
+            .description(
+                    "This is where the counted tweets are sent; auto-terminate "
+                            + "it to keep the summaries only.")
+            .build();
+
+    /** List of processor properties. */
+    private List<PropertyDescriptor> properties;
+
+    /** List of processor relationships. */
+    private Set<Relationship> relationships;
+
+    /** Window mode value. */
+    public static final AllowableValue MODE_SLIDING = new AllowableValue(
+            "Sliding", "Sliding",
+            "Every window is summarized on every emit interval.");
+
+    /** Window mode value. */
+    public static final AllowableValue MODE_TUMBLING = new AllowableValue(
+            "Tumbling", "Tumbling",
+            "A window is summarized once it ends; windows do not overlap.");
+
+    /** Processor property. */
+    public static final PropertyDescriptor WINDOWS =
+            new PropertyDescriptor.Builder().name("Windows").description(
+                    "Specifies comma-separated window lengths; every length "
+                            + "has to be a multiple of the emit interval.")
+                    .defaultValue("1 min, 5 min, 1 hour").required(true)
+                    .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor WINDOW_MODE =
+            new PropertyDescriptor.Builder().name("Window Mode").description(
+                    "Specifies whether windows slide or tumble.")
+                    .allowableValues(MODE_SLIDING, MODE_TUMBLING)
+                    .defaultValue(MODE_SLIDING.getValue()).required(true)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor EMIT_INTERVAL =
+            new PropertyDescriptor.Builder().name("Emit Interval").description(
+                    "Specifies the window step: how often summaries are "
+                            + "emitted and the resolution of the counts.")
+                    .defaultValue("10 sec").required(true)
+                    .addValidator(StandardValidators
+                            .createTimePeriodValidator(1, TimeUnit.SECONDS,
+                                    Integer.MAX_VALUE, TimeUnit.SECONDS))
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor MAX_KEYWORDS =
+            new PropertyDescriptor.Builder().name("Max Keywords").description(
+                    "Specifies how many distinct key words are counted; hits "
+                            + "of further key words are dropped. Memory is "
+                            + "8 bytes per key word and emit interval of the "
+                            + "longest window.")
+                    .defaultValue("1000").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor TOP_KEYWORDS =
+            new PropertyDescriptor.Builder().name("Top Keywords").description(
+                    "Specifies how many of the most frequent key words are "
+                            + "listed per window; 0 lists all of them.")
+                    .defaultValue("100").required(true)
+                    .addValidator(
+                            StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor BATCH_SIZE =
+            new PropertyDescriptor.Builder().name("Batch Size").description(
+                    "Specifies the maximum number of tweets taken and "
+                            + "committed in one go.")
+                    .defaultValue("1000").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Counter name. */
+    public static final String HITS = "Keyword Hits";
+
+    /** Counter name. */
+    public static final String DROPPED_HITS = "Dropped Keyword Hits";
+
+    /** Counter name. */
+    public static final String SUMMARIES = "Summaries";
+
+    /** Maximum number of counters, key words times buckets. */
+    private static final long MAX_COUNTERS = 1L << 24;
+
+    /** Counts, created on scheduling. */
+    private volatile WindowedCounters counters;
+
+    /** Window names and lengths in emit intervals, read on scheduling. */
+    private volatile Map<String, Integer> windows;
+
+    /** Emit interval in milliseconds, read on scheduling. */
+    private volatile long interval;
+
+    /** Whether windows tumble, read on scheduling. */
+    private volatile boolean tumbling;
+
+    /** Number of listed key words per window, read on scheduling. */
+    private volatile int top;
+
+    /** Batch size, read on scheduling. */
+    private volatile int batchSize;
+
+    /** End of the current window step. */
+    private final AtomicLong nextEmit = new AtomicLong();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+
+        final Set<Relationship> procRels = new HashSet<Relationship>();
+        procRels.add(REL_SUMMARY);
+        procRels.add(REL_ORIGINAL);
+        setRelationships(Collections.unmodifiableSet(procRels));
+
+        final List<PropertyDescriptor> supDescriptors =
+                new ArrayList<PropertyDescriptor>();
+        supDescriptors.add(WINDOWS);
+        supDescriptors.add(WINDOW_MODE);
+        supDescriptors.add(EMIT_INTERVAL);
+        supDescriptors.add(MAX_KEYWORDS);
+        supDescriptors.add(TOP_KEYWORDS);
+        supDescriptors.add(BATCH_SIZE);
+        setProperties(Collections.unmodifiableList(supDescriptors));
+
+        getLogger()
+                .info(this.getClass().getName() + ": Initialisation complete!");
+
+    }
+
+    /**
+     * Creates the counters; counts of a previous schedule are discarded.
+     *
+     * @param aContext process context
+     */
+    @OnScheduled
+    public void onScheduled(final ProcessContext aContext) {
+        interval = aContext.getProperty(EMIT_INTERVAL)
+                .asTimePeriod(TimeUnit.MILLISECONDS);
+        windows = parseWindows(aContext.getProperty(WINDOWS).getValue(),
+                interval);
+        tumbling = MODE_TUMBLING.getValue()
+                .equals(aContext.getProperty(WINDOW_MODE).getValue());
+        top = aContext.getProperty(TOP_KEYWORDS).asInteger();
+        batchSize = aContext.getProperty(BATCH_SIZE).asInteger();
+        counters = new WindowedCounters(
+                aContext.getProperty(MAX_KEYWORDS).asInteger(),
+                Collections.max(windows.values()));
+        // steps end on multiples of the interval, so tumbling windows align
+        long now = System.currentTimeMillis();
+        nextEmit.set(now - now % interval + interval);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTrigger(final ProcessContext aContext,
+            final ProcessSession aSession) throws ProcessException {
+
+        WindowedCounters current = counters;
+        List<FlowFile> flowFiles = aSession.get(batchSize);
+        int hits = 0;
+        int dropped = 0;
+        for (FlowFile flowFile : flowFiles) {
+            for (String keyword : parseHits(
+                    flowFile.getAttribute("Keywords"))) {
+                if (current.increment(keyword)) {
+                    hits++;
+                } else {
+                    dropped++;
+                }
+            }
+        }
+        if (!flowFiles.isEmpty()) {
+            aSession.transfer(flowFiles, REL_ORIGINAL);
+            aSession.adjustCounter(ProcessorMetrics.RECEIVED,
+                    flowFiles.size(), false);
+            aSession.adjustCounter(HITS, hits, false);
+            if (dropped > 0) {
+                aSession.adjustCounter(DROPPED_HITS, dropped, false);
+            }
+        }
+
+        // only one task closes a step, concurrent ones keep counting
+        boolean emitted = false;
+        long end = nextEmit.get();
+        while (System.currentTimeMillis() >= end
+                && nextEmit.compareAndSet(end, end + interval)) {
+            current.tick();
+            emit(aSession, current, end);
+            end += interval;
+            emitted = true;
+        }
+        if (flowFiles.isEmpty() && !emitted) {
+            // idle: back off instead of spinning until the step ends
+            aContext.yield();
+        }
+    }
+
+    /**
+     * Emits the summary of the windows ending with a step.
+     *
+     * @param aSession process session
+     * @param aCounters counts
+     * @param aEnd end of the step
+     */
+    private void emit(final ProcessSession aSession,
+            final WindowedCounters aCounters, final long aEnd) {
+        final Map<String, Integer> lengths = windows;
+        final Map<String, List<WindowedCounters.Count>> summary =
+                new LinkedHashMap<String, List<WindowedCounters.Count>>();
+        boolean empty = true;
+        for (Map.Entry<String, Integer> window : lengths.entrySet()) {
+            if (tumbling && 0 != aEnd % (window.getValue() * interval)) {
+                continue;
+            }
+            List<WindowedCounters.Count> counts =
+                    aCounters.sum(window.getValue());
+            if (top > 0 && counts.size() > top) {
+                counts = counts.subList(0, top);
+            }
+            summary.put(window.getKey(), counts);
+            empty &= counts.isEmpty();
+        }
+        if (empty) {
+            return;
+        }
+
+        FlowFile flowFile = aSession.create();
+        flowFile = aSession.write(flowFile, out -> {
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write("{\"windowEnd\":" + aEnd + ",\"mode\":"
+                    + JSONObject.quote(tumbling ? MODE_TUMBLING.getValue()
+                            : MODE_SLIDING.getValue())
+                    + ",\"windows\":[");
+            boolean first = true;
+            for (Map.Entry<String, List<WindowedCounters.Count>> window
+                    : summary.entrySet()) {
+                writer.write((first ? "" : ",") + "{\"window\":"
+                        + JSONObject.quote(window.getKey()) + ",\"millis\":"
+                        + lengths.get(window.getKey()) * interval
+                        + ",\"hits\":{");
+                first = false;
+                boolean firstHit = true;
+                for (WindowedCounters.Count count : window.getValue()) {
+                    writer.write((firstHit ? "" : ",")
+                            + JSONObject.quote(count.getKey()) + ":"
+                            + count.getHits());
+                    firstHit = false;
+                }
+                writer.write("}}");
+            }
+            writer.write("]}");
+            writer.flush();
+        });
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put(CoreAttributes.MIME_TYPE.key(), "application/json");
+        attributes.put("WindowEnd", String.valueOf(aEnd));
+        attributes.put("WindowMode",
+                tumbling ? MODE_TUMBLING.getValue() : MODE_SLIDING.getValue());
+        flowFile = aSession.putAllAttributes(flowFile, attributes);
+        aSession.transfer(flowFile, REL_SUMMARY);
+        aSession.adjustCounter(SUMMARIES, 1, false);
+    }
+
+    /**
+     * Splits the Keywords attribute set by {@link MmKeywordSearcher}, e.g.
+     * "[bitcoin,  eth*]".
+     *
+     * @param aAttribute attribute value, may be null
+     * @return key words
+     */
+    static List<String> parseHits(final String aAttribute) {
+        if (null == aAttribute) {
+            return Collections.emptyList();
+        }
+        String list = aAttribute.trim();
+        if (list.startsWith("[") && list.endsWith("]")) {
+            list = list.substring(1, list.length() - 1);
+        }
+        List<String> hits = new ArrayList<String>();
+        for (String hit : list.split(",")) {
+            String keyword = hit.trim();
+            if (!keyword.isEmpty()) {
+                hits.add(keyword);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Parses the window lengths.
+     *
+     * @param aWindows comma-separated time periods
+     * @param aInterval emit interval in milliseconds
+     * @return window names and lengths in emit intervals, in the given order
+     * @throws IllegalArgumentException if a window is invalid
+     */
+    static Map<String, Integer> parseWindows(final String aWindows,
+            final long aInterval) {
+        Map<String, Integer> lengths = new LinkedHashMap<String, Integer>();
+        for (String window : aWindows.split(",")) {
+            String name = window.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            long millis = FormatUtils.getTimeDuration(name,
+                    TimeUnit.MILLISECONDS);
+            if (millis <= 0 || 0 != millis % aInterval) {
+                throw new IllegalArgumentException("window '" + name
+                        + "' is not a multiple of the emit interval");
+            }
+            if (millis / aInterval > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("window '" + name
+                        + "' is too long");
+            }
+            lengths.put(name, (int) (millis / aInterval));
+        }
+        if (lengths.isEmpty()) {
+            throw new IllegalArgumentException("no window given");
+        }
+        return lengths;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collection<ValidationResult> customValidate(
+            final ValidationContext aContext) {
+        final List<ValidationResult> results =
+                new ArrayList<ValidationResult>();
+        Long emitInterval = aContext.getProperty(EMIT_INTERVAL)
+                .asTimePeriod(TimeUnit.MILLISECONDS);
+        String value = aContext.getProperty(WINDOWS).getValue();
+        if (null == emitInterval || null == value) {
+            return results;
+        }
+        try {
+            int buckets = Collections.max(
+                    parseWindows(value, emitInterval).values());
+            long size = (long) buckets
+                    * aContext.getProperty(MAX_KEYWORDS).asInteger();
+            if (size > MAX_COUNTERS) {
+                results.add(new ValidationResult.Builder()
+                        .subject(MAX_KEYWORDS.getName()).valid(false)
+                        .explanation(size + " counters exceed the maximum of "
+                                + MAX_COUNTERS + "; use fewer key words, a "
+                                + "longer emit interval or shorter windows")
+                        .build());
+            }
+        } catch (IllegalArgumentException e) {
+            results.add(new ValidationResult.Builder()
+                    .subject(WINDOWS.getName()).input(value).valid(false)
+                    .explanation(e.getMessage()).build());
+        }
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    /**
+     * Setter.
+     *
+     * @param aRelationships relationships
+     */
+    public void setRelationships(final Set<Relationship> aRelationships) {
+        relationships = aRelationships;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return properties
+     */
+    public List<PropertyDescriptor> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Setter.
+     *
+     * @param aProperties properties
+     */
+    public void setProperties(final List<PropertyDescriptor> aProperties) {
+        properties = aProperties;
+    }
+
+}
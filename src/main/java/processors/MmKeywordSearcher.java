@@ -2,34 +2,28 @@ package processors;
 
 import java.io.IOException;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.RAMDirectory;
 
 import org.apache.nifi.annotation.behavior.InputRequirement;
 import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.AbstractProcessor;
 import org.apache.nifi.processor.ProcessContext;
@@ -41,7 +35,15 @@ import org.apache.nifi.processor.util.StandardValidators;
 
 /**
  * A Lucene-based keyword searcher class.
+ * <p>
+ * The processor scales with "Concurrent Tasks": the compiled key words are
+ * immutable and shared by all tasks, every thread analyses tweets into its
+ * own in-memory index ({@link MatchEngine}) or automaton scratch space
+ * ({@link KeywordAutomaton}), and the metrics are striped counters. No lock
+ * is taken per tweet. Key words from a keyword file are recompiled in the
+ * background when the file changes and swapped in atomically.
  */
+@SupportsBatching
 @InputRequirement(Requirement.INPUT_REQUIRED)
 @Tags({"MM", "keyword", "search"})
 @CapabilityDescription("This processor searches for keywords/phrases in tweets.")
@@ -63,11 +65,114 @@ public class MmKeywordSearcher extends AbstractProcessor {
     /** Processor property. */
     public static final PropertyDescriptor KEYWORDS =
             new PropertyDescriptor.Builder().name("Key words").description(
-                    "Specifies comma-separated key words to search for.")
+                    "Specifies comma-separated key words to search for. "
+                    + "With key word patterns enabled, a single word may "
+                    + "be fuzzy, e.g. \"bitcoin~1\" (up to 1 or 2 edits), "
+                    + "or contain the wildcards '*' and '?', e.g. "
+                    + "\"eth*\".")
                     .defaultValue("test").required(true)
                     .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
                     .build();
 
+    /** Processor property. */
+    public static final PropertyDescriptor KEYWORD_FILE =
+            new PropertyDescriptor.Builder().name("Keyword File").description(
+                    "Specifies a file with one key word or phrase per line; "
+                            + "blank lines and comments, lines starting with "
+                            + "'#' and a space, are ignored; a line may hold "
+                            + "commas and hashtags like \"#HardFork\". If "
+                            + "set, it replaces the key words property and "
+                            + "is reloaded in the background "
+                            + "whenever it changes, without stopping the "
+                            + "processor.")
+                    .required(false)
+                    .addValidator(StandardValidators.FILE_EXISTS_VALIDATOR)
+                    .build();
+
+    /** Match engine value. */
+    public static final AllowableValue ENGINE_LUCENE = new AllowableValue(
+            "Lucene", "Lucene",
+            "Runs one Lucene phrase query per keyword against the tweet.");
+
+    /** Match engine value. */
+    public static final AllowableValue ENGINE_AUTOMATON = new AllowableValue(
+            "Automaton", "Automaton",
+            "Compiles all keywords into one Aho-Corasick automaton and finds "
+                    + "every hit in a single pass over the tweet.");
+
+    /** Processor property. */
+    public static final PropertyDescriptor MATCH_ENGINE =
+            new PropertyDescriptor.Builder().name("Match Engine").description(
+                    "Specifies how the key words are matched. Both engines "
+                            + "produce the same hits.")
+                    .allowableValues(ENGINE_LUCENE, ENGINE_AUTOMATON)
+                    .defaultValue(ENGINE_LUCENE.getValue()).required(true)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor KEYWORD_PATTERNS =
+            new PropertyDescriptor.Builder().name("Keyword Patterns")
+                    .description(
+                            "Specifies whether single key words of the form "
+                                    + "\"term~1\" or \"term~2\", or "
+                                    + "containing '*' or '?', are fuzzy and "
+                                    + "wildcard patterns. If false, they "
+                                    + "are analysed like any other key "
+                                    + "word, so \"why?\" matches \"why\"; "
+                                    + "if true, \"why?\" needs one more "
+                                    + "character.")
+                    .allowableValues("true", "false").defaultValue("false")
+                    .required(true).build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor BATCH_SIZE =
+            new PropertyDescriptor.Builder().name("Batch Size").description(
+                    "Specifies the maximum number of tweets taken and "
+                            + "committed in one go.")
+                    .defaultValue("100").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor MATCHER_SERVICE =
+            new PropertyDescriptor.Builder().name("Matcher Service")
+                    .description("Specifies a shared matcher service. If "
+                            + "set, the key words are compiled by the "
+                            + "service once for all processors with the "
+                            + "same key words and match engine with the "
+                            + "analyzer chain of the service; the analyzer "
+                            + "properties below are ignored.")
+                    .required(false)
+                    .identifiesControllerService(MatcherService.class)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor ANALYZER =
+            Analyzers.analyzerProperty(Analyzers.STANDARD);
+
+    /** Processor property. */
+    public static final PropertyDescriptor CUSTOM_ANALYZER =
+            Analyzers.customAnalyzerProperty();
+
+    /** Processor property. */
+    public static final PropertyDescriptor LANGUAGE_ANALYZERS =
+            Analyzers.languageAnalyzersProperty();
+
+    /** Compiled key words; null until scheduled or after a change. */
+    private volatile PerLanguage<KeywordMatcher> matchers;
+
+    /** Watched keyword file or null. */
+    private volatile FileReloader reloader;
+
+    /** Batch size, read on scheduling. */
+    private volatile int batchSize;
+
+    /** Polling interval of the keyword file in milliseconds. */
+    private static final long RELOAD_CHECK_INTERVAL = 1000;
+
+    /** Match time per FlowFile. */
+    private final ProcessorMetrics metrics = new ProcessorMetrics("Match Time");
+
     /**
      * {@inheritDoc}
      */
@@ -81,6 +186,14 @@ public class MmKeywordSearcher extends AbstractProcessor {
         final List<PropertyDescriptor> supDescriptors =
                 new ArrayList<PropertyDescriptor>();
         supDescriptors.add(KEYWORDS);
+        supDescriptors.add(KEYWORD_FILE);
+        supDescriptors.add(MATCH_ENGINE);
+        supDescriptors.add(KEYWORD_PATTERNS);
+        supDescriptors.add(BATCH_SIZE);
+        supDescriptors.add(MATCHER_SERVICE);
+        supDescriptors.add(ANALYZER);
+        supDescriptors.add(CUSTOM_ANALYZER);
+        supDescriptors.add(LANGUAGE_ANALYZERS);
         setProperties(Collections.unmodifiableList(supDescriptors));
 
         getLogger()
@@ -95,84 +208,229 @@ public class MmKeywordSearcher extends AbstractProcessor {
     public void onTrigger(final ProcessContext aContext,
             final ProcessSession aSession) throws ProcessException {
 
-        FlowFile flowFile = aSession.get();
-        if (null == flowFile) {
+        List<FlowFile> flowFiles = aSession.get(batchSize);
+        if (flowFiles.isEmpty()) {
             return;
         }
 
-        String keywordString = aContext.getProperty(KEYWORDS).getValue();
-        List<String> keywords = new ArrayList<String>();
-        if (!keywordString.trim().isEmpty()) {
-            keywords = Arrays.asList(keywordString
-                    .replaceAll("(\\r|\\n|\\r\\n)", "").split(","));
-        }
-
-        // String userId = flowFile.getAttribute("UserId");
-        String text = flowFile.getAttribute("Text");
-        if (!text.isEmpty()) {
-            // 0. Specify the analyzer for tokenizing text.
-            // The same analyzer should be used for indexing and searching
-            StandardAnalyzer analyzer = new StandardAnalyzer();
-
-            // 1. create the index
-            Directory index = new RAMDirectory();
-
-            IndexWriterConfig config = new IndexWriterConfig(analyzer);
-
-            try {
-                IndexWriter w = new IndexWriter(index, config);
-                Document doc = new Document();
-                doc.add(new TextField("Text", text, Field.Store.YES));
-
-                // use a string field for userId because we don't want it
-                // tokenized
-                // doc.add(new StringField("UserId", userId, Field.Store.YES));
-
-                w.addDocument(doc);
-                w.close();
-
-                // 2. query
-                // boolean hit = false;
-                List<String> hits = new ArrayList<String>();
-                for (String keyword : keywords) {
-
-                    // the "Text" arg specifies the default field to use
-                    // when no field is explicitly specified in the query.
-                    Query q = new QueryParser("Text", analyzer)
-                            .parse("\"" + keyword + "\"");
-
-                    // 3. search
-                    int hitsPerPage = 10;
-                    IndexReader reader = DirectoryReader.open(index);
-
-                    IndexSearcher searcher = new IndexSearcher(reader);
-                    TopDocs docs = searcher.search(q, hitsPerPage);
-
-                    if (docs.totalHits > 0) {
-                        // getLogger().info("Hits found!");
-                        // hit = true;
-                        hits.add(keyword);
-                    }
-                    // reader can only be closed when there
-                    // is no need to access the documents any more.
-                    reader.close();
+        try {
+            PerLanguage<KeywordMatcher> keywordMatchers =
+                    getMatchers(aContext);
+            int matched = 0;
+            for (FlowFile flowFile : flowFiles) {
+                // String userId = flowFile.getAttribute("UserId");
+                String text = flowFile.getAttribute("Text");
+                List<String> hits = Collections.emptyList();
+                if (null != text && !text.isEmpty()) {
+                    long start = System.nanoTime();
+                    hits = keywordMatchers.get(flowFile.getAttribute("Lang"))
+                            .match(text);
+                    metrics.recordLatency(System.nanoTime() - start);
                 }
                 if (!hits.isEmpty()) {
-                    aSession.putAttribute(flowFile, "Keywords",
+                    flowFile = aSession.putAttribute(flowFile, "Keywords",
                             hits.toString());
+                    metrics.recordAge(flowFile, System.currentTimeMillis());
                     aSession.transfer(flowFile, REL_SUCCESS);
-                    getLogger()
-                            .info("Flowfile with a keyword is sent forward!");
+                    matched++;
+                    if (getLogger().isDebugEnabled()) {
+                        getLogger().debug("Flowfile with a keyword is sent "
+                                + "forward: " + hits);
+                    }
                 } else {
                     aSession.remove(flowFile);
-                    getLogger().info("No keyword found!");
                 }
-                aSession.commit();
+            }
+            aSession.adjustCounter(ProcessorMetrics.RECEIVED,
+                    flowFiles.size(), false);
+            aSession.adjustCounter(ProcessorMetrics.MATCHED, matched, false);
+            aSession.adjustCounter(ProcessorMetrics.DROPPED,
+                    flowFiles.size() - matched, false);
+            metrics.report(aSession);
+            FileReloader file = reloader;
+            if (null != file) {
+                metrics.setReloads(aSession, file, "Keywords",
+                        keywordMatchers.getMain().getKeywords().size());
+            }
+        } catch (IOException | ParseException e) {
+            getLogger().error(e.getMessage());
+            aSession.rollback();
+            aContext.yield();
+        }
+    }
 
-            } catch (IOException | ParseException e) {
-                getLogger().error(e.getMessage());
+    /**
+     * Compiles the key words unless they are cached already, or loads and
+     * starts watching the keyword file.
+     *
+     * @param aContext process context
+     * @throws Exception if the keywords cannot be compiled
+     */
+    @OnScheduled
+    public void onScheduled(final ProcessContext aContext) throws Exception {
+        batchSize = aContext.getProperty(BATCH_SIZE).asInteger();
+        final MatcherService service = aContext.getProperty(MATCHER_SERVICE)
+                .asControllerService(MatcherService.class);
+        String fileName = aContext.getProperty(KEYWORD_FILE).getValue();
+        if (null == fileName) {
+            if (null != service) {
+                // the service may have been reconfigured while stopped
+                matchers = null;
             }
+            getMatchers(aContext);
+            return;
+        }
+        final boolean useAutomaton = ENGINE_AUTOMATON.getValue()
+                .equals(aContext.getProperty(MATCH_ENGINE).getValue());
+        final boolean patterns =
+                aContext.getProperty(KEYWORD_PATTERNS).asBoolean();
+        final String analyzer = aContext.getProperty(ANALYZER).getValue();
+        final String custom = aContext.getProperty(CUSTOM_ANALYZER).getValue();
+        final String languages =
+                aContext.getProperty(LANGUAGE_ANALYZERS).getValue();
+        // a new version is compiled in the background and swapped in with a
+        // single volatile write; running tasks keep the version they read
+        FileReloader file = new FileReloader(Paths.get(fileName),
+                // one key word per line, commas included
+                content -> matchers = compile(service,
+                        FileReloader.entries(content), useAutomaton,
+                        patterns, analyzer, custom, languages),
+                getLogger());
+        file.start(RELOAD_CHECK_INTERVAL);
+        reloader = file;
+    }
+
+    /**
+     * Stops watching the keyword file.
+     */
+    @OnStopped
+    public void cleanUp() {
+        FileReloader file = reloader;
+        reloader = null;
+        if (null != file) {
+            file.close();
+            // the property key words apply again unless the file is kept
+            matchers = null;
+        }
+    }
+
+    /**
+     * Drops the compiled key words when the configuration changes.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPropertyModified(final PropertyDescriptor aDescriptor,
+            final String aOldValue, final String aNewValue) {
+        matchers = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collection<ValidationResult> customValidate(
+            final ValidationContext aContext) {
+        final List<ValidationResult> results =
+                new ArrayList<ValidationResult>();
+        String keywords = aContext.getProperty(KEYWORDS).getValue();
+        if (null == keywords) {
+            return results;
+        }
+        Analyzer analyzer;
+        try {
+            Analyzers.parseLanguages(
+                    aContext.getProperty(LANGUAGE_ANALYZERS).getValue());
+            analyzer = Analyzers.get(aContext.getProperty(ANALYZER).getValue(),
+                    aContext.getProperty(CUSTOM_ANALYZER).getValue());
+        } catch (IOException | IllegalArgumentException e) {
+            results.add(new ValidationResult.Builder()
+                    .subject(ANALYZER.getName()).valid(false)
+                    .explanation("cannot create analyzer: " + e.getMessage())
+                    .build());
+            return results;
+        }
+        boolean patterns = aContext.getProperty(KEYWORD_PATTERNS).asBoolean();
+        for (String keyword : KeywordMatcher.parseKeywords(keywords)) {
+            try {
+                KeywordMatcher.parse(keyword, analyzer, patterns);
+            } catch (ParseException e) {
+                results.add(new ValidationResult.Builder()
+                        .subject(KEYWORDS.getName()).input(keyword)
+                        .valid(false)
+                        .explanation("cannot parse key word '" + keyword
+                                + "': " + e.getMessage())
+                        .build());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return metrics, e.g. the match time percentiles
+     */
+    public ProcessorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the compiled key words, compiling them if needed. Concurrent
+     * tasks may compile at the same time; the last one wins and all results
+     * are equivalent.
+     *
+     * @param aContext process context
+     * @return compiled key words per analyzer chain
+     * @throws IOException if the keywords cannot be compiled
+     * @throws ParseException if a keyword cannot be parsed
+     */
+    private PerLanguage<KeywordMatcher> getMatchers(
+            final ProcessContext aContext) throws IOException, ParseException {
+        PerLanguage<KeywordMatcher> current = matchers;
+        if (null == current) {
+            current = compile(aContext.getProperty(MATCHER_SERVICE)
+                    .asControllerService(MatcherService.class),
+                    KeywordMatcher.parseKeywords(
+                            aContext.getProperty(KEYWORDS).getValue()),
+                    ENGINE_AUTOMATON.getValue().equals(
+                            aContext.getProperty(MATCH_ENGINE).getValue()),
+                    aContext.getProperty(KEYWORD_PATTERNS).asBoolean(),
+                    aContext.getProperty(ANALYZER).getValue(),
+                    aContext.getProperty(CUSTOM_ANALYZER).getValue(),
+                    aContext.getProperty(LANGUAGE_ANALYZERS).getValue());
+            matchers = current;
+        }
+        return current;
+    }
+
+    /**
+     * Compiles key words, or gets them from the shared service.
+     *
+     * @param aService matcher service, may be null
+     * @param aKeywords key words
+     * @param aUseAutomaton whether the automaton engine is used
+     * @param aPatterns whether fuzzy and wildcard key words are patterns
+     * @param aAnalyzer main analyzer name
+     * @param aCustom custom analyzer specification
+     * @param aLanguages language:analyzer pairs, may be null
+     * @return compiled key words per analyzer chain
+     * @throws IOException if the keywords cannot be compiled
+     * @throws ParseException if a keyword cannot be parsed
+     */
+    private static PerLanguage<KeywordMatcher> compile(
+            final MatcherService aService, final List<String> aKeywords,
+            final boolean aUseAutomaton, final boolean aPatterns,
+            final String aAnalyzer, final String aCustom,
+            final String aLanguages) throws IOException, ParseException {
+        if (null != aService) {
+            return aService.getKeywordMatchers(aKeywords, aUseAutomaton,
+                    aPatterns);
         }
+        // The same analyzer should be used for indexing and searching
+        return new PerLanguage<KeywordMatcher>(aAnalyzer, aCustom, aLanguages,
+                analyzer -> new KeywordMatcher(aKeywords, aUseAutomaton,
+                        aPatterns, analyzer));
     }
 
     /**
@@ -2,35 +2,33 @@ package processors;
 
 import java.io.IOException;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import org.apache.lucene.analysis.core.KeywordAnalyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.RAMDirectory;
 
+import org.apache.nifi.annotation.behavior.DynamicProperty;
+import org.apache.nifi.annotation.behavior.DynamicRelationship;
 import org.apache.nifi.annotation.behavior.InputRequirement;
 import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.AbstractProcessor;
 import org.apache.nifi.processor.ProcessContext;
@@ -42,10 +40,30 @@ import org.apache.nifi.processor.util.StandardValidators;
 
 /**
  * A Lucene-based keyword searcher class.
+ * <p>
+ * Besides the main query, any number of named queries can be added as dynamic
+ * properties. They are kept in a {@link QueryMonitor}, so a tweet is only run
+ * against the queries that can possibly match it, and it is routed to one
+ * relationship per matching query name. A tweet lacking the required terms
+ * of every query is rejected by a {@link TermFilter} before it is loaded.
+ * <p>
+ * The processor scales with "Concurrent Tasks": the compiled queries and
+ * their routes are one immutable snapshot shared by all tasks, every thread
+ * analyses tweets into its own in-memory index ({@link MatchEngine}) and
+ * candidate scratch space ({@link QueryMonitor}), and the metrics are
+ * striped counters. No lock is taken per tweet. Queries from a query file
+ * are recompiled in the background when the file changes and swapped in
+ * atomically.
  */
+@SupportsBatching
 @InputRequirement(Requirement.INPUT_REQUIRED)
 @Tags({"MM", "query", "Lucene"})
 @CapabilityDescription("This processor executes a Lucene query on tweets.")
+@DynamicProperty(name = "Relationship name", value = "Lucene query",
+        description = "Routes tweets matching the query to the relationship "
+                + "of the same name.")
+@DynamicRelationship(name = "Name from dynamic property",
+        description = "Tweets matching the query of the dynamic property.")
 public class MmLuceneQueryProcessor extends AbstractProcessor {
 
     /** Relationship "Success". */
@@ -59,7 +77,16 @@ public class MmLuceneQueryProcessor extends AbstractProcessor {
     private List<PropertyDescriptor> properties;
 
     /** List of processor relationships. */
-    private Set<Relationship> relationships;
+    private volatile Set<Relationship> relationships;
+
+    /** Rejects dynamic query names that clash with a static relationship. */
+    private static final Validator DYNAMIC_NAME_VALIDATOR =
+            (aSubject, aInput, aContext) -> new ValidationResult.Builder()
+                    .subject(aSubject).input(aInput)
+                    .valid(!REL_SUCCESS.getName().equals(aSubject))
+                    .explanation("'" + REL_SUCCESS.getName()
+                            + "' is reserved for the main query")
+                    .build();
 
     /** Processor property. */
     public static final PropertyDescriptor QUERY =
@@ -69,6 +96,70 @@ public class MmLuceneQueryProcessor extends AbstractProcessor {
                     .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
                     .build();
 
+    /** Processor property. */
+    public static final PropertyDescriptor QUERY_FILE =
+            new PropertyDescriptor.Builder().name("Query File").description(
+                    "Specifies a file with one Lucene query per line; blank "
+                            + "lines and comments, lines starting with '#' "
+                            + "and a space, are ignored. If set, a tweet "
+                            + "matching any of them is routed to success "
+                            + "instead of the main query; with none, no "
+                            + "tweet is. The file is reloaded in the "
+                            + "background whenever it changes, without "
+                            + "stopping the processor.")
+                    .required(false)
+                    .addValidator(StandardValidators.FILE_EXISTS_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor BATCH_SIZE =
+            new PropertyDescriptor.Builder().name("Batch Size").description(
+                    "Specifies the maximum number of tweets taken and "
+                            + "committed in one go.")
+                    .defaultValue("100").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor MATCHER_SERVICE =
+            new PropertyDescriptor.Builder().name("Matcher Service")
+                    .description("Specifies a shared matcher service. If "
+                            + "set, the queries are compiled by the service "
+                            + "once for all processors with the same "
+                            + "queries with the analyzer chain of the "
+                            + "service; the analyzer properties below are "
+                            + "ignored.")
+                    .required(false)
+                    .identifiesControllerService(MatcherService.class)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor ANALYZER =
+            Analyzers.analyzerProperty(Analyzers.KEYWORD);
+
+    /** Processor property. */
+    public static final PropertyDescriptor CUSTOM_ANALYZER =
+            Analyzers.customAnalyzerProperty();
+
+    /** Processor property. */
+    public static final PropertyDescriptor LANGUAGE_ANALYZERS =
+            Analyzers.languageAnalyzersProperty();
+
+    /** Compiled queries and routes; null until scheduled or changed. */
+    private volatile Compiled compiled;
+
+    /** Watched query file or null. */
+    private volatile FileReloader reloader;
+
+    /** Batch size, read on scheduling. */
+    private volatile int batchSize;
+
+    /** Polling interval of the query file in milliseconds. */
+    private static final long RELOAD_CHECK_INTERVAL = 1000;
+
+    /** Match time per FlowFile. */
+    private final ProcessorMetrics metrics = new ProcessorMetrics("Match Time");
+
     /**
      * {@inheritDoc}
      */
@@ -82,6 +173,12 @@ public class MmLuceneQueryProcessor extends AbstractProcessor {
         final List<PropertyDescriptor> supDescriptors =
                 new ArrayList<PropertyDescriptor>();
         supDescriptors.add(QUERY);
+        supDescriptors.add(QUERY_FILE);
+        supDescriptors.add(BATCH_SIZE);
+        supDescriptors.add(MATCHER_SERVICE);
+        supDescriptors.add(ANALYZER);
+        supDescriptors.add(CUSTOM_ANALYZER);
+        supDescriptors.add(LANGUAGE_ANALYZERS);
         setProperties(Collections.unmodifiableList(supDescriptors));
 
         getLogger()
@@ -96,65 +193,349 @@ public class MmLuceneQueryProcessor extends AbstractProcessor {
     public void onTrigger(final ProcessContext aContext,
             final ProcessSession aSession) throws ProcessException {
 
-        FlowFile flowFile = aSession.get();
-        if (null == flowFile) {
+        List<FlowFile> flowFiles = aSession.get(batchSize);
+        if (flowFiles.isEmpty()) {
             return;
         }
 
-        String query = aContext.getProperty(QUERY).getValue().trim();
+        try {
+            // one snapshot, so the routes always fit the queries
+            Compiled current = getCompiled(aContext);
+            PerLanguage<QueryMatcher> queryMatchers = current.matchers;
+            Map<String, Relationship> queryRoutes = current.routes;
+            int matched = 0;
+            int rejected = 0;
+            for (FlowFile flowFile : flowFiles) {
+                String userId = flowFile.getAttribute("UserId");
+                String text = flowFile.getAttribute("Text");
+                List<String> hits = Collections.emptyList();
+                if (null != text && !text.isEmpty() && null != userId
+                        && !userId.isEmpty()) {
+                    long start = System.nanoTime();
+                    QueryMatcher matcher =
+                            queryMatchers.get(flowFile.getAttribute("Lang"));
+                    // most tweets lack the required terms of every query
+                    if (matcher.mayMatch(text, userId)) {
+                        hits = matcher.evaluate(text, userId);
+                    } else {
+                        rejected++;
+                    }
+                    metrics.recordLatency(System.nanoTime() - start);
+                }
+
+                if (!hits.isEmpty()) {
+                    metrics.recordAge(flowFile, System.currentTimeMillis());
+                    // one copy per matching query
+                    for (int i = 1; i < hits.size(); i++) {
+                        aSession.transfer(aSession.clone(flowFile),
+                                queryRoutes.get(hits.get(i)));
+                    }
+                    aSession.transfer(flowFile, queryRoutes.get(hits.get(0)));
+                    matched++;
+                    if (getLogger().isDebugEnabled()) {
+                        getLogger().debug("Flowfile with a keyword is sent "
+                                + "forward: " + hits);
+                    }
+                } else {
+                    aSession.remove(flowFile);
+                }
+            }
+            aSession.adjustCounter(ProcessorMetrics.RECEIVED,
+                    flowFiles.size(), false);
+            aSession.adjustCounter(ProcessorMetrics.MATCHED, matched, false);
+            aSession.adjustCounter(ProcessorMetrics.DROPPED,
+                    flowFiles.size() - matched, false);
+            aSession.adjustCounter(ProcessorMetrics.PREFILTERED, rejected,
+                    false);
+            metrics.report(aSession);
+            FileReloader file = reloader;
+            if (null != file) {
+                metrics.setReloads(aSession, file, "Queries",
+                        queryMatchers.getMain().size());
+            }
+        } catch (IOException | ParseException e) {
+            getLogger().error(e.getMessage());
+            aSession.rollback();
+            aContext.yield();
+        }
+    }
 
-        String userId = flowFile.getAttribute("UserId");
-        String text = flowFile.getAttribute("Text");
-        if (!text.isEmpty() && !userId.isEmpty()) {
-            // 0. Specify the analyzer for tokenizing text.
-            // The same analyzer should be used for indexing and searching
-            KeywordAnalyzer analyzer = new KeywordAnalyzer();
+    /**
+     * Getter.
+     *
+     * @return metrics, e.g. the match time percentiles
+     */
+    public ProcessorMetrics getMetrics() {
+        return metrics;
+    }
 
-            // 1. create the index
-            Directory index = new RAMDirectory();
+    /**
+     * Compiles the queries unless they are cached already, or loads and
+     * starts watching the query file.
+     *
+     * @param aContext process context
+     * @throws Exception if the queries cannot be compiled
+     */
+    @OnScheduled
+    public void onScheduled(final ProcessContext aContext) throws Exception {
+        batchSize = aContext.getProperty(BATCH_SIZE).asInteger();
+        final MatcherService service = aContext.getProperty(MATCHER_SERVICE)
+                .asControllerService(MatcherService.class);
+        String fileName = aContext.getProperty(QUERY_FILE).getValue();
+        if (null == fileName) {
+            if (null != service) {
+                // the service may have been reconfigured while stopped
+                compiled = null;
+            }
+            getCompiled(aContext);
+            return;
+        }
+        final Map<String, String> dynamic = dynamicQueries(aContext);
+        final String analyzer = aContext.getProperty(ANALYZER).getValue();
+        final String custom = aContext.getProperty(CUSTOM_ANALYZER).getValue();
+        final String languages =
+                aContext.getProperty(LANGUAGE_ANALYZERS).getValue();
+        // a new version is compiled in the background and swapped in with a
+        // single volatile write; running tasks keep the version they read
+        FileReloader file = new FileReloader(Paths.get(fileName),
+                content -> compiled = compile(service,
+                        disjunction(FileReloader.entries(content)), dynamic,
+                        analyzer, custom, languages),
+                getLogger());
+        file.start(RELOAD_CHECK_INTERVAL);
+        reloader = file;
+    }
 
-            IndexWriterConfig config = new IndexWriterConfig(analyzer);
+    /**
+     * Stops watching the query file.
+     */
+    @OnStopped
+    public void cleanUp() {
+        FileReloader file = reloader;
+        reloader = null;
+        if (null != file) {
+            file.close();
+            // the main query applies again unless the file is kept
+            compiled = null;
+        }
+    }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collection<ValidationResult> customValidate(
+            final ValidationContext aContext) {
+        final List<ValidationResult> results =
+                new ArrayList<ValidationResult>();
+        Analyzer analyzer;
+        try {
+            Analyzers.parseLanguages(
+                    aContext.getProperty(LANGUAGE_ANALYZERS).getValue());
+            analyzer = Analyzers.get(aContext.getProperty(ANALYZER).getValue(),
+                    aContext.getProperty(CUSTOM_ANALYZER).getValue());
+        } catch (IOException | IllegalArgumentException e) {
+            results.add(new ValidationResult.Builder()
+                    .subject(ANALYZER.getName()).valid(false)
+                    .explanation("cannot create analyzer: " + e.getMessage())
+                    .build());
+            return results;
+        }
+        for (Map.Entry<PropertyDescriptor, String> property : aContext
+                .getProperties().entrySet()) {
+            PropertyDescriptor descriptor = property.getKey();
+            String value = aContext.getProperty(descriptor).getValue();
+            if ((!descriptor.isDynamic() && !QUERY.equals(descriptor))
+                    || null == value || value.trim().isEmpty()) {
+                continue;
+            }
             try {
-                IndexWriter w = new IndexWriter(index, config);
-                Document doc = new Document();
-                doc.add(new TextField("Text", text, Field.Store.YES));
-
-                // use a string field for userId because we don't want it
-                // tokenized
-                doc.add(new StringField("UserId", userId, Field.Store.YES));
-                w.addDocument(doc);
-                w.close();
-
-                // 2. query
-                // the "Text" arg specifies the default field to use
-                // when no field is explicitly specified in the query.
-                Query q = new QueryParser("Text", analyzer).parse(query);
-
-                // 3. search
-                int hitsPerPage = 10;
-                IndexReader reader = DirectoryReader.open(index);
-
-                IndexSearcher searcher = new IndexSearcher(reader);
-                TopDocs docs = searcher.search(q, hitsPerPage);
-
-                if (docs.totalHits > 0) {
-                    aSession.transfer(flowFile, REL_SUCCESS);
-                    getLogger()
-                            .info("Flowfile with a keyword is sent forward!");
-                } else {
-                    aSession.remove(flowFile);
-                    getLogger().info("No keyword found!");
-                }
-                aSession.commit();
-                // reader can only be closed when there
-                // is no need to access the documents any more.
-                reader.close();
+                QueryMatcher.parse(value, analyzer);
+            } catch (ParseException e) {
+                results.add(new ValidationResult.Builder()
+                        .subject(descriptor.getName()).input(value)
+                        .valid(false)
+                        .explanation("cannot parse query: " + e.getMessage())
+                        .build());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the compiled queries, compiling them if needed. Concurrent
+     * tasks may compile at the same time; the last one wins and all results
+     * are equivalent.
+     *
+     * @param aContext process context
+     * @return compiled queries per analyzer chain and their routes
+     * @throws IOException if an analyzer cannot be created
+     * @throws ParseException if a query cannot be parsed
+     */
+    private Compiled getCompiled(final ProcessContext aContext)
+            throws IOException, ParseException {
+        Compiled current = compiled;
+        if (null == current) {
+            current = compile(aContext.getProperty(MATCHER_SERVICE)
+                    .asControllerService(MatcherService.class),
+                    aContext.getProperty(QUERY).getValue(),
+                    dynamicQueries(aContext),
+                    aContext.getProperty(ANALYZER).getValue(),
+                    aContext.getProperty(CUSTOM_ANALYZER).getValue(),
+                    aContext.getProperty(LANGUAGE_ANALYZERS).getValue());
+            compiled = current;
+        }
+        return current;
+    }
 
-            } catch (IOException | ParseException e) {
-                getLogger().error(e.getMessage());
+    /**
+     * Collects the queries of the dynamic properties.
+     *
+     * @param aContext process context
+     * @return queries by name
+     */
+    private static Map<String, String> dynamicQueries(
+            final ProcessContext aContext) {
+        Map<String, String> queries = new LinkedHashMap<String, String>();
+        for (PropertyDescriptor descriptor : aContext.getProperties()
+                .keySet()) {
+            if (descriptor.isDynamic()) {
+                queries.put(descriptor.getName(),
+                        aContext.getProperty(descriptor).getValue());
             }
         }
+        return queries;
+    }
+
+    /**
+     * Compiles the main and the named queries, or gets them from the shared
+     * service.
+     *
+     * @param aService matcher service, may be null
+     * @param aMain main query, routed to success; empty for none, e.g. from
+     *        a query file without queries
+     * @param aDynamic queries by name, routed to the relationship of the name
+     * @param aAnalyzer main analyzer name
+     * @param aCustom custom analyzer specification
+     * @param aLanguages language:analyzer pairs, may be null
+     * @return compiled queries per analyzer chain and their routes
+     * @throws IOException if an analyzer cannot be created
+     * @throws ParseException if a query cannot be parsed
+     */
+    private static Compiled compile(final MatcherService aService,
+            final String aMain, final Map<String, String> aDynamic,
+            final String aAnalyzer, final String aCustom,
+            final String aLanguages)
+            throws IOException, ParseException {
+        final Map<String, String> queries =
+                new LinkedHashMap<String, String>();
+        Map<String, Relationship> queryRoutes =
+                new HashMap<String, Relationship>();
+        if (!aMain.isEmpty()) {
+            queries.put(REL_SUCCESS.getName(), aMain);
+            queryRoutes.put(REL_SUCCESS.getName(), REL_SUCCESS);
+        }
+        for (String name : aDynamic.keySet()) {
+            queries.put(name, aDynamic.get(name));
+            queryRoutes.put(name, route(name));
+        }
+        // The same analyzer should be used for indexing and searching
+        PerLanguage<QueryMatcher> matchers = (null != aService)
+                ? aService.getQueryMatchers(queries)
+                : new PerLanguage<QueryMatcher>(aAnalyzer, aCustom, aLanguages,
+                        analyzer -> new QueryMatcher(queries, analyzer));
+        return new Compiled(matchers,
+                Collections.unmodifiableMap(queryRoutes));
+    }
+
+    /**
+     * Combines queries into one that matches if any of them does.
+     *
+     * @param aQueries queries
+     * @return combined query, empty if there are no queries
+     */
+    static String disjunction(final List<String> aQueries) {
+        StringBuilder query = new StringBuilder();
+        for (String q : aQueries) {
+            query.append((0 == query.length()) ? "(" : " OR (").append(q)
+                    .append(')');
+        }
+        return query.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(
+            final String aPropertyDescriptorName) {
+        return new PropertyDescriptor.Builder()
+                .name(aPropertyDescriptorName)
+                .description("A Lucene query; matching tweets are routed to "
+                        + "the relationship '" + aPropertyDescriptorName
+                        + "'.")
+                .dynamic(true).required(false)
+                .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+                .addValidator(DYNAMIC_NAME_VALIDATOR).build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPropertyModified(final PropertyDescriptor aDescriptor,
+            final String aOldValue, final String aNewValue) {
+        // the compiled queries are stale now
+        compiled = null;
+
+        if (!aDescriptor.isDynamic()
+                || REL_SUCCESS.getName().equals(aDescriptor.getName())) {
+            return;
+        }
+        final Set<Relationship> procRels =
+                new HashSet<Relationship>(relationships);
+        if (null == aNewValue) {
+            procRels.remove(route(aDescriptor.getName()));
+        } else {
+            procRels.add(route(aDescriptor.getName()));
+        }
+        setRelationships(Collections.unmodifiableSet(procRels));
+    }
+
+    /**
+     * Creates the relationship of a dynamic query.
+     *
+     * @param aName query name
+     * @return relationship
+     */
+    private static Relationship route(final String aName) {
+        return new Relationship.Builder().name(aName)
+                .description("Tweets matching the query '" + aName + "'.")
+                .build();
+    }
+
+    /**
+     * Compiled queries together with their routes.
+     */
+    private static final class Compiled {
+
+        /** Compiled queries per analyzer chain. */
+        private final PerLanguage<QueryMatcher> matchers;
+
+        /** Relationships by query name, the main query routes to success. */
+        private final Map<String, Relationship> routes;
+
+        /**
+         * Constructor.
+         *
+         * @param aMatchers compiled queries per analyzer chain
+         * @param aRoutes relationships by query name
+         */
+        Compiled(final PerLanguage<QueryMatcher> aMatchers,
+                final Map<String, Relationship> aRoutes) {
+            matchers = aMatchers;
+            routes = aRoutes;
+        }
     }
 
     /**
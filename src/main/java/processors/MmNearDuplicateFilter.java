@@ -0,0 +1,326 @@
+package processors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+/**
+ * A near-duplicate tweet filter class.
+ * <p>
+ * Copy-paste campaigns post the same text from many accounts with other
+ * links, tickers or a word changed. Every tweet text gets a 64-bit
+ * {@link MinHash} fingerprint, which is looked up in a
+ * {@link FingerprintIndex} of the fingerprints seen in the time window; a
+ * tweet within the maximum Hamming distance of an earlier one is a
+ * near-duplicate and is routed, tagged or dropped before it reaches the
+ * matchers. Only originals are indexed, so a campaign is pinned to its first
+ * tweet. The index is kept in memory and starts empty whenever the processor
+ * is scheduled.
+ */
+@SupportsBatching
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@Tags({"MM", "duplicate", "minhash", "filter"})
+@CapabilityDescription("This processor detects near-duplicate tweet texts.")
+public class MmNearDuplicateFilter extends AbstractProcessor {
+
+    /** Relationship "Success". */
+    public static final Relationship REL_SUCCESS = new Relationship.Builder()
+            .name("success")
+            .description("This is where original tweets, and tagged "
+                    + "near-duplicates, are sent.")
+            .build();
+
+    /** Relationship "Duplicate". */
+    public static final Relationship REL_DUPLICATE = new Relationship.Builder()
+            .name("duplicate")
+            .description("This is where near-duplicates are sent if they "
+                    + "are routed.")
+            .build();
+
+    /** Attribute with the status URL of the original tweet. */
+    public static final String DUPLICATE_OF = "NearDuplicateOf";
+
+    /** Attribute with the Hamming distance to the original tweet. */
+    public static final String DUPLICATE_DISTANCE = "NearDuplicateDistance";
+
+    /** List of processor properties. */
+    private List<PropertyDescriptor> properties;
+
+    /** List of processor relationships. */
+    private Set<Relationship> relationships;
+
+    /** Processor property. */
+    public static final PropertyDescriptor MAX_DISTANCE =
+            new PropertyDescriptor.Builder().name("Max Hamming Distance")
+                    .description(
+                            "Specifies how many of the 64 fingerprint bits "
+                                    + "two texts may differ in to be "
+                                    + "near-duplicates. The expected "
+                                    + "distance is 32 times the share of "
+                                    + "words the texts do not have in "
+                                    + "common: 0 for the same words up to "
+                                    + "links, case, punctuation and order, "
+                                    + "about 4 for one word changed in "
+                                    + "fifteen, 32 for unrelated texts. "
+                                    + "Larger values catch more edits but "
+                                    + "make lookups slower.")
+                    .defaultValue("6").required(true)
+                    .addValidator(
+                            StandardValidators.createLongValidator(0, 12, true))
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor MIN_WORDS =
+            new PropertyDescriptor.Builder().name("Min Words").description(
+                    "Specifies the minimum number of words, links "
+                            + "excluded, for a text to be checked; shorter "
+                            + "texts are too alike by chance and always "
+                            + "pass.")
+                    .defaultValue("5").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor TIME_WINDOW =
+            new PropertyDescriptor.Builder().name("Time Window").description(
+                    "Specifies how long a text is remembered.")
+                    .defaultValue("1 hour").required(true)
+                    .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor MAX_FINGERPRINTS =
+            new PropertyDescriptor.Builder().name("Max Fingerprints")
+                    .description(
+                            "Specifies the maximum number of remembered "
+                                    + "texts; the oldest is forgotten "
+                                    + "first, even within the time window. "
+                                    + "Memory use grows with this times "
+                                    + "the max Hamming distance plus one.")
+                    .defaultValue("100000").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Duplicate handling value. */
+    public static final AllowableValue HANDLING_ROUTE = new AllowableValue(
+            "Route", "Route",
+            "Sends near-duplicates to the duplicate relationship.");
+
+    /** Duplicate handling value. */
+    public static final AllowableValue HANDLING_TAG = new AllowableValue(
+            "Tag", "Tag",
+            "Sends near-duplicates to success; only the attributes mark "
+                    + "them.");
+
+    /** Duplicate handling value. */
+    public static final AllowableValue HANDLING_DROP = new AllowableValue(
+            "Drop", "Drop", "Removes near-duplicates.");
+
+    /** Processor property. */
+    public static final PropertyDescriptor DUPLICATE_HANDLING =
+            new PropertyDescriptor.Builder().name("Duplicate Handling")
+                    .description("Specifies what happens to near-duplicates. "
+                            + "They get the attributes " + DUPLICATE_OF
+                            + " and " + DUPLICATE_DISTANCE + " unless they "
+                            + "are dropped.")
+                    .allowableValues(HANDLING_ROUTE, HANDLING_TAG,
+                            HANDLING_DROP)
+                    .defaultValue(HANDLING_DROP.getValue()).required(true)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor BATCH_SIZE =
+            new PropertyDescriptor.Builder().name("Batch Size").description(
+                    "Specifies the maximum number of tweets taken and "
+                            + "committed in one go.")
+                    .defaultValue("100").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Fingerprints of the time window; null until scheduled. */
+    private volatile FingerprintIndex index;
+
+    /** Minimum number of words, read on scheduling. */
+    private volatile int minWords;
+
+    /** Duplicate handling, read on scheduling. */
+    private volatile String handling;
+
+    /** Batch size, read on scheduling. */
+    private volatile int batchSize;
+
+    /** Lookup time per FlowFile. */
+    private final ProcessorMetrics metrics =
+            new ProcessorMetrics("Lookup Time");
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+
+        final Set<Relationship> procRels = new HashSet<Relationship>();
+        procRels.add(REL_SUCCESS);
+        procRels.add(REL_DUPLICATE);
+        setRelationships(Collections.unmodifiableSet(procRels));
+
+        final List<PropertyDescriptor> supDescriptors =
+                new ArrayList<PropertyDescriptor>();
+        supDescriptors.add(MAX_DISTANCE);
+        supDescriptors.add(MIN_WORDS);
+        supDescriptors.add(TIME_WINDOW);
+        supDescriptors.add(MAX_FINGERPRINTS);
+        supDescriptors.add(DUPLICATE_HANDLING);
+        supDescriptors.add(BATCH_SIZE);
+        setProperties(Collections.unmodifiableList(supDescriptors));
+
+        getLogger()
+                .info(this.getClass().getName() + ": Initialisation complete!");
+
+    }
+
+    /**
+     * Creates an empty index.
+     *
+     * @param aContext process context
+     */
+    @OnScheduled
+    public void onScheduled(final ProcessContext aContext) {
+        minWords = aContext.getProperty(MIN_WORDS).asInteger();
+        handling = aContext.getProperty(DUPLICATE_HANDLING).getValue();
+        batchSize = aContext.getProperty(BATCH_SIZE).asInteger();
+        index = new FingerprintIndex(
+                aContext.getProperty(MAX_DISTANCE).asInteger(),
+                aContext.getProperty(TIME_WINDOW)
+                        .asTimePeriod(TimeUnit.MILLISECONDS),
+                aContext.getProperty(MAX_FINGERPRINTS).asInteger());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTrigger(final ProcessContext aContext,
+            final ProcessSession aSession) throws ProcessException {
+
+        List<FlowFile> flowFiles = aSession.get(batchSize);
+        if (flowFiles.isEmpty()) {
+            return;
+        }
+
+        FingerprintIndex fingerprints = index;
+        int duplicates = 0;
+        for (FlowFile flowFile : flowFiles) {
+            String text = flowFile.getAttribute("Text");
+            FingerprintIndex.Match match = null;
+            if (null != text) {
+                long start = System.nanoTime();
+                long fingerprint = MinHash.fingerprint(text, minWords);
+                // 0 marks a text too short to tell
+                if (0 != fingerprint) {
+                    match = fingerprints.findOrAdd(fingerprint,
+                            flowFile.getAttribute("StatusURL"),
+                            System.currentTimeMillis());
+                }
+                metrics.recordLatency(System.nanoTime() - start);
+            }
+            if (null == match) {
+                metrics.recordAge(flowFile, System.currentTimeMillis());
+                aSession.transfer(flowFile, REL_SUCCESS);
+                continue;
+            }
+            duplicates++;
+            if (HANDLING_DROP.getValue().equals(handling)) {
+                aSession.remove(flowFile);
+                continue;
+            }
+            if (null != match.getValue()) {
+                flowFile = aSession.putAttribute(flowFile, DUPLICATE_OF,
+                        match.getValue());
+            }
+            flowFile = aSession.putAttribute(flowFile, DUPLICATE_DISTANCE,
+                    String.valueOf(match.getDistance()));
+            metrics.recordAge(flowFile, System.currentTimeMillis());
+            aSession.transfer(flowFile, HANDLING_ROUTE.getValue()
+                    .equals(handling) ? REL_DUPLICATE : REL_SUCCESS);
+        }
+        aSession.adjustCounter(ProcessorMetrics.RECEIVED, flowFiles.size(),
+                false);
+        aSession.adjustCounter(ProcessorMetrics.NEAR_DUPLICATES, duplicates,
+                false);
+        metrics.report(aSession);
+    }
+
+    /**
+     * Getter.
+     *
+     * @return metrics, e.g. the lookup time percentiles
+     */
+    public ProcessorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    /**
+     * Setter.
+     *
+     * @param aRelationships relationships
+     */
+    public void setRelationships(final Set<Relationship> aRelationships) {
+        relationships = aRelationships;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return properties
+     */
+    public List<PropertyDescriptor> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Setter.
+     *
+     * @param aProperties properties
+     */
+    public void setProperties(final List<PropertyDescriptor> aProperties) {
+        properties = aProperties;
+    }
+
+}
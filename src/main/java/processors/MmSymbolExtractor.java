@@ -0,0 +1,446 @@
+package processors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.nifi.annotation.behavior.DynamicProperty;
+import org.apache.nifi.annotation.behavior.DynamicRelationship;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+/**
+ * A cashtag and hashtag extractor class.
+ * <p>
+ * Most queries target cashtags like "$THC" and hashtags like "#HardFork",
+ * for which analysing the tweet and running Lucene queries is overkill. The
+ * text is scanned once by a per-thread {@link SymbolScanner}; the cashtags,
+ * hashtags and links found are written to attributes, and the symbols are
+ * looked up in a {@link SymbolTable} that routes the tweet to the
+ * relationship of every dynamic property listing one of them. Scanning and
+ * routing do not allocate and the attribute values are built in a
+ * per-thread buffer; what remains per tweet is the value strings and the
+ * FlowFile updates of the session.
+ */
+@SupportsBatching
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@Tags({"MM", "cashtag", "hashtag", "route"})
+@CapabilityDescription("This processor extracts cashtags, hashtags and links "
+        + "from tweets and routes tweets by symbol.")
+@DynamicProperty(name = "Relationship name",
+        value = "Cashtags and hashtags, e.g. \"$THC, #HardFork\"",
+        description = "Routes tweets with any of the symbols to the "
+                + "relationship of the same name.")
+@DynamicRelationship(name = "Name from dynamic property",
+        description = "Tweets with a symbol of the dynamic property.")
+public class MmSymbolExtractor extends AbstractProcessor {
+
+    /** Relationship "Unmatched". */
+    public static final Relationship REL_UNMATCHED = new Relationship.Builder()
+            .name("unmatched")
+            .description("This is where tweets without a routed symbol are "
+                    + "sent.")
+            .build();
+
+    /** Attribute with the cashtags. */
+    public static final String CASHTAGS = "Cashtags";
+
+    /** Attribute with the hashtags. */
+    public static final String HASHTAGS = "Hashtags";
+
+    /** Attribute with the links. */
+    public static final String URLS = "URLs";
+
+    /** Attribute names by symbol type. */
+    private static final String[] NAMES = {CASHTAGS, HASHTAGS, URLS};
+
+    /** List of processor properties. */
+    private List<PropertyDescriptor> properties;
+
+    /** List of processor relationships. */
+    private volatile Set<Relationship> relationships;
+
+    /** Rejects dynamic route names that clash with a static relationship. */
+    private static final Validator DYNAMIC_NAME_VALIDATOR =
+            (aSubject, aInput, aContext) -> new ValidationResult.Builder()
+                    .subject(aSubject).input(aInput)
+                    .valid(!REL_UNMATCHED.getName().equals(aSubject))
+                    .explanation("'" + REL_UNMATCHED.getName()
+                            + "' is reserved for tweets without a route")
+                    .build();
+
+    /** Checks a list of symbols. */
+    private static final Validator SYMBOLS_VALIDATOR =
+            (aSubject, aInput, aContext) -> {
+                String explanation = null;
+                try {
+                    if (SymbolTable.parseSymbols(aInput).isEmpty()) {
+                        explanation = "no symbols";
+                    }
+                } catch (IllegalArgumentException e) {
+                    explanation = e.getMessage();
+                }
+                return new ValidationResult.Builder().subject(aSubject)
+                        .input(aInput).valid(null == explanation)
+                        .explanation(explanation).build();
+            };
+
+    /** Processor property. */
+    public static final PropertyDescriptor BATCH_SIZE =
+            new PropertyDescriptor.Builder().name("Batch Size").description(
+                    "Specifies the maximum number of tweets taken and "
+                            + "committed in one go.")
+                    .defaultValue("100").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Symbol table and routes; null until scheduled or changed. */
+    private volatile Routing routing;
+
+    /** Scanner per thread. */
+    private final ThreadLocal<SymbolScanner> scanners =
+            ThreadLocal.withInitial(SymbolScanner::new);
+
+    /** Attribute value buffer per thread. */
+    private final ThreadLocal<StringBuilder> builders =
+            ThreadLocal.withInitial(StringBuilder::new);
+
+    /** Batch size, read on scheduling. */
+    private volatile int batchSize;
+
+    /** Scan time per FlowFile. */
+    private final ProcessorMetrics metrics = new ProcessorMetrics("Scan Time");
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+
+        final Set<Relationship> procRels = new HashSet<Relationship>();
+        procRels.add(REL_UNMATCHED);
+        setRelationships(Collections.unmodifiableSet(procRels));
+
+        final List<PropertyDescriptor> supDescriptors =
+                new ArrayList<PropertyDescriptor>();
+        supDescriptors.add(BATCH_SIZE);
+        setProperties(Collections.unmodifiableList(supDescriptors));
+
+        getLogger()
+                .info(this.getClass().getName() + ": Initialisation complete!");
+
+    }
+
+    /**
+     * Builds the symbol table.
+     *
+     * @param aContext process context
+     */
+    @OnScheduled
+    public void onScheduled(final ProcessContext aContext) {
+        batchSize = aContext.getProperty(BATCH_SIZE).asInteger();
+        routing = new Routing(dynamicRoutes(aContext));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTrigger(final ProcessContext aContext,
+            final ProcessSession aSession) throws ProcessException {
+
+        List<FlowFile> flowFiles = aSession.get(batchSize);
+        if (flowFiles.isEmpty()) {
+            return;
+        }
+
+        Routing current = routing;
+        if (null == current) {
+            current = new Routing(dynamicRoutes(aContext));
+            routing = current;
+        }
+        SymbolScanner scanner = scanners.get();
+        StringBuilder sb = builders.get();
+        int matched = 0;
+        for (FlowFile flowFile : flowFiles) {
+            String text = flowFile.getAttribute("Text");
+            long mask = 0;
+            if (null != text && !text.isEmpty()) {
+                long start = System.nanoTime();
+                scanner.scan(text);
+                mask = current.table.routes(scanner);
+                metrics.recordLatency(System.nanoTime() - start);
+                flowFile = putSymbols(aSession, flowFile, text, scanner, sb);
+            }
+            metrics.recordAge(flowFile, System.currentTimeMillis());
+            if (0 == mask) {
+                aSession.transfer(flowFile, REL_UNMATCHED);
+                continue;
+            }
+            matched++;
+            // one copy per route, the original goes to the first one
+            int first = Long.numberOfTrailingZeros(mask);
+            for (long rest = mask & (mask - 1); 0 != rest;
+                    rest &= rest - 1) {
+                aSession.transfer(aSession.clone(flowFile),
+                        current.relationships[Long.numberOfTrailingZeros(
+                                rest)]);
+            }
+            aSession.transfer(flowFile, current.relationships[first]);
+        }
+        aSession.adjustCounter(ProcessorMetrics.RECEIVED, flowFiles.size(),
+                false);
+        aSession.adjustCounter(ProcessorMetrics.MATCHED, matched, false);
+        metrics.report(aSession);
+    }
+
+    /**
+     * Writes the distinct cashtags, hashtags and links of a tweet, in order
+     * of appearance, as comma-separated attributes.
+     *
+     * @param aSession session
+     * @param aFlowFile FlowFile
+     * @param aText tweet text
+     * @param aScanner scanner that scanned the text
+     * @param aBuilder reusable value buffer
+     * @return updated FlowFile
+     */
+    private static FlowFile putSymbols(final ProcessSession aSession,
+            final FlowFile aFlowFile, final String aText,
+            final SymbolScanner aScanner, final StringBuilder aBuilder) {
+        if (0 == aScanner.getCount()) {
+            return aFlowFile;
+        }
+        FlowFile flowFile = aFlowFile;
+        for (int type = 0; type < NAMES.length; type++) {
+            aBuilder.setLength(0);
+            for (int i = 0; i < aScanner.getCount(); i++) {
+                if (type != aScanner.getType(i) || seenBefore(aScanner, i)) {
+                    continue;
+                }
+                if (aBuilder.length() > 0) {
+                    aBuilder.append(',');
+                }
+                aBuilder.append(aText, aScanner.getStart(i),
+                        aScanner.getEnd(i));
+            }
+            if (aBuilder.length() > 0) {
+                flowFile = aSession.putAttribute(flowFile, NAMES[type],
+                        aBuilder.toString());
+            }
+        }
+        return flowFile;
+    }
+
+    /**
+     * Checks whether a symbol occurred earlier in the same text.
+     *
+     * @param aScanner scanner
+     * @param aIndex symbol index
+     * @return true - if an earlier symbol has the same key
+     */
+    private static boolean seenBefore(final SymbolScanner aScanner,
+            final int aIndex) {
+        for (int i = 0; i < aIndex; i++) {
+            if (aScanner.getKey(i) == aScanner.getKey(aIndex)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the symbol lists of the dynamic properties.
+     *
+     * @param aContext process context
+     * @return symbol lists by route name
+     */
+    private static Map<String, String> dynamicRoutes(
+            final ProcessContext aContext) {
+        Map<String, String> routes = new LinkedHashMap<String, String>();
+        for (PropertyDescriptor descriptor : aContext.getProperties()
+                .keySet()) {
+            if (descriptor.isDynamic()) {
+                routes.put(descriptor.getName(),
+                        aContext.getProperty(descriptor).getValue());
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collection<ValidationResult> customValidate(
+            final ValidationContext aContext) {
+        final List<ValidationResult> results =
+                new ArrayList<ValidationResult>();
+        int routes = 0;
+        for (PropertyDescriptor descriptor : aContext.getProperties()
+                .keySet()) {
+            if (descriptor.isDynamic()) {
+                routes++;
+            }
+        }
+        if (routes > SymbolTable.MAX_ROUTES) {
+            results.add(new ValidationResult.Builder()
+                    .subject("Routes").valid(false)
+                    .explanation("at most " + SymbolTable.MAX_ROUTES
+                            + " routes are supported, found " + routes)
+                    .build());
+        }
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(
+            final String aPropertyDescriptorName) {
+        return new PropertyDescriptor.Builder()
+                .name(aPropertyDescriptorName)
+                .description("Comma-separated cashtags and hashtags; tweets "
+                        + "with any of them are routed to the relationship '"
+                        + aPropertyDescriptorName + "'.")
+                .dynamic(true).required(false)
+                .addValidator(SYMBOLS_VALIDATOR)
+                .addValidator(DYNAMIC_NAME_VALIDATOR).build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPropertyModified(final PropertyDescriptor aDescriptor,
+            final String aOldValue, final String aNewValue) {
+        // the symbol table is stale now
+        routing = null;
+
+        if (!aDescriptor.isDynamic()
+                || REL_UNMATCHED.getName().equals(aDescriptor.getName())) {
+            return;
+        }
+        final Set<Relationship> procRels =
+                new HashSet<Relationship>(relationships);
+        if (null == aNewValue) {
+            procRels.remove(route(aDescriptor.getName()));
+        } else {
+            procRels.add(route(aDescriptor.getName()));
+        }
+        setRelationships(Collections.unmodifiableSet(procRels));
+    }
+
+    /**
+     * Creates the relationship of a dynamic property.
+     *
+     * @param aName route name
+     * @return relationship
+     */
+    private static Relationship route(final String aName) {
+        return new Relationship.Builder().name(aName)
+                .description("Tweets with a symbol of '" + aName + "'.")
+                .build();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return metrics, e.g. the scan time percentiles
+     */
+    public ProcessorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * A symbol table together with the relationships of its routes.
+     */
+    private static final class Routing {
+
+        /** Symbol table. */
+        private final SymbolTable table;
+
+        /** Relationships, by route bit. */
+        private final Relationship[] relationships;
+
+        /**
+         * Constructor.
+         *
+         * @param aRoutes symbol lists by route name
+         */
+        Routing(final Map<String, String> aRoutes) {
+            table = new SymbolTable(aRoutes);
+            List<String> names = table.getRoutes();
+            relationships = new Relationship[names.size()];
+            for (int i = 0; i < relationships.length; i++) {
+                relationships[i] = route(names.get(i));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    /**
+     * Setter.
+     *
+     * @param aRelationships relationships
+     */
+    public void setRelationships(final Set<Relationship> aRelationships) {
+        relationships = aRelationships;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return properties
+     */
+    public List<PropertyDescriptor> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Setter.
+     *
+     * @param aProperties properties
+     */
+    public void setProperties(final List<PropertyDescriptor> aProperties) {
+        properties = aProperties;
+    }
+
+}
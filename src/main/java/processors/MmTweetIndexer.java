@@ -0,0 +1,528 @@
+package processors;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
+import org.apache.nifi.annotation.behavior.TriggerWhenEmpty;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.TwitterObjectFactory;
+
+/**
+ * A processor appending tweets to a persistent, searchable
+ * {@link TweetArchive}.
+ * <p>
+ * Tweets are added in batches; the archive is refreshed for near-real-time
+ * search and committed at their own intervals, not per tweet. A tweet is
+ * forwarded as soon as it is added, so a crash may lose up to one commit
+ * interval of indexed tweets. Tweets are keyed on their status URL, so a
+ * batch rolled back after a failure and indexed again is not duplicated.
+ * The processor is also triggered without input, so the last tweets are
+ * committed when the flow goes idle; idle triggers yield until the next
+ * commit is due.
+ * <p>
+ * Tweets are partitioned and sorted by their {@link Tweets#CREATED_AT}
+ * time, or the FlowFile entry date if it is missing, so replayed and
+ * delayed tweets land where they belong; tweets already past the retention
+ * period are not indexed. FlowFiles with a "Text" attribute are indexed as
+ * one tweet, NDJSON content FlowFiles of {@link MmTwitterReceiver} line by
+ * line; any other FlowFile is forwarded without being indexed.
+ */
+@SupportsBatching
+@TriggerWhenEmpty
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@Tags({"MM", "index", "archive", "Lucene"})
+@CapabilityDescription("This processor appends tweets to a persistent, "
+        + "time-partitioned Lucene index.")
+public class MmTweetIndexer extends AbstractProcessor {
+
+    /** Relationship "Success". */
+    public static final Relationship REL_SUCCESS = new Relationship.Builder()
+            .name("success")
+            .description(
+                    "This is where flow files are sent once they are indexed.")
+            .build();
+
+    /** List of processor properties. */
+    private List<PropertyDescriptor> properties;
+
+    /** List of processor relationships. */
+    private Set<Relationship> relationships;
+
+    /** Processor property. */
+    public static final PropertyDescriptor ARCHIVE_DIRECTORY =
+            new PropertyDescriptor.Builder().name("Archive Directory")
+                    .description(
+                            "Specifies the directory of the archive; every "
+                                    + "partition is a Lucene index in a "
+                                    + "sub-directory of it.")
+                    .required(true)
+                    .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor PARTITION_PERIOD =
+            new PropertyDescriptor.Builder().name("Partition Period")
+                    .description(
+                            "Specifies the period of tweets held by one "
+                                    + "partition, in whole seconds.")
+                    .defaultValue("1 hour").required(true)
+                    .addValidator(StandardValidators
+                            .createTimePeriodValidator(1, TimeUnit.SECONDS,
+                                    Integer.MAX_VALUE, TimeUnit.SECONDS))
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor RETENTION_PERIOD =
+            new PropertyDescriptor.Builder().name("Retention Period")
+                    .description(
+                            "Specifies how long tweets are kept; a partition "
+                                    + "is dropped as a whole once all of its "
+                                    + "tweets are older.")
+                    .defaultValue("7 days").required(true)
+                    .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor REFRESH_INTERVAL =
+            new PropertyDescriptor.Builder().name("Refresh Interval")
+                    .description(
+                            "Specifies how often indexed tweets are made "
+                                    + "searchable.")
+                    .defaultValue("1 sec").required(true)
+                    .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor COMMIT_INTERVAL =
+            new PropertyDescriptor.Builder().name("Commit Interval")
+                    .description(
+                            "Specifies how often indexed tweets are made "
+                                    + "durable and expired partitions are "
+                                    + "dropped.")
+                    .defaultValue("15 sec").required(true)
+                    .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor RAM_BUFFER_SIZE =
+            new PropertyDescriptor.Builder().name("RAM Buffer Size")
+                    .description(
+                            "Specifies how much memory a partition buffers "
+                                    + "tweets in before it writes a segment.")
+                    .defaultValue("64 MB").required(true)
+                    .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor BATCH_SIZE =
+            new PropertyDescriptor.Builder().name("Batch Size").description(
+                    "Specifies the maximum number of tweets taken and "
+                            + "committed in one go.")
+                    .defaultValue("1000").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor ANALYZER =
+            Analyzers.analyzerProperty(Analyzers.STANDARD);
+
+    /** Processor property. */
+    public static final PropertyDescriptor CUSTOM_ANALYZER =
+            Analyzers.customAnalyzerProperty();
+
+    /** Counter name. */
+    public static final String INDEXED = "Indexed Tweets";
+
+    /** Counter name. */
+    public static final String EXPIRED = "Expired Partitions";
+
+    /** Counter name. */
+    public static final String MALFORMED = "Malformed Lines";
+
+    /** MIME type of NDJSON content FlowFiles. */
+    private static final String NDJSON_MIME_TYPE = "application/x-ndjson";
+
+    /** Archive, open while scheduled. */
+    private volatile TweetArchive archive;
+
+    /** Batch size, read on scheduling. */
+    private volatile int batchSize;
+
+    /** Retention period in milliseconds, read on scheduling. */
+    private volatile long retention;
+
+    /** Refresh interval in milliseconds, read on scheduling. */
+    private volatile long refreshInterval;
+
+    /** Commit interval in milliseconds, read on scheduling. */
+    private volatile long commitInterval;
+
+    /** Time of the next refresh. */
+    private final AtomicLong nextRefresh = new AtomicLong();
+
+    /** Time of the next commit. */
+    private final AtomicLong nextCommit = new AtomicLong();
+
+    /** Index time per tweet. */
+    private final ProcessorMetrics metrics = new ProcessorMetrics("Index Time");
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+
+        final Set<Relationship> procRels = new HashSet<Relationship>();
+        procRels.add(REL_SUCCESS);
+        setRelationships(Collections.unmodifiableSet(procRels));
+
+        final List<PropertyDescriptor> supDescriptors =
+                new ArrayList<PropertyDescriptor>();
+        supDescriptors.add(ARCHIVE_DIRECTORY);
+        supDescriptors.add(PARTITION_PERIOD);
+        supDescriptors.add(RETENTION_PERIOD);
+        supDescriptors.add(REFRESH_INTERVAL);
+        supDescriptors.add(COMMIT_INTERVAL);
+        supDescriptors.add(RAM_BUFFER_SIZE);
+        supDescriptors.add(BATCH_SIZE);
+        supDescriptors.add(ANALYZER);
+        supDescriptors.add(CUSTOM_ANALYZER);
+        setProperties(Collections.unmodifiableList(supDescriptors));
+
+        getLogger()
+                .info(this.getClass().getName() + ": Initialisation complete!");
+
+    }
+
+    /**
+     * Opens the archive.
+     *
+     * @param aContext process context
+     * @throws IOException if the archive cannot be opened
+     */
+    @OnScheduled
+    public void onScheduled(final ProcessContext aContext) throws IOException {
+        batchSize = aContext.getProperty(BATCH_SIZE).asInteger();
+        retention = aContext.getProperty(RETENTION_PERIOD)
+                .asTimePeriod(TimeUnit.MILLISECONDS);
+        refreshInterval = aContext.getProperty(REFRESH_INTERVAL)
+                .asTimePeriod(TimeUnit.MILLISECONDS);
+        commitInterval = aContext.getProperty(COMMIT_INTERVAL)
+                .asTimePeriod(TimeUnit.MILLISECONDS);
+        long now = System.currentTimeMillis();
+        nextRefresh.set(now + refreshInterval);
+        nextCommit.set(now + commitInterval);
+
+        archive = new TweetArchive(
+                Paths.get(aContext.getProperty(ARCHIVE_DIRECTORY).getValue()),
+                Analyzers.get(aContext.getProperty(ANALYZER).getValue(),
+                        aContext.getProperty(CUSTOM_ANALYZER).getValue()),
+                aContext.getProperty(PARTITION_PERIOD)
+                        .asTimePeriod(TimeUnit.MILLISECONDS),
+                aContext.getProperty(RAM_BUFFER_SIZE).asDataSize(DataUnit.MB));
+        archive.expire(now - retention);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTrigger(final ProcessContext aContext,
+            final ProcessSession aSession) throws ProcessException {
+
+        TweetArchive current = archive;
+        List<FlowFile> flowFiles = aSession.get(batchSize);
+        if (flowFiles.isEmpty() && !isDue(nextCommit)) {
+            // idle: back off instead of spinning until the commit is due
+            aContext.yield();
+            return;
+        }
+
+        try {
+            int indexed = 0;
+            int malformed = 0;
+            long oldest = System.currentTimeMillis() - retention;
+            for (FlowFile flowFile : flowFiles) {
+                String text = flowFile.getAttribute("Text");
+                if (null != text) {
+                    long time = createdAt(flowFile);
+                    if (!text.isEmpty() && time >= oldest) {
+                        long start = System.nanoTime();
+                        current.add(time, text,
+                                flowFile.getAttribute("UserId"),
+                                flowFile.getAttribute("StatusURL"));
+                        metrics.recordLatency(System.nanoTime() - start);
+                        indexed++;
+                    }
+                } else if (NDJSON_MIME_TYPE.equals(flowFile
+                        .getAttribute(CoreAttributes.MIME_TYPE.key()))) {
+                    List<Status> statuses = new ArrayList<Status>();
+                    malformed += readStatuses(aSession, flowFile, statuses);
+                    for (Status status : statuses) {
+                        long time = Tweets.createdAt(status);
+                        if (time < 0) {
+                            time = flowFile.getEntryDate();
+                        }
+                        if (time < oldest || null == status.getText()
+                                || status.getText().isEmpty()) {
+                            continue;
+                        }
+                        long start = System.nanoTime();
+                        current.add(time, status.getText(),
+                                String.valueOf(status.getUser().getId()),
+                                Tweets.statusUrl(status));
+                        metrics.recordLatency(System.nanoTime() - start);
+                        indexed++;
+                    }
+                }
+            }
+
+            if (claim(nextRefresh, refreshInterval)) {
+                current.refresh();
+            }
+            if (claim(nextCommit, commitInterval)) {
+                current.commit();
+                int expired = current.expire(
+                        System.currentTimeMillis() - retention);
+                if (expired > 0) {
+                    aSession.adjustCounter(EXPIRED, expired, false);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            for (FlowFile flowFile : flowFiles) {
+                metrics.recordAge(flowFile, now);
+            }
+            aSession.transfer(flowFiles, REL_SUCCESS);
+            aSession.adjustCounter(ProcessorMetrics.RECEIVED,
+                    flowFiles.size(), false);
+            aSession.adjustCounter(INDEXED, indexed, false);
+            if (malformed > 0) {
+                aSession.adjustCounter(MALFORMED, malformed, false);
+            }
+            metrics.report(aSession);
+        } catch (IOException e) {
+            getLogger().error(e.getMessage());
+            aSession.rollback();
+            aContext.yield();
+        }
+    }
+
+    /**
+     * Commits and closes the archive once no task runs any more.
+     */
+    @OnStopped
+    public void cleanUp() {
+        TweetArchive current = archive;
+        archive = null;
+        if (null != current) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                getLogger().error(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Getter.
+     *
+     * @return archive or null if the processor is not scheduled
+     */
+    public TweetArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return metrics, e.g. the index time percentiles
+     */
+    public ProcessorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collection<ValidationResult> customValidate(
+            final ValidationContext aContext) {
+        final List<ValidationResult> results =
+                new ArrayList<ValidationResult>();
+        try {
+            Analyzers.get(aContext.getProperty(ANALYZER).getValue(),
+                    aContext.getProperty(CUSTOM_ANALYZER).getValue());
+        } catch (IOException | IllegalArgumentException e) {
+            results.add(new ValidationResult.Builder()
+                    .subject(ANALYZER.getName()).valid(false)
+                    .explanation("cannot create analyzer: " + e.getMessage())
+                    .build());
+        }
+        Long period = aContext.getProperty(PARTITION_PERIOD)
+                .asTimePeriod(TimeUnit.MILLISECONDS);
+        if (null != period && 0 != period % 1000) {
+            results.add(new ValidationResult.Builder()
+                    .subject(PARTITION_PERIOD.getName()).valid(false)
+                    .explanation("must be whole seconds").build());
+        }
+        return results;
+    }
+
+    /**
+     * Determines the time a tweet is indexed at.
+     *
+     * @param aFlowFile tweet
+     * @return creation time or, if it is missing, the entry date
+     */
+    private static long createdAt(final FlowFile aFlowFile) {
+        String createdAt = aFlowFile.getAttribute(Tweets.CREATED_AT);
+        if (null != createdAt) {
+            try {
+                return Long.parseLong(createdAt);
+            } catch (NumberFormatException e) {
+                // fall back to the entry date
+            }
+        }
+        return aFlowFile.getEntryDate();
+    }
+
+    /**
+     * Parses the statuses of an NDJSON content FlowFile.
+     *
+     * @param aSession process session
+     * @param aFlowFile FlowFile with one status per line
+     * @param aStatuses list the statuses are added to
+     * @return number of malformed lines
+     */
+    private int readStatuses(final ProcessSession aSession,
+            final FlowFile aFlowFile, final List<Status> aStatuses) {
+        final int[] malformed = new int[1];
+        aSession.read(aFlowFile, in -> {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while (null != (line = reader.readLine())) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    Status status = TwitterObjectFactory.createStatus(line);
+                    // e.g. deletion notices parse without a user
+                    if (null != status.getUser()) {
+                        aStatuses.add(status);
+                        continue;
+                    }
+                } catch (TwitterException e) {
+                    if (getLogger().isDebugEnabled()) {
+                        getLogger().debug("Malformed line in "
+                                + aFlowFile + ": " + e.getMessage());
+                    }
+                }
+                malformed[0]++;
+            }
+        });
+        return malformed[0];
+    }
+
+    /**
+     * Checks whether a periodic task is due.
+     *
+     * @param aNext time of the next run
+     * @return true - if it is due, otherwise - false
+     */
+    private static boolean isDue(final AtomicLong aNext) {
+        return System.currentTimeMillis() >= aNext.get();
+    }
+
+    /**
+     * Claims a due periodic task, so only one of the concurrent tasks runs
+     * it.
+     *
+     * @param aNext time of the next run
+     * @param aInterval interval in milliseconds
+     * @return true - if the caller has to run it, otherwise - false
+     */
+    private static boolean claim(final AtomicLong aNext, final long aInterval) {
+        long next = aNext.get();
+        long now = System.currentTimeMillis();
+        return now >= next && aNext.compareAndSet(next, now + aInterval);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    /**
+     * Setter.
+     *
+     * @param aRelationships relationships
+     */
+    public void setRelationships(final Set<Relationship> aRelationships) {
+        relationships = aRelationships;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return properties
+     */
+    public List<PropertyDescriptor> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Setter.
+     *
+     * @param aProperties properties
+     */
+    public void setProperties(final List<PropertyDescriptor> aProperties) {
+        properties = aProperties;
+    }
+
+}
@@ -0,0 +1,563 @@
+package processors;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.TriggerSerially;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.TwitterObjectFactory;
+
+/**
+ * A processor for replaying recorded tweets, e.g. the NDJSON content written
+ * by {@link MmTwitterReceiver}, for load tests without a live stream.
+ */
+@InputRequirement(Requirement.INPUT_FORBIDDEN)
+@Tags({"twitter", "replay", "source", "test", "MM"})
+@CapabilityDescription("This processor replays recorded tweets from NDJSON "
+        + "files, filtered and mapped to FlowFiles like live tweets.")
+@TriggerSerially
+public class MmTweetReplayer extends AbstractProcessor {
+
+    /** Validator of positive decimal numbers. */
+    private static final Validator POSITIVE_NUMBER_VALIDATOR =
+            (aSubject, aInput, aContext) -> new ValidationResult.Builder()
+                    .subject(aSubject).input(aInput)
+                    .valid(isPositiveNumber(aInput))
+                    .explanation("must be a positive number").build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor FILES =
+            new PropertyDescriptor.Builder().name("Replay Files")
+                    .description(
+                            "Specifies comma-separated NDJSON files with one "
+                                    + "tweet per line, replayed in order.")
+                    .required(true)
+                    .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+                    .build();
+
+    /** Pacing value. */
+    public static final AllowableValue PACING_NONE = new AllowableValue(
+            "As Fast As Possible", "As Fast As Possible",
+            "Tweets are sent as fast as the flow accepts them.");
+
+    /** Pacing value. */
+    public static final AllowableValue PACING_RATE = new AllowableValue(
+            "Fixed Rate", "Fixed Rate",
+            "Tweets are sent at the replay rate.");
+
+    /** Pacing value. */
+    public static final AllowableValue PACING_TIMESTAMPS = new AllowableValue(
+            "Original Timing", "Original Timing",
+            "Tweets are sent with the gaps between their creation times, "
+                    + "divided by the speed factor.");
+
+    /** Processor property. */
+    public static final PropertyDescriptor PACING =
+            new PropertyDescriptor.Builder().name("Pacing")
+                    .description("Specifies how tweets are spaced in time.")
+                    .allowableValues(PACING_NONE, PACING_RATE,
+                            PACING_TIMESTAMPS)
+                    .defaultValue(PACING_NONE.getValue()).required(true)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor RATE =
+            new PropertyDescriptor.Builder().name("Replay Rate")
+                    .description(
+                            "Specifies the tweets per second for fixed rate "
+                                    + "pacing.")
+                    .defaultValue("100").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor SPEED =
+            new PropertyDescriptor.Builder().name("Speed Factor")
+                    .description(
+                            "Specifies how many times faster than recorded "
+                                    + "tweets are sent with original timing.")
+                    .defaultValue("1.0").required(true)
+                    .addValidator(POSITIVE_NUMBER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor LOOP =
+            new PropertyDescriptor.Builder().name("Loop")
+                    .description(
+                            "Specifies whether the files are replayed again "
+                                    + "from the start once all are sent. The "
+                                    + "seen status IDs are forgotten on "
+                                    + "every pass.")
+                    .allowableValues("true", "false").defaultValue("false")
+                    .required(true).build();
+
+    /** Relationship "Success". */
+    public static final Relationship REL_SUCCESS =
+            MmTwitterReceiver.REL_SUCCESS;
+
+    /** Counter name. */
+    static final String COUNTER_REPLAYED = "Replayed Tweets";
+
+    /** Counter name. */
+    static final String COUNTER_MALFORMED = "Malformed Lines";
+
+    /** Longest sleep while waiting for a paced tweet, in milliseconds. */
+    private static final long MAX_WAIT_MILLIS = 10;
+
+    /** List of processor properties. */
+    private List<PropertyDescriptor> properties;
+
+    /** List of processor relationships. */
+    private Set<Relationship> relationships;
+
+    /** Replay files, read on scheduling. */
+    private List<Path> files;
+
+    /** Batch size, read on scheduling. */
+    private int batchSize;
+
+    /** Pacing, read on scheduling. */
+    private String pacing;
+
+    /** Interval between tweets for fixed rate pacing, in milliseconds. */
+    private double interval;
+
+    /** Speed factor for original timing, read on scheduling. */
+    private double speed;
+
+    /** Whether to loop, read on scheduling. */
+    private boolean loop;
+
+    /** Dedup capacity, read on scheduling. */
+    private int dedupCapacity;
+
+    /** Seen status IDs of the current pass. */
+    private LongDedupSet seenIds;
+
+    /** Index of the current file. */
+    private int fileIndex;
+
+    /** Reader of the current file or null. */
+    private MappedLineReader reader;
+
+    /** Statuses read in the current pass. */
+    private long passStatuses;
+
+    /** Wall-clock start of the current pass, -1 until the first tweet. */
+    private long passStart;
+
+    /** Creation time of the first tweet of the pass, -1 if unknown. */
+    private long passFirstCreated;
+
+    /** Read status waiting for its time, or null. */
+    private Status pending;
+
+    /** Noise tweets not yet published to the counter. */
+    private long noise;
+
+    /** Duplicate tweets not yet published to the counter. */
+    private long duplicates;
+
+    /** Malformed lines not yet published to the counter. */
+    private long malformed;
+
+    /** Whether all files are replayed and there is no loop. */
+    private boolean finished;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+
+        final Set<Relationship> procRels = new HashSet<Relationship>();
+        procRels.add(REL_SUCCESS);
+        setRelationships(Collections.unmodifiableSet(procRels));
+
+        final List<PropertyDescriptor> supDescriptors =
+                new ArrayList<PropertyDescriptor>();
+        supDescriptors.add(FILES);
+        supDescriptors.add(PACING);
+        supDescriptors.add(RATE);
+        supDescriptors.add(SPEED);
+        supDescriptors.add(LOOP);
+        supDescriptors.add(MmTwitterReceiver.BATCH_SIZE);
+        supDescriptors.add(MmTwitterReceiver.DEDUP_CAPACITY);
+        setProperties(Collections.unmodifiableList(supDescriptors));
+
+        getLogger()
+                .info(this.getClass().getName() + ": Initialisation complete!");
+
+    }
+
+    /**
+     * Opens the first file; every scheduling replays from the start.
+     *
+     * @param aContext process context
+     */
+    @OnScheduled
+    public void onScheduled(final ProcessContext aContext) {
+        files = parseFiles(aContext.getProperty(FILES).getValue());
+        batchSize = aContext.getProperty(MmTwitterReceiver.BATCH_SIZE)
+                .asInteger();
+        pacing = aContext.getProperty(PACING).getValue();
+        interval = 1000.0 / aContext.getProperty(RATE).asInteger();
+        speed = aContext.getProperty(SPEED).asDouble();
+        loop = aContext.getProperty(LOOP).asBoolean();
+        dedupCapacity = aContext.getProperty(MmTwitterReceiver.DEDUP_CAPACITY)
+                .asInteger();
+        noise = 0;
+        duplicates = 0;
+        malformed = 0;
+        finished = false;
+        try {
+            startPass();
+        } catch (IOException e) {
+            getLogger().error(e.getMessage());
+            finished = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTrigger(final ProcessContext aContext,
+            final ProcessSession aSession) throws ProcessException {
+
+        if (finished) {
+            aContext.yield();
+            return;
+        }
+
+        int sent = 0;
+        int taken = 0;
+        try {
+            for (int n = 0; n < batchSize; n++) {
+                if (null == pending) {
+                    pending = nextStatus();
+                    if (null == pending) {
+                        finished = true;
+                        getLogger().info("Replay finished");
+                        break;
+                    }
+                }
+                long due = dueTime(pending);
+                long wait = due - System.currentTimeMillis();
+                if (wait > 0) {
+                    if (0 == taken) {
+                        sleep(Math.min(wait, MAX_WAIT_MILLIS));
+                    }
+                    break;
+                }
+
+                Status aStatus = pending;
+                pending = null;
+                taken++;
+                if (!filterStatus(aStatus)) {
+                    continue;
+                }
+                // the tweet counts as created when it is due, so the tweet
+                // ages downstream measure the flow and not the recording
+                Map<String, String> attributes = Tweets.toAttributes(aStatus);
+                attributes.put(Tweets.CREATED_AT, String.valueOf(due));
+                attributes.put(Tweets.RECEIVED_AT,
+                        String.valueOf(System.currentTimeMillis()));
+                FlowFile flowFile = aSession.create();
+                flowFile = aSession.putAllAttributes(flowFile, attributes);
+                aSession.transfer(flowFile, REL_SUCCESS);
+                sent++;
+            }
+        } catch (IOException e) {
+            getLogger().error(e.getMessage());
+            finished = true;
+        }
+
+        aSession.adjustCounter(ProcessorMetrics.RECEIVED, taken, false);
+        aSession.adjustCounter(ProcessorMetrics.NOISE, noise, false);
+        aSession.adjustCounter(ProcessorMetrics.DUPLICATES, duplicates, false);
+        aSession.adjustCounter(COUNTER_REPLAYED, sent, false);
+        aSession.adjustCounter(COUNTER_MALFORMED, malformed, false);
+        noise = 0;
+        duplicates = 0;
+        malformed = 0;
+    }
+
+    /**
+     * Filters out the noise and duplicates like {@link MmTwitterReceiver}.
+     * A relevant status is remembered as seen.
+     *
+     * @param aStatus replayed tweet
+     * @return true - if it is a relevant primary tweet, otherwise - false
+     */
+    public boolean filterStatus(final Status aStatus) {
+        if (Tweets.isNoise(aStatus)) {
+            noise++;
+        } else if (!seenIds.add(aStatus.getId(), 0)) {
+            duplicates++;
+        } else {
+            return true;
+        }
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug("Ignoring 'noisy' tweet: " + aStatus.getId());
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next status, moving on to the next file and pass as needed.
+     *
+     * @return status or null if the replay is over
+     * @throws IOException if a file cannot be read
+     */
+    private Status nextStatus() throws IOException {
+        while (true) {
+            String line = reader.readLine();
+            if (null == line) {
+                reader.close();
+                if (++fileIndex < files.size()) {
+                    reader = new MappedLineReader(files.get(fileIndex));
+                    continue;
+                }
+                // stop rather than spin on files without any status
+                if (!loop || 0 == passStatuses) {
+                    reader = null;
+                    return null;
+                }
+                startPass();
+                continue;
+            }
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                Status status = TwitterObjectFactory.createStatus(line);
+                // e.g. deletion notices parse without a user
+                if (null != status.getUser()) {
+                    passStatuses++;
+                    return status;
+                }
+            } catch (TwitterException e) {
+                if (getLogger().isDebugEnabled()) {
+                    getLogger().debug("Malformed line in "
+                            + files.get(fileIndex) + ": " + e.getMessage());
+                }
+            }
+            malformed++;
+        }
+    }
+
+    /**
+     * Starts a pass over all files.
+     *
+     * @throws IOException if the first file cannot be opened
+     */
+    private void startPass() throws IOException {
+        fileIndex = 0;
+        reader = new MappedLineReader(files.get(0));
+        seenIds = new LongDedupSet(dedupCapacity, 0, false);
+        passStatuses = 0;
+        passStart = -1;
+        passFirstCreated = -1;
+    }
+
+    /**
+     * Computes when a status is due according to the pacing.
+     *
+     * @param aStatus status
+     * @return wall-clock time in milliseconds
+     */
+    private long dueTime(final Status aStatus) {
+        long now = System.currentTimeMillis();
+        if (passStart < 0) {
+            passStart = now;
+        }
+        if (PACING_RATE.getValue().equals(pacing)) {
+            return passStart + (long) ((passStatuses - 1) * interval);
+        }
+        if (PACING_TIMESTAMPS.getValue().equals(pacing)) {
+            Date created = aStatus.getCreatedAt();
+            if (null == created) {
+                return now;
+            }
+            if (passFirstCreated < 0) {
+                passFirstCreated = created.getTime();
+            }
+            long offset = created.getTime() - passFirstCreated;
+            return passStart + Math.max(0, (long) (offset / speed));
+        }
+        return now;
+    }
+
+    /**
+     * Waits for a paced tweet.
+     *
+     * @param aMillis time in milliseconds
+     */
+    private static void sleep(final long aMillis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(aMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes the current file once no task runs any more.
+     */
+    @OnStopped
+    public void cleanUp() {
+        MappedLineReader current = reader;
+        reader = null;
+        pending = null;
+        if (null != current) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                getLogger().error(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collection<ValidationResult> customValidate(
+            final ValidationContext aContext) {
+        final List<ValidationResult> results =
+                new ArrayList<ValidationResult>();
+        String names = aContext.getProperty(FILES).getValue();
+        if (null == names) {
+            return results;
+        }
+        List<Path> replayFiles = parseFiles(names);
+        if (replayFiles.isEmpty()) {
+            results.add(new ValidationResult.Builder()
+                    .subject(FILES.getName()).input(names).valid(false)
+                    .explanation("no file given").build());
+        }
+        for (Path file : replayFiles) {
+            File f = file.toFile();
+            if (!f.isFile() || !f.canRead()) {
+                results.add(new ValidationResult.Builder()
+                        .subject(FILES.getName()).input(file.toString())
+                        .valid(false)
+                        .explanation("cannot read file '" + file + "'")
+                        .build());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Checks a positive decimal number.
+     *
+     * @param aInput input
+     * @return true - if it is a positive number, otherwise - false
+     */
+    private static boolean isPositiveNumber(final String aInput) {
+        if (null == aInput) {
+            return false;
+        }
+        try {
+            return Double.parseDouble(aInput) > 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a comma-separated list of files.
+     *
+     * @param aNames file names
+     * @return files
+     */
+    static List<Path> parseFiles(final String aNames) {
+        List<Path> result = new ArrayList<Path>();
+        for (String name : aNames.split(",")) {
+            if (!name.trim().isEmpty()) {
+                result.add(Paths.get(name.trim()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    /**
+     * Setter.
+     *
+     * @param aRelationships relationships
+     */
+    public void setRelationships(final Set<Relationship> aRelationships) {
+        relationships = aRelationships;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return properties;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return properties
+     */
+    public List<PropertyDescriptor> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Setter.
+     *
+     * @param aProperties properties
+     */
+    public void setProperties(final List<PropertyDescriptor> aProperties) {
+        properties = aProperties;
+    }
+
+}
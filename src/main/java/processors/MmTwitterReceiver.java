@@ -1,24 +1,42 @@
 package processors;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
-import org.apache.commons.collections.buffer.CircularFifoBuffer;
-
 import org.apache.nifi.annotation.behavior.InputRequirement;
 import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
 import org.apache.nifi.annotation.behavior.TriggerSerially;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.annotation.lifecycle.OnUnscheduled;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
@@ -26,17 +44,27 @@ import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 
+import twitter4j.ConnectionLifeCycleListener;
 import twitter4j.FilterQuery;
 import twitter4j.StallWarning;
 import twitter4j.Status;
 import twitter4j.StatusDeletionNotice;
 import twitter4j.StatusListener;
+import twitter4j.TwitterObjectFactory;
 import twitter4j.TwitterStream;
 import twitter4j.TwitterStreamFactory;
 import twitter4j.conf.ConfigurationBuilder;
 
 /**
  * A processor for retrieving tweets from specific users.
+ * <p>
+ * The user IDs can be spread across several stream connections by a
+ * {@link ShardRing}; every connection decodes on its own thread and
+ * reconnects on its own, and all of them feed the same deduplicating queue.
+ * Under backpressure the queue overflows into a memory-mapped file
+ * ({@link SpillingQueue}) instead of blocking the stream threads. Every
+ * FlowFile carries the creation and receive times of its oldest tweet, from
+ * which the processors downstream report the tweet age.
  */
 @InputRequirement(Requirement.INPUT_FORBIDDEN)
 @Tags({"twitter", "retrieve", "source", "MM"})
@@ -53,6 +81,31 @@ public class MmTwitterReceiver extends AbstractProcessor {
                     .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
                     .build();
 
+    /** Processor property. */
+    public static final PropertyDescriptor STREAM_CONNECTIONS =
+            new PropertyDescriptor.Builder().name("Stream Connections")
+                    .description(
+                            "Specifies how many stream connections the user "
+                                    + "IDs are spread across by consistent "
+                                    + "hashing. Every connection reconnects "
+                                    + "with its own backoff and counts "
+                                    + "against the connection limit of the "
+                                    + "account.")
+                    .defaultValue("1").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor STREAM_BASE_URL =
+            new PropertyDescriptor.Builder().name("Stream Base URL")
+                    .description(
+                            "Specifies the base URL of the streaming API, "
+                                    + "e.g. a local stand-in endpoint for "
+                                    + "tests. If not set, Twitter's is used.")
+                    .required(false)
+                    .addValidator(StandardValidators.URL_VALIDATOR)
+                    .build();
+
     /** Relationship "Success". */
     public static final Relationship REL_SUCCESS = new Relationship.Builder()
             .name("success")
@@ -60,6 +113,169 @@ public class MmTwitterReceiver extends AbstractProcessor {
                     "This is where flow files are sent if the processor execution went well.")
             .build();
 
+    /** Processor property. */
+    public static final PropertyDescriptor QUEUE_CAPACITY =
+            new PropertyDescriptor.Builder().name("Queue Capacity")
+                    .description(
+                            "Specifies how many received tweets are buffered "
+                                    + "between the stream and the flow. "
+                                    + "Tweets arriving at a full queue are "
+                                    + "spilled to disk if a spill directory "
+                                    + "is set, otherwise dropped.")
+                    .defaultValue("10000").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor SPILL_DIRECTORY =
+            new PropertyDescriptor.Builder().name("Spill Directory")
+                    .description(
+                            "Specifies a directory for a memory-mapped "
+                                    + "overflow file. If set, tweets arriving "
+                                    + "at a full queue, e.g. while the flow "
+                                    + "applies backpressure, are written to "
+                                    + "the file and sent in order once the "
+                                    + "flow catches up. The file is a spill "
+                                    + "area, its content is lost on a NiFi "
+                                    + "restart.")
+                    .required(false)
+                    .addValidator(StandardValidators
+                            .createDirectoryExistsValidator(false, true))
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor SPILL_FILE_SIZE =
+            new PropertyDescriptor.Builder().name("Spill File Size")
+                    .description(
+                            "Specifies the size of the overflow file; a "
+                                    + "tweet takes about 3 KB. Tweets "
+                                    + "arriving when it is full are dropped.")
+                    .defaultValue("256 MB").required(true)
+                    .addValidator(StandardValidators
+                            .createDataSizeBoundsValidator(1 << 20,
+                                    Integer.MAX_VALUE))
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor BATCH_SIZE =
+            new PropertyDescriptor.Builder().name("Batch Size").description(
+                    "Specifies the maximum number of tweets taken from the "
+                            + "queue and committed in one go in attribute mode.")
+                    .defaultValue("100").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor DEDUP_CAPACITY =
+            new PropertyDescriptor.Builder().name("Dedup Capacity")
+                    .description(
+                            "Specifies how many of the most recent status IDs "
+                                    + "are remembered to omit duplicates.")
+                    .defaultValue("100000").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor DEDUP_TTL =
+            new PropertyDescriptor.Builder().name("Dedup TTL").description(
+                    "Specifies how long a status ID is remembered; "
+                            + "0 sec remembers it until it is evicted by "
+                            + "newer IDs.")
+                    .defaultValue("24 hours").required(true)
+                    .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor DEDUP_BLOOM_FILTER =
+            new PropertyDescriptor.Builder().name("Dedup Bloom Filter")
+                    .description(
+                            "Specifies whether a Bloom filter is put in front "
+                                    + "of the status ID set; it speeds up "
+                                    + "lookups of large sets.")
+                    .allowableValues("true", "false").defaultValue("false")
+                    .required(true).build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor DEDUP_STATE_FILE =
+            new PropertyDescriptor.Builder().name("Dedup State File")
+                    .description(
+                            "Specifies a file the seen status IDs are "
+                                    + "periodically saved to and restored "
+                                    + "from on start, so duplicates are "
+                                    + "omitted across restarts. If not set, "
+                                    + "the IDs are kept in memory only.")
+                    .required(false)
+                    .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor DEDUP_SNAPSHOT_INTERVAL =
+            new PropertyDescriptor.Builder().name("Dedup Snapshot Interval")
+                    .description(
+                            "Specifies how often the seen status IDs are "
+                                    + "saved to the dedup state file.")
+                    .defaultValue("1 min").required(true)
+                    .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+                    .build();
+
+    /** Output mode value. */
+    public static final AllowableValue OUTPUT_ATTRIBUTES = new AllowableValue(
+            "Attributes", "Attributes",
+            "One FlowFile per tweet; the tweet is stored in attributes, "
+                    + "including the full status.");
+
+    /** Output mode value. */
+    public static final AllowableValue OUTPUT_NDJSON = new AllowableValue(
+            "NDJSON Content", "NDJSON Content",
+            "Raw tweet JSON is written to the FlowFile content, one tweet per "
+                    + "line; only small routing attributes are set.");
+
+    /** Processor property. */
+    public static final PropertyDescriptor OUTPUT_MODE =
+            new PropertyDescriptor.Builder().name("Output Mode").description(
+                    "Specifies where tweets are stored in the FlowFiles.")
+                    .allowableValues(OUTPUT_ATTRIBUTES, OUTPUT_NDJSON)
+                    .defaultValue(OUTPUT_ATTRIBUTES.getValue()).required(true)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor TWEETS_PER_FLOWFILE =
+            new PropertyDescriptor.Builder().name("Tweets Per FlowFile")
+                    .description(
+                            "In NDJSON content mode, specifies the maximum "
+                                    + "number of tweets (lines) per FlowFile.")
+                    .defaultValue("1000").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** Processor property. */
+    public static final PropertyDescriptor MAX_BATCH_AGE =
+            new PropertyDescriptor.Builder().name("Max Batch Age").description(
+                    "In NDJSON content mode, specifies how long a tweet may "
+                            + "wait for its FlowFile to fill up before a "
+                            + "smaller FlowFile is sent.")
+                    .defaultValue("1 sec").required(true)
+                    .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+                    .build();
+
+    /** Counter name. */
+    static final String COUNTER_QUEUE_DEPTH = "Queue Depth";
+
+    /** Counter name. */
+    static final String COUNTER_DROPPED = ProcessorMetrics.DROPPED;
+
+    /** Counter name. */
+    static final String COUNTER_SPILLED = "Spilled Tweets";
+
+    /** Counter name. */
+    static final String COUNTER_SPILL_DEPTH = "Spill Depth";
+
+    /** Counter name. */
+    static final String COUNTER_CONNECTED = "Connected Streams";
+
+    /** Counter name. */
+    static final String COUNTER_RECONNECTS = "Stream Reconnects";
+
     /** List of processor properties. */
     private List<PropertyDescriptor> properties;
 
@@ -67,14 +283,68 @@ public class MmTwitterReceiver extends AbstractProcessor {
     private Set<Relationship> relationships;
 
     /**
-     * Twitter stream.
+     * Twitter streams, one per shard of the user IDs.
      */
-    private TwitterStream twitterStream;
+    private volatile List<TwitterStream> twitterStreams =
+            Collections.emptyList();
 
     /**
-     * A circular buffer to keep of track status IDs and omit duplicates.
+     * A set of recent status IDs to omit duplicates.
      */
-    private CircularFifoBuffer buffer;
+    private volatile LongDedupSet seenIds;
+
+    /**
+     * Tweets received from the stream and not yet sent forward.
+     */
+    private volatile SpillingQueue<ReceivedTweet> queue;
+
+    /** Capacity and spill file of the queue. */
+    private String queueConfig;
+
+    /** Tweets spilled by queues replaced since. */
+    private long spilledBefore;
+
+    /** Batch size, read on scheduling. */
+    private volatile int batchSize;
+
+    /** Whether tweets are written as NDJSON content, read on scheduling. */
+    private volatile boolean ndjson;
+
+    /** Maximum tweets per NDJSON FlowFile, read on scheduling. */
+    private volatile int tweetsPerFlowFile;
+
+    /** Maximum NDJSON batch age in milliseconds, read on scheduling. */
+    private volatile long maxBatchAge;
+
+    /** Dedup state file or null, read on scheduling. */
+    private volatile Path stateFile;
+
+    /** Dedup snapshot interval in milliseconds, read on scheduling. */
+    private volatile long snapshotInterval;
+
+    /** Time of the next dedup snapshot. */
+    private long nextSnapshot;
+
+    /** Statuses received from the stream. */
+    private final AtomicLong received = new AtomicLong();
+
+    /** Statuses omitted as noise. */
+    private final AtomicLong noise = new AtomicLong();
+
+    /** Statuses omitted as duplicates. */
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /** Statuses dropped because the queue was full. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Stream connections currently open. */
+    private final AtomicLong connected = new AtomicLong();
+
+    /** Stream connections reopened after a disconnect. */
+    private final AtomicLong reconnects = new AtomicLong();
+
+    /** Time tweets wait in the queue. */
+    private final ProcessorMetrics metrics = new ProcessorMetrics("Queue Time");
 
     /**
      * {@inheritDoc}
@@ -89,25 +359,133 @@ public class MmTwitterReceiver extends AbstractProcessor {
         final List<PropertyDescriptor> supDescriptors =
                 new ArrayList<PropertyDescriptor>();
         supDescriptors.add(USER_IDS);
+        supDescriptors.add(STREAM_CONNECTIONS);
+        supDescriptors.add(STREAM_BASE_URL);
+        supDescriptors.add(QUEUE_CAPACITY);
+        supDescriptors.add(SPILL_DIRECTORY);
+        supDescriptors.add(SPILL_FILE_SIZE);
+        supDescriptors.add(BATCH_SIZE);
+        supDescriptors.add(OUTPUT_MODE);
+        supDescriptors.add(TWEETS_PER_FLOWFILE);
+        supDescriptors.add(MAX_BATCH_AGE);
+        supDescriptors.add(DEDUP_CAPACITY);
+        supDescriptors.add(DEDUP_TTL);
+        supDescriptors.add(DEDUP_BLOOM_FILTER);
+        supDescriptors.add(DEDUP_STATE_FILE);
+        supDescriptors.add(DEDUP_SNAPSHOT_INTERVAL);
         setProperties(Collections.unmodifiableList(supDescriptors));
 
-        ConfigurationBuilder cb = new ConfigurationBuilder();
-        cb.setDebugEnabled(true)
-                .setOAuthConsumerKey("w005HES0qRC80dSzISfcXWuYA")
-                .setOAuthConsumerSecret(
-                        "WWmbn1USHfGUbFYqGEoP1Zo771MZT8YQD9aYhCCQW2i5uEpjmJ")
-                .setOAuthAccessToken(
-                        "119367092-XTMgigkWeuTOrnP7N4WkKl3jsZtbuu5o7woFerpJ")
-                .setOAuthAccessTokenSecret(
-                        "mDeunQONPSMhqYwGcLdYZZiTq28TorWFNCeXK8ZNJzExh");
+        getLogger()
+                .info(this.getClass().getName() + ": Initialisation complete!");
+
+    }
+
+    /**
+     * Starts the streams. Statuses are pushed into one bounded queue by the
+     * stream threads and drained by {@link #onTrigger}.
+     *
+     * @param aContext process context
+     * @throws IOException if the spill file cannot be created
+     */
+    @OnScheduled
+    public void onScheduled(final ProcessContext aContext)
+            throws IOException {
+
+        batchSize = aContext.getProperty(BATCH_SIZE).asInteger();
+        ndjson = OUTPUT_NDJSON.getValue()
+                .equals(aContext.getProperty(OUTPUT_MODE).getValue());
+        tweetsPerFlowFile =
+                aContext.getProperty(TWEETS_PER_FLOWFILE).asInteger();
+        maxBatchAge = aContext.getProperty(MAX_BATCH_AGE)
+                .asTimePeriod(TimeUnit.MILLISECONDS);
+
+        // keep what was received but not sent before the last stop
+        int queueCapacity = aContext.getProperty(QUEUE_CAPACITY).asInteger();
+        String spillDirectory =
+                aContext.getProperty(SPILL_DIRECTORY).getValue();
+        int spillSize = aContext.getProperty(SPILL_FILE_SIZE)
+                .asDataSize(DataUnit.B).intValue();
+        String config = queueCapacity + "|" + spillDirectory + "|" + spillSize;
+        SpillingQueue<ReceivedTweet> previous = queue;
+        if (null == previous || !config.equals(queueConfig)) {
+            Path spillFile = null;
+            if (null != spillDirectory) {
+                spillFile = Files.createTempFile(Paths.get(spillDirectory),
+                        "tweets-", ".spill");
+                spillFile.toFile().deleteOnExit();
+            }
+            SpillingQueue<ReceivedTweet> next =
+                    new SpillingQueue<ReceivedTweet>(queueCapacity, spillFile,
+                            spillSize);
+            if (null != previous) {
+                ReceivedTweet tweet;
+                while (null != (tweet = previous.poll())) {
+                    if (!next.offer(tweet)) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                spilledBefore += previous.getSpilledCount();
+                previous.close();
+            }
+            queue = next;
+            queueConfig = config;
+        }
 
-        twitterStream = new TwitterStreamFactory(cb.build()).getInstance();
+        String stateFileName =
+                aContext.getProperty(DEDUP_STATE_FILE).getValue();
+        stateFile = (null == stateFileName) ? null : Paths.get(stateFileName);
+        snapshotInterval = aContext.getProperty(DEDUP_SNAPSHOT_INTERVAL)
+                .asTimePeriod(TimeUnit.MILLISECONDS);
+        nextSnapshot = System.currentTimeMillis() + snapshotInterval;
+
+        // the seen IDs survive rescheduling unless the set is reconfigured
+        int capacity = aContext.getProperty(DEDUP_CAPACITY).asInteger();
+        long ttl = aContext.getProperty(DEDUP_TTL)
+                .asTimePeriod(TimeUnit.MILLISECONDS);
+        boolean bloomFilter =
+                aContext.getProperty(DEDUP_BLOOM_FILTER).asBoolean();
+        LongDedupSet current = seenIds;
+        if (null == current || current.getCapacity() != capacity
+                || current.getTtlMillis() != ttl
+                || current.hasBloomFilter() != bloomFilter) {
+            current = new LongDedupSet(capacity, ttl, bloomFilter);
+            if (null != stateFile) {
+                restoreSeenIds(current);
+            }
+            seenIds = current;
+        }
 
-        buffer = new CircularFifoBuffer(100);
+        String stringIds = aContext.getProperty(USER_IDS).getValue();
+        if (!stringIds.replaceAll("(\\r|\\n|\\r\\n)", "").trim().isEmpty()) {
 
-        getLogger()
-                .info(this.getClass().getName() + ": Initialisation complete!");
+            List<String> ids = Arrays.asList(stringIds.split(","));
+            List<Long> longIds = ids.stream().map(Long::parseLong)
+                    .collect(Collectors.toList());
+            long[] followings = longIds.stream().mapToLong(i -> i).toArray();
 
+            // every shard is a stream of its own, so a shard reconnects and
+            // backs off on its own and decoding runs on one thread per shard
+            int shards = Math.min(followings.length,
+                    aContext.getProperty(STREAM_CONNECTIONS).asInteger());
+            String baseUrl = aContext.getProperty(STREAM_BASE_URL).getValue();
+            List<TwitterStream> streams = new ArrayList<TwitterStream>();
+            long[][] split = new ShardRing(shards).split(followings);
+            for (int shard = 0; shard < split.length; shard++) {
+                if (0 == split[shard].length) {
+                    continue;
+                }
+                FilterQuery query = new FilterQuery();
+                query.follow(split[shard]);
+
+                TwitterStream stream = createStream(ndjson, baseUrl);
+                stream.addListener(new QueueingListener(queue, ndjson));
+                stream.addConnectionLifeCycleListener(
+                        new ShardLifeCycle(shard, split[shard].length));
+                stream.filter(query);
+                streams.add(stream);
+            }
+            twitterStreams = Collections.unmodifiableList(streams);
+        }
     }
 
     /**
@@ -117,105 +495,415 @@ public class MmTwitterReceiver extends AbstractProcessor {
     public void onTrigger(final ProcessContext aContext,
             final ProcessSession aSession) throws ProcessException {
 
-        StatusListener listener = new StatusListener() {
-
-            @Override
-            public void onStatus(Status aStatus) {
-
-                if (filterStatus(aStatus)) {
-
-                    buffer.add(aStatus.getId());
-
-                    FlowFile flowFile = aSession.create();
-
-                    // parse Twitter status into a flowfile
-                    aSession.putAttribute(flowFile, "Text", aStatus.getText());
-                    aSession.putAttribute(flowFile, "UserId",
-                            String.valueOf(aStatus.getUser().getId()));
-                    aSession.putAttribute(flowFile, "UserName",
-                            aStatus.getUser().getName());
-                    aSession.putAttribute(flowFile, "UserScreenName",
-                            aStatus.getUser().getScreenName());
-                    aSession.putAttribute(flowFile, "UserURL",
-                            aStatus.getUser().getURL());
-                    aSession.putAttribute(flowFile, "StatusURL",
-                            "https://twitter.com/"
-                                    + aStatus.getUser().getScreenName()
-                                    + "/status/" + aStatus.getId());
-                    aSession.putAttribute(flowFile, "FullStatus",
-                            aStatus.toString());
-
-                    aSession.transfer(flowFile, REL_SUCCESS);
-                    aSession.commit();
-                    getLogger().info("Received and sent forward a status: "
-                            + aStatus.toString());
-                }
-            }
+        SpillingQueue<ReceivedTweet> tweets = queue;
+        int sent;
+        if (ndjson) {
+            sent = sendAsContent(aSession, tweets);
+        } else {
+            sent = sendAsAttributes(aSession, tweets);
+        }
 
-            @Override
-            public void onDeletionNotice(
-                    StatusDeletionNotice statusDeletionNotice) {}
+        // the stream thread has no session, so totals are published here
+        metrics.set(aSession, COUNTER_QUEUE_DEPTH, tweets.size());
+        metrics.set(aSession, COUNTER_SPILL_DEPTH, tweets.getSpillSize());
+        metrics.set(aSession, COUNTER_SPILLED,
+                spilledBefore + tweets.getSpilledCount());
+        metrics.set(aSession, ProcessorMetrics.RECEIVED, received.get());
+        metrics.set(aSession, ProcessorMetrics.NOISE, noise.get());
+        metrics.set(aSession, ProcessorMetrics.DUPLICATES, duplicates.get());
+        metrics.set(aSession, COUNTER_DROPPED, dropped.get());
+        metrics.set(aSession, COUNTER_CONNECTED, connected.get());
+        metrics.set(aSession, COUNTER_RECONNECTS, reconnects.get());
+        metrics.report(aSession);
+
+        long now = System.currentTimeMillis();
+        if (null != stateFile && now >= nextSnapshot) {
+            saveSeenIds();
+            nextSnapshot = now + snapshotInterval;
+        }
 
-            @Override
-            public void onTrackLimitationNotice(int numberOfLimitedStatuses) {}
+        if (0 == sent) {
+            aContext.yield();
+        }
+    }
 
-            @Override
-            public void onException(Exception ex) {
-                getLogger().error(ex.getMessage());
+    /**
+     * Sends up to a batch of queued tweets, one FlowFile with attributes per
+     * tweet.
+     *
+     * @param aSession process session
+     * @param aTweets queued tweets
+     * @return number of sent tweets
+     */
+    private int sendAsAttributes(final ProcessSession aSession,
+            final SpillingQueue<ReceivedTweet> aTweets) {
+        int sent = 0;
+        ReceivedTweet tweet;
+        long now = System.currentTimeMillis();
+        while (sent < batchSize && null != (tweet = aTweets.poll())) {
+
+            metrics.recordLatency(TimeUnit.MILLISECONDS
+                    .toNanos(now - tweet.getReceivedAt()));
+            Status aStatus = tweet.getStatus();
+            FlowFile flowFile = aSession.create();
+
+            // parse Twitter status into a flowfile
+            Map<String, String> attributes = Tweets.toAttributes(aStatus);
+            attributes.put(Tweets.RECEIVED_AT,
+                    String.valueOf(tweet.getReceivedAt()));
+            flowFile = aSession.putAllAttributes(flowFile, attributes);
+            metrics.recordAge(flowFile, now);
+
+            aSession.transfer(flowFile, REL_SUCCESS);
+            if (getLogger().isDebugEnabled()) {
+                getLogger().debug("Received and sent forward a status: "
+                        + aStatus.getId());
             }
+            sent++;
+        }
+        return sent;
+    }
 
-            @Override
-            public void onScrubGeo(long aArg0, long aArg1) {}
+    /**
+     * Sends queued tweets as one NDJSON FlowFile once enough tweets are
+     * queued or the oldest one has waited long enough.
+     *
+     * @param aSession process session
+     * @param aTweets queued tweets
+     * @return number of sent tweets
+     */
+    private int sendAsContent(final ProcessSession aSession,
+            final SpillingQueue<ReceivedTweet> aTweets) {
+        ReceivedTweet oldest = aTweets.peek();
+        if (null == oldest || (aTweets.size() < tweetsPerFlowFile
+                && System.currentTimeMillis()
+                        - oldest.getReceivedAt() < maxBatchAge)) {
+            return 0;
+        }
 
-            @Override
-            public void onStallWarning(StallWarning aArg0) {}
-        };
-        twitterStream.addListener(listener);
+        final List<ReceivedTweet> batch = new ArrayList<ReceivedTweet>(
+                Math.min(aTweets.size(), tweetsPerFlowFile));
+        ReceivedTweet tweet;
+        long now = System.currentTimeMillis();
+        while (batch.size() < tweetsPerFlowFile
+                && null != (tweet = aTweets.poll())) {
+            metrics.recordLatency(TimeUnit.MILLISECONDS
+                    .toNanos(now - tweet.getReceivedAt()));
+            // tweets queued before switching from attribute mode lack JSON
+            if (null == tweet.getJson()) {
+                getLogger().warn("Skipped status without raw JSON: "
+                        + tweet.getStatus().getId());
+            } else {
+                batch.add(tweet);
+            }
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
 
-        String stringIds = aContext.getProperty(USER_IDS).getValue();
-        if (!stringIds.replaceAll("(\\r|\\n|\\r\\n)", "").trim().isEmpty()) {
+        FlowFile flowFile = aSession.create();
+        flowFile = aSession.write(flowFile, out -> {
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for (ReceivedTweet t : batch) {
+                writer.write(t.getJson());
+                writer.write('\n');
+            }
+            writer.flush();
+        });
+
+        // only small routing attributes, the timestamps of the oldest tweet
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put(CoreAttributes.MIME_TYPE.key(), "application/x-ndjson");
+        attributes.put("TweetCount", String.valueOf(batch.size()));
+        long createdAt = Long.MAX_VALUE;
+        long receivedAt = Long.MAX_VALUE;
+        for (ReceivedTweet t : batch) {
+            long created = Tweets.createdAt(t.getStatus());
+            if (created >= 0) {
+                createdAt = Math.min(createdAt, created);
+            }
+            receivedAt = Math.min(receivedAt, t.getReceivedAt());
+        }
+        if (Long.MAX_VALUE != createdAt) {
+            attributes.put(Tweets.CREATED_AT, String.valueOf(createdAt));
+        }
+        attributes.put(Tweets.RECEIVED_AT, String.valueOf(receivedAt));
+        if (1 == batch.size()) {
+            Status aStatus = batch.get(0).getStatus();
+            attributes.put("UserId",
+                    String.valueOf(aStatus.getUser().getId()));
+            attributes.put("StatusURL", Tweets.statusUrl(aStatus));
+            if (null != aStatus.getLang()) {
+                attributes.put("Lang", aStatus.getLang());
+            }
+        }
+        flowFile = aSession.putAllAttributes(flowFile, attributes);
+        metrics.recordAge(flowFile, now);
 
-            List<String> ids = Arrays.asList(stringIds.split(","));
-            List<Long> longIds = ids.stream().map(Long::parseLong)
-                    .collect(Collectors.toList());
-            long[] followings = longIds.stream().mapToLong(i -> i).toArray();
-            FilterQuery query = new FilterQuery();
-            query.follow(followings);
+        aSession.transfer(flowFile, REL_SUCCESS);
+        getLogger().debug("Sent forward " + batch.size() + " statuses");
+        return batch.size();
+    }
+
+    /**
+     * Loads the seen status IDs from the dedup state file.
+     *
+     * @param aSet set to fill
+     */
+    private void restoreSeenIds(final LongDedupSet aSet) {
+        long start = System.nanoTime();
+        try {
+            int count = DedupStateFile.read(aSet, stateFile,
+                    System.currentTimeMillis());
+            getLogger().info("Restored " + aSet.size() + " of " + count
+                    + " seen status IDs in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                    + " ms");
+        } catch (IOException e) {
+            getLogger().error("Cannot restore seen status IDs: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the seen status IDs to the dedup state file.
+     */
+    private void saveSeenIds() {
+        LongDedupSet current = seenIds;
+        Path file = stateFile;
+        if (null == current || null == file) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            int count = DedupStateFile.write(current, file);
+            getLogger().debug("Saved " + count + " seen status IDs in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                    + " ms");
+        } catch (IOException e) {
+            getLogger().error("Cannot save seen status IDs: "
+                    + e.getMessage());
+        }
+    }
 
-            twitterStream.filter(query);
-            // twitterStream.sample();
+    /**
+     * Creates a Twitter stream.
+     *
+     * @param aKeepJson whether the raw JSON of statuses is kept
+     * @param aBaseUrl base URL of the streaming API or null for Twitter's
+     * @return stream
+     */
+    private TwitterStream createStream(final boolean aKeepJson,
+            final String aBaseUrl) {
+        ConfigurationBuilder cb = new ConfigurationBuilder();
+        if (null != aBaseUrl) {
+            cb.setStreamBaseURL(aBaseUrl.endsWith("/") ? aBaseUrl
+                    : aBaseUrl + "/");
         }
+        cb.setDebugEnabled(true).setJSONStoreEnabled(aKeepJson)
+                .setOAuthConsumerKey("w005HES0qRC80dSzISfcXWuYA")
+                .setOAuthConsumerSecret(
+                        "WWmbn1USHfGUbFYqGEoP1Zo771MZT8YQD9aYhCCQW2i5uEpjmJ")
+                .setOAuthAccessToken(
+                        "119367092-XTMgigkWeuTOrnP7N4WkKl3jsZtbuu5o7woFerpJ")
+                .setOAuthAccessTokenSecret(
+                        "mDeunQONPSMhqYwGcLdYZZiTq28TorWFNCeXK8ZNJzExh");
+
+        return new TwitterStreamFactory(cb.build()).getInstance();
     }
 
     /**
-     * Filters out the noice - i.e. retweets, replies, quotes, etc.
+     * Filters out the noice - i.e. retweets, replies, quotes, etc. - and
+     * duplicates. A relevant status is remembered as seen.
      * 
      * @param aStatus incoming tweet
      * @return true - if it is a relevant primary tweet, otherwise - false
      */
     public boolean filterStatus(Status aStatus) {
 
-        if (aStatus.getInReplyToStatusId() > 0
-                || aStatus.getInReplyToUserId() > 0
-                || aStatus.getInReplyToScreenName() != null
-                || aStatus.getQuotedStatus() != null
-                || aStatus.getQuotedStatusId() > 0 || aStatus.isRetweet()
-                || buffer.contains(aStatus.getId())) {
-            getLogger().info("Ignoring 'noisy' tweet: "
+        if (Tweets.isNoise(aStatus)) {
+            noise.incrementAndGet();
+        } else if (!seenIds.add(aStatus.getId(),
+                System.currentTimeMillis())) {
+            duplicates.incrementAndGet();
+        } else {
+            return true;
+        }
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug("Ignoring 'noisy' tweet: "
                     + aStatus.getUser().getScreenName() + " - "
                     + aStatus.getText());
-            return false;
         }
-        return true;
+        return false;
     }
 
     /**
-     * Any cleanup code appears here.
+     * Disconnects the streams, so no more tweets arrive.
      */
     @OnUnscheduled
     public void cleanUp() {
-        twitterStream.cleanUp();
-        twitterStream.shutdown();
+        List<TwitterStream> streams = twitterStreams;
+        twitterStreams = Collections.emptyList();
+        for (TwitterStream stream : streams) {
+            stream.cleanUp();
+            stream.shutdown();
+        }
+    }
+
+    /**
+     * Saves the seen status IDs once no task runs any more, so the final
+     * snapshot does not race with a periodic one.
+     */
+    @OnStopped
+    public void saveState() {
+        saveSeenIds();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of received tweets waiting to be sent forward
+     */
+    public int getQueueDepth() {
+        SpillingQueue<ReceivedTweet> tweets = queue;
+        return (null == tweets) ? 0 : tweets.size();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of tweets dropped because the queue and the spill file
+     *         were full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return metrics, e.g. the queue time percentiles
+     */
+    public ProcessorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of open stream connections
+     */
+    public long getConnectedStreams() {
+        return connected.get();
+    }
+
+    /**
+     * Tracks the connection of one shard; twitter4j reconnects it with its
+     * own backoff, linear for network errors and exponential for HTTP ones.
+     */
+    private final class ShardLifeCycle implements ConnectionLifeCycleListener {
+
+        /** Shard number. */
+        private final int shard;
+
+        /** Number of user IDs of the shard. */
+        private final int size;
+
+        /** Whether the shard was connected before. */
+        private boolean wasConnected;
+
+        /**
+         * Constructor.
+         *
+         * @param aShard shard number
+         * @param aSize number of user IDs of the shard
+         */
+        ShardLifeCycle(final int aShard, final int aSize) {
+            shard = aShard;
+            size = aSize;
+        }
+
+        @Override
+        public void onConnect() {
+            connected.incrementAndGet();
+            if (wasConnected) {
+                reconnects.incrementAndGet();
+            }
+            wasConnected = true;
+            getLogger().info("Stream shard " + shard + " connected, following "
+                    + size + " users");
+        }
+
+        @Override
+        public void onDisconnect() {
+            connected.decrementAndGet();
+            getLogger().warn("Stream shard " + shard + " disconnected");
+        }
+
+        @Override
+        public void onCleanUp() {}
+    }
+
+    /**
+     * Stream listener that filters statuses and queues the relevant ones.
+     * It runs on the stream thread and never touches a session.
+     */
+    private final class QueueingListener implements StatusListener {
+
+        /** Target queue. */
+        private final SpillingQueue<ReceivedTweet> target;
+
+        /** Whether the raw JSON of statuses is kept. */
+        private final boolean keepJson;
+
+        /**
+         * Constructor.
+         *
+         * @param aTarget target queue
+         * @param aKeepJson whether the raw JSON of statuses is kept
+         */
+        QueueingListener(final SpillingQueue<ReceivedTweet> aTarget,
+                final boolean aKeepJson) {
+            target = aTarget;
+            keepJson = aKeepJson;
+        }
+
+        @Override
+        public void onStatus(Status aStatus) {
+
+            received.incrementAndGet();
+            if (filterStatus(aStatus)) {
+                // the raw JSON is only available on the stream thread
+                String json = keepJson
+                        ? TwitterObjectFactory.getRawJSON(aStatus) : null;
+                if (!target.offer(new ReceivedTweet(aStatus, json,
+                        System.currentTimeMillis()))) {
+                    // a copy from another shard may still get through
+                    seenIds.forget(aStatus.getId());
+                    dropped.incrementAndGet();
+                    getLogger().debug("Queue is full, dropped a status");
+                }
+            }
+        }
+
+        @Override
+        public void onDeletionNotice(
+                StatusDeletionNotice statusDeletionNotice) {}
+
+        @Override
+        public void onTrackLimitationNotice(int numberOfLimitedStatuses) {}
+
+        @Override
+        public void onException(Exception ex) {
+            getLogger().error(ex.getMessage());
+        }
+
+        @Override
+        public void onScrubGeo(long aArg0, long aArg1) {}
+
+        @Override
+        public void onStallWarning(StallWarning aArg0) {}
     }
 
     /**
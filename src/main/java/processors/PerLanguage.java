@@ -0,0 +1,100 @@
+package processors;
+
+import java.io.IOException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+
+/**
+ * Matchers compiled once per analyzer chain and selected by the language of
+ * a tweet. Languages that share a chain share the compiled matcher. An
+ * instance is immutable.
+ *
+ * @param <M> matcher type
+ */
+public class PerLanguage<M> {
+
+    /**
+     * Compiles a matcher for an analyzer.
+     *
+     * @param <M> matcher type
+     */
+    public interface Compiler<M> {
+
+        /**
+         * Compiles a matcher.
+         *
+         * @param aAnalyzer analyzer
+         * @return matcher
+         * @throws IOException if the matcher cannot be built
+         * @throws ParseException if a search term cannot be parsed
+         */
+        M compile(Analyzer aAnalyzer) throws IOException, ParseException;
+    }
+
+    /** Matcher of the main analyzer. */
+    private final M main;
+
+    /** Matchers by language. */
+    private final Map<String, M> byLanguage;
+
+    /**
+     * Compiles the matchers.
+     *
+     * @param aAnalyzer main analyzer name
+     * @param aCustom custom analyzer specification
+     * @param aLanguages language:analyzer pairs, may be null
+     * @param aCompiler matcher compiler
+     * @throws IOException if an analyzer or matcher cannot be built
+     * @throws ParseException if a search term cannot be parsed
+     */
+    public PerLanguage(final String aAnalyzer, final String aCustom,
+            final String aLanguages, final Compiler<M> aCompiler)
+            throws IOException, ParseException {
+        Map<Analyzer, M> compiled = new IdentityHashMap<Analyzer, M>();
+        Analyzer mainAnalyzer = Analyzers.get(aAnalyzer, aCustom);
+        main = aCompiler.compile(mainAnalyzer);
+        compiled.put(mainAnalyzer, main);
+        Map<String, M> matchers = new HashMap<String, M>();
+        for (Map.Entry<String, String> language : Analyzers
+                .parseLanguages(aLanguages).entrySet()) {
+            Analyzer analyzer = Analyzers.get(language.getValue(), aCustom);
+            M matcher = compiled.get(analyzer);
+            if (null == matcher) {
+                matcher = aCompiler.compile(analyzer);
+                compiled.put(analyzer, matcher);
+            }
+            matchers.put(language.getKey(), matcher);
+        }
+        byLanguage = Collections.unmodifiableMap(matchers);
+    }
+
+    /**
+     * Selects the matcher for a tweet.
+     *
+     * @param aLanguage language of the tweet, may be null
+     * @return matcher of the language's chain, otherwise the main one
+     */
+    public M get(final String aLanguage) {
+        if (null == aLanguage || byLanguage.isEmpty()) {
+            return main;
+        }
+        M matcher = byLanguage.get(aLanguage);
+        return (null == matcher) ? main : matcher;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return matcher of the main analyzer
+     */
+    public M getMain() {
+        return main;
+    }
+
+}
@@ -0,0 +1,276 @@
+package processors;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessSession;
+
+/**
+ * Publishes processor metrics through NiFi counters.
+ * <p>
+ * Counters only take deltas, so absolute values - queue depths, totals kept
+ * outside a session, latency percentiles - are published as the difference
+ * to the value published before, and immediately, so a rolled back session
+ * cannot make the counter drift. Latencies are recorded into a
+ * {@link LatencyHistogram} and published as percentiles of the last report
+ * interval.
+ * <p>
+ * Besides the processing time of the processor itself, the age of the
+ * tweets it passes on is tracked from their {@link Tweets#CREATED_AT} and
+ * {@link Tweets#RECEIVED_AT} attributes, so every stage of a flow reports
+ * how long a tweet has taken to get through it end to end.
+ */
+public class ProcessorMetrics {
+
+    /** Counter name. */
+    public static final String RECEIVED = "Received Tweets";
+
+    /** Counter name. */
+    public static final String DUPLICATES = "Duplicate Tweets";
+
+    /** Counter name. */
+    public static final String NEAR_DUPLICATES = "Near-Duplicate Tweets";
+
+    /** Counter name. */
+    public static final String NOISE = "Noise Tweets";
+
+    /** Counter name. */
+    public static final String MATCHED = "Matched Tweets";
+
+    /** Counter name. */
+    public static final String DROPPED = "Dropped Tweets";
+
+    /** Counter name. */
+    public static final String PREFILTERED = "Pre-filtered Tweets";
+
+    /** Counter name. */
+    public static final String RELOADS = "Reloads";
+
+    /** Counter name. */
+    public static final String RELOAD_FAILURES = "Reload Failures";
+
+    /** Counter name. */
+    public static final String RELOAD_TIME = "Reload Time (ms)";
+
+    /** Latency name of the time since a tweet was created. */
+    public static final String TWEET_AGE = "Tweet Age";
+
+    /** Latency name of the time since a tweet was received. */
+    public static final String PIPELINE_TIME = "Pipeline Time";
+
+    /** Report interval of the latency percentiles. */
+    static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /** Name of the measured latency, e.g. "Match Time". */
+    private final String latencyName;
+
+    /** Latencies of the current interval. */
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    /** Tweet ages of the current interval. */
+    private final LatencyHistogram tweetAges = new LatencyHistogram();
+
+    /** Times since receive of the current interval. */
+    private final LatencyHistogram pipelineTimes = new LatencyHistogram();
+
+    /** Whether a tweet with a creation time has been seen. */
+    private volatile boolean created;
+
+    /** Whether a tweet with a receive time has been seen. */
+    private volatile boolean received;
+
+    /** Time of the next latency report. */
+    private final AtomicLong nextReport =
+            new AtomicLong(System.nanoTime() + REPORT_INTERVAL_NANOS);
+
+    /** Values as last published, by counter name. */
+    private final Map<String, Long> published = new HashMap<String, Long>();
+
+    /** Latency percentiles of the last report interval. */
+    private volatile LatencyHistogram.Snapshot lastInterval =
+            new LatencyHistogram().snapshotAndReset();
+
+    /** Tweet ages of the last report interval. */
+    private volatile LatencyHistogram.Snapshot lastTweetAges = lastInterval;
+
+    /** Times since receive of the last report interval. */
+    private volatile LatencyHistogram.Snapshot lastPipelineTimes =
+            lastInterval;
+
+    /**
+     * Constructor.
+     *
+     * @param aLatencyName name of the measured latency, e.g. "Match Time"
+     */
+    public ProcessorMetrics(final String aLatencyName) {
+        latencyName = aLatencyName;
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param aNanos latency in nanoseconds
+     */
+    public void recordLatency(final long aNanos) {
+        histogram.record(aNanos);
+    }
+
+    /**
+     * Records the age of a tweet the processor passes on; tweets without
+     * timestamp attributes are ignored.
+     *
+     * @param aFlowFile tweet
+     * @param aNowMillis current time in milliseconds
+     */
+    public void recordAge(final FlowFile aFlowFile, final long aNowMillis) {
+        long createdAt = parseTime(aFlowFile.getAttribute(Tweets.CREATED_AT));
+        if (createdAt >= 0) {
+            // a clock behind Twitter's is recorded as 0
+            tweetAges.record(
+                    TimeUnit.MILLISECONDS.toNanos(aNowMillis - createdAt));
+            created = true;
+        }
+        long receivedAt =
+                parseTime(aFlowFile.getAttribute(Tweets.RECEIVED_AT));
+        if (receivedAt >= 0) {
+            pipelineTimes.record(
+                    TimeUnit.MILLISECONDS.toNanos(aNowMillis - receivedAt));
+            received = true;
+        }
+    }
+
+    /**
+     * Publishes an absolute value.
+     *
+     * @param aSession process session
+     * @param aName counter name
+     * @param aValue current value
+     */
+    public synchronized void set(final ProcessSession aSession,
+            final String aName, final long aValue) {
+        Long previous = published.put(aName, aValue);
+        long delta = aValue - ((null == previous) ? 0 : previous);
+        if (0 != delta) {
+            aSession.adjustCounter(aName, delta, true);
+        }
+    }
+
+    /**
+     * Publishes the latency percentiles in microseconds, and the tweet ages
+     * in milliseconds once tweets with timestamps have been seen, once per
+     * report interval; cheap to call on every trigger.
+     *
+     * @param aSession process session
+     */
+    public void report(final ProcessSession aSession) {
+        long now = System.nanoTime();
+        long due = nextReport.get();
+        if (now - due < 0
+                || !nextReport.compareAndSet(due, now + REPORT_INTERVAL_NANOS)) {
+            return;
+        }
+        LatencyHistogram.Snapshot interval = histogram.snapshotAndReset();
+        lastInterval = interval;
+        publish(aSession, latencyName, interval, TimeUnit.MICROSECONDS,
+                "us");
+        lastTweetAges = tweetAges.snapshotAndReset();
+        if (created) {
+            publish(aSession, TWEET_AGE, lastTweetAges,
+                    TimeUnit.MILLISECONDS, "ms");
+        }
+        lastPipelineTimes = pipelineTimes.snapshotAndReset();
+        if (received) {
+            publish(aSession, PIPELINE_TIME, lastPipelineTimes,
+                    TimeUnit.MILLISECONDS, "ms");
+        }
+    }
+
+    /**
+     * Publishes the percentiles of an interval.
+     *
+     * @param aSession process session
+     * @param aName latency name
+     * @param aInterval latencies of the interval
+     * @param aUnit published unit
+     * @param aUnitName abbreviation of the unit
+     */
+    private void publish(final ProcessSession aSession, final String aName,
+            final LatencyHistogram.Snapshot aInterval, final TimeUnit aUnit,
+            final String aUnitName) {
+        String suffix = " (" + aUnitName + ")";
+        TimeUnit nanos = TimeUnit.NANOSECONDS;
+        set(aSession, aName + " p50" + suffix,
+                aUnit.convert(aInterval.getPercentile(50), nanos));
+        set(aSession, aName + " p99" + suffix,
+                aUnit.convert(aInterval.getPercentile(99), nanos));
+        set(aSession, aName + " p99.9" + suffix,
+                aUnit.convert(aInterval.getPercentile(99.9), nanos));
+        set(aSession, aName + " Max" + suffix,
+                aUnit.convert(aInterval.getMax(), nanos));
+    }
+
+    /**
+     * Parses a timestamp attribute.
+     *
+     * @param aValue attribute value, may be null
+     * @return time in milliseconds or -1 if absent or malformed
+     */
+    private static long parseTime(final String aValue) {
+        if (null == aValue) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(aValue);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Publishes the state of a watched matcher file.
+     *
+     * @param aSession process session
+     * @param aReloader watched file
+     * @param aSizeName counter name of the matcher size, e.g. "Keywords"
+     * @param aSize matcher size
+     */
+    public void setReloads(final ProcessSession aSession,
+            final FileReloader aReloader, final String aSizeName,
+            final long aSize) {
+        set(aSession, RELOADS, aReloader.getLoads());
+        set(aSession, RELOAD_FAILURES, aReloader.getFailures());
+        set(aSession, RELOAD_TIME, aReloader.getLastLoadMillis());
+        set(aSession, aSizeName, aSize);
+    }
+
+    /**
+     * Getter.
+     *
+     * @return latencies of the last completed report interval
+     */
+    public LatencyHistogram.Snapshot getLastInterval() {
+        return lastInterval;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return tweet ages of the last completed report interval
+     */
+    public LatencyHistogram.Snapshot getLastTweetAges() {
+        return lastTweetAges;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return times since receive of the last completed report interval
+     */
+    public LatencyHistogram.Snapshot getLastPipelineTimes() {
+        return lastPipelineTimes;
+    }
+
+}
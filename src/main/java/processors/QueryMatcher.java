@@ -0,0 +1,127 @@
+package processors;
+
+import java.io.IOException;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+
+/**
+ * A compiled set of named Lucene queries.
+ * <p>
+ * The queries are parsed once and kept in a {@link QueryMonitor}; a tweet is
+ * loaded into the per-thread in-memory document of a {@link MatchEngine} and
+ * run against the candidate queries only. Tweets lacking the required terms
+ * of every query are rejected by a {@link TermFilter} before loading. A
+ * matcher is immutable and can be shared by any number of threads.
+ */
+public class QueryMatcher {
+
+    /** Match engine. */
+    private final MatchEngine engine;
+
+    /** Query monitor. */
+    private final QueryMonitor monitor;
+
+    /** Required-term pre-filter. */
+    private final TermFilter filter;
+
+    /**
+     * Parses and compiles queries.
+     *
+     * @param aQueries query strings by name, in routing order
+     * @param aAnalyzer analyzer for queries and tweets
+     * @throws ParseException if a query cannot be parsed
+     */
+    public QueryMatcher(final Map<String, String> aQueries,
+            final Analyzer aAnalyzer) throws ParseException {
+        engine = new MatchEngine(aAnalyzer);
+        Map<String, Query> queries = new LinkedHashMap<String, Query>();
+        for (Map.Entry<String, String> query : aQueries.entrySet()) {
+            queries.put(query.getKey(), parse(query.getValue(), aAnalyzer));
+        }
+        monitor = new QueryMonitor(queries);
+        filter = new TermFilter(queries.values(), aAnalyzer);
+    }
+
+    /**
+     * Finds the queries matching a tweet.
+     *
+     * @param aText tweet text
+     * @param aUserId user ID
+     * @return names of the matching queries in routing order
+     * @throws IOException if the tweet cannot be analysed
+     */
+    public List<String> match(final String aText, final String aUserId)
+            throws IOException {
+        if (!mayMatch(aText, aUserId)) {
+            return Collections.emptyList();
+        }
+        return evaluate(aText, aUserId);
+    }
+
+    /**
+     * Checks cheaply whether a tweet can match any query, without loading
+     * it.
+     *
+     * @param aText tweet text
+     * @param aUserId user ID
+     * @return false - if no query can match, true - if the tweet has to be
+     *         evaluated
+     * @throws IOException if the tweet cannot be analysed
+     */
+    public boolean mayMatch(final String aText, final String aUserId)
+            throws IOException {
+        return 0 != monitor.size() && filter.accepts(aText, aUserId);
+    }
+
+    /**
+     * Finds the queries matching a tweet without the pre-filter, e.g. after
+     * {@link #mayMatch(String, String)} accepted it.
+     *
+     * @param aText tweet text
+     * @param aUserId user ID
+     * @return names of the matching queries in routing order
+     * @throws IOException if the tweet cannot be analysed
+     */
+    public List<String> evaluate(final String aText, final String aUserId)
+            throws IOException {
+        if (0 == monitor.size()) {
+            return Collections.emptyList();
+        }
+        // the user ID is indexed untokenized
+        return monitor.match(engine.load(aText, aUserId));
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of queries
+     */
+    public int size() {
+        return monitor.size();
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @param aQuery query string
+     * @param aAnalyzer analyzer
+     * @return parsed query
+     * @throws ParseException if the query cannot be parsed
+     */
+    public static Query parse(final String aQuery, final Analyzer aAnalyzer)
+            throws ParseException {
+        // the "Text" arg specifies the default field to use
+        // when no field is explicitly specified in the query.
+        return new QueryParser(MatchEngine.TEXT_FIELD, aAnalyzer)
+                .parse(aQuery.trim());
+    }
+
+}
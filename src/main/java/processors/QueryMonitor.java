@@ -0,0 +1,244 @@
+package processors;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.memory.MemoryIndex;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A stored-query monitor (percolator): many named queries are registered once
+ * and every tweet is run only against the queries that can possibly match it.
+ * <p>
+ * Each query is indexed by the most selective of its required term sets (see
+ * {@link QueryTerms}). The terms of a loaded tweet are enumerated from its
+ * in-memory document and only queries indexed under one of them, plus the
+ * queries without extractable terms, are evaluated. A monitor is immutable
+ * once built and can be shared by any number of threads.
+ */
+public class QueryMonitor {
+
+    /** Query names, by query ID. */
+    private final String[] names;
+
+    /** Queries, by query ID. */
+    private final Query[] queries;
+
+    /** Field to term to IDs of the queries indexed under that term. */
+    private final Map<String, Map<BytesRef, int[]>> index;
+
+    /** IDs of the queries that have to be run against every tweet. */
+    private final int[] alwaysRun;
+
+    /** Per-thread scratch space. */
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Builds a monitor.
+     *
+     * @param aQueries parsed queries by name, in routing order
+     */
+    public QueryMonitor(final Map<String, Query> aQueries) {
+        int count = aQueries.size();
+        names = aQueries.keySet().toArray(new String[count]);
+        queries = aQueries.values().toArray(new Query[count]);
+
+        Map<String, Map<BytesRef, List<Integer>>> terms = new HashMap<>();
+        List<Integer> unconstrained = new ArrayList<>();
+        for (int id = 0; id < count; id++) {
+            Set<Term> clause =
+                    QueryTerms.mostSelective(QueryTerms.extract(queries[id]));
+            if (null == clause) {
+                unconstrained.add(id);
+                continue;
+            }
+            for (Term term : clause) {
+                terms.computeIfAbsent(term.field(), f -> new HashMap<>())
+                        .computeIfAbsent(term.bytes(), b -> new ArrayList<>())
+                        .add(id);
+            }
+        }
+
+        index = new HashMap<>();
+        for (Map.Entry<String, Map<BytesRef, List<Integer>>> field : terms
+                .entrySet()) {
+            Map<BytesRef, int[]> postings = new HashMap<>();
+            for (Map.Entry<BytesRef, List<Integer>> term : field.getValue()
+                    .entrySet()) {
+                postings.put(term.getKey(), toArray(term.getValue()));
+            }
+            index.put(field.getKey(), postings);
+        }
+        alwaysRun = toArray(unconstrained);
+        scratch = ThreadLocal.withInitial(() -> new Scratch(count));
+    }
+
+    /**
+     * Creates an empty monitor.
+     *
+     * @return monitor without queries
+     */
+    public static QueryMonitor empty() {
+        return new QueryMonitor(new LinkedHashMap<String, Query>());
+    }
+
+    /**
+     * Runs the candidate queries against a loaded tweet.
+     *
+     * @param aDocument in-memory document of the tweet
+     * @return names of the matching queries in routing order
+     * @throws IOException if the document cannot be read
+     */
+    public List<String> match(final MemoryIndex aDocument)
+            throws IOException {
+        if (0 == queries.length) {
+            return Collections.emptyList();
+        }
+        IndexSearcher searcher = aDocument.createSearcher();
+        Scratch s = scratch.get();
+        s.start();
+
+        // 1. pre-select the queries by the terms of the tweet
+        LeafReader reader =
+                searcher.getIndexReader().leaves().get(0).reader();
+        Fields fields = reader.fields();
+        for (String field : fields) {
+            Map<BytesRef, int[]> postings = index.get(field);
+            Terms fieldTerms = fields.terms(field);
+            if (null == postings || null == fieldTerms) {
+                continue;
+            }
+            TermsEnum termsEnum = fieldTerms.iterator();
+            BytesRef term;
+            while (null != (term = termsEnum.next())) {
+                int[] ids = postings.get(term);
+                if (null != ids) {
+                    for (int id : ids) {
+                        s.candidate(id);
+                    }
+                }
+            }
+        }
+        for (int id : alwaysRun) {
+            s.candidate(id);
+        }
+
+        // 2. run the candidates in routing order
+        s.sort();
+        List<String> matches = null;
+        for (int i = 0; i < s.candidateCount; i++) {
+            int id = s.candidates[i];
+            if (searcher.count(queries[id]) > 0) {
+                if (null == matches) {
+                    matches = new ArrayList<>();
+                }
+                matches.add(names[id]);
+            }
+        }
+        return (null == matches) ? Collections.<String> emptyList()
+                : matches;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of registered queries
+     */
+    public int size() {
+        return queries.length;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of queries run against every tweet
+     */
+    public int getAlwaysRunCount() {
+        return alwaysRun.length;
+    }
+
+    /**
+     * Converts a list of IDs.
+     *
+     * @param aIds IDs
+     * @return array
+     */
+    private static int[] toArray(final List<Integer> aIds) {
+        int[] result = new int[aIds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = aIds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Per-thread candidate list. A generation counter avoids clearing the
+     * marks between tweets.
+     */
+    private static final class Scratch {
+
+        /** Generation in which a query was last marked. */
+        private final int[] marks;
+
+        /** Candidate query IDs. */
+        private final int[] candidates;
+
+        /** Number of candidates. */
+        private int candidateCount;
+
+        /** Current generation. */
+        private int generation;
+
+        /**
+         * Constructor.
+         *
+         * @param aQueryCount number of queries
+         */
+        Scratch(final int aQueryCount) {
+            marks = new int[aQueryCount];
+            candidates = new int[aQueryCount];
+        }
+
+        /** Starts a new tweet. */
+        void start() {
+            candidateCount = 0;
+            if (++generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        /**
+         * Adds a candidate query unless it is already one.
+         *
+         * @param aId query ID
+         */
+        void candidate(final int aId) {
+            if (marks[aId] != generation) {
+                marks[aId] = generation;
+                candidates[candidateCount++] = aId;
+            }
+        }
+
+        /** Sorts the candidates by query ID. */
+        void sort() {
+            Arrays.sort(candidates, 0, candidateCount);
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package processors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SynonymQuery;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Extracts the terms a document must contain for a query to match.
+ * <p>
+ * The result is a conjunction of clauses, each clause being a set of terms
+ * of which at least one has to be present. It is a necessary, not a
+ * sufficient condition: a document that fails it can never match, a document
+ * that passes it still has to be run against the query. An empty result
+ * means that nothing is known about the query (e.g. wildcard or pure
+ * negation queries) and it must always be run.
+ */
+public final class QueryTerms {
+
+    /**
+     * Utility class.
+     */
+    private QueryTerms() {}
+
+    /**
+     * Extracts the term clauses of a query.
+     *
+     * @param aQuery parsed query
+     * @return conjunction of any-of term sets, empty if unconstrained
+     */
+    public static List<Set<Term>> extract(final Query aQuery) {
+
+        if (aQuery instanceof TermQuery) {
+            return single(Collections
+                    .singleton(((TermQuery) aQuery).getTerm()));
+        }
+        if (aQuery instanceof PhraseQuery) {
+            List<Set<Term>> clauses = new ArrayList<>();
+            for (Term term : ((PhraseQuery) aQuery).getTerms()) {
+                clauses.add(Collections.singleton(term));
+            }
+            return clauses;
+        }
+        if (aQuery instanceof MultiPhraseQuery) {
+            List<Set<Term>> clauses = new ArrayList<>();
+            for (Term[] terms : ((MultiPhraseQuery) aQuery).getTermArrays()) {
+                Set<Term> clause = new HashSet<>();
+                Collections.addAll(clause, terms);
+                clauses.add(clause);
+            }
+            return clauses;
+        }
+        if (aQuery instanceof SynonymQuery) {
+            return single(
+                    new HashSet<>(((SynonymQuery) aQuery).getTerms()));
+        }
+        if (aQuery instanceof BoostQuery) {
+            return extract(((BoostQuery) aQuery).getQuery());
+        }
+        if (aQuery instanceof ConstantScoreQuery) {
+            return extract(((ConstantScoreQuery) aQuery).getQuery());
+        }
+        if (aQuery instanceof DisjunctionMaxQuery) {
+            return disjunction(((DisjunctionMaxQuery) aQuery).getDisjuncts());
+        }
+        if (aQuery instanceof BooleanQuery) {
+            List<Set<Term>> required = new ArrayList<>();
+            List<Query> optional = new ArrayList<>();
+            boolean anyRequired = false;
+            for (BooleanClause clause : ((BooleanQuery) aQuery).clauses()) {
+                if (clause.isRequired()) {
+                    anyRequired = true;
+                    required.addAll(extract(clause.getQuery()));
+                } else if (Occur.SHOULD == clause.getOccur()) {
+                    optional.add(clause.getQuery());
+                }
+            }
+            // with a required clause the optional ones need not match at
+            // all, even if every required clause is unconstrained
+            if (anyRequired) {
+                return required;
+            }
+            return disjunction(optional);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Picks the most selective clause, i.e. the smallest term set, preferring
+     * long terms on ties.
+     *
+     * @param aClauses term clauses
+     * @return most selective clause or null if there are no clauses
+     */
+    public static Set<Term> mostSelective(final List<Set<Term>> aClauses) {
+        Set<Term> best = null;
+        int bestLength = 0;
+        for (Set<Term> clause : aClauses) {
+            int length = Integer.MAX_VALUE;
+            for (Term term : clause) {
+                length = Math.min(length, term.bytes().length);
+            }
+            if (null == best || clause.size() < best.size()
+                    || (clause.size() == best.size() && length > bestLength)) {
+                best = clause;
+                bestLength = length;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Extracts the clause of a disjunction: one of the alternatives has to
+     * match, so the union of one clause of every alternative is necessary.
+     *
+     * @param aAlternatives alternatives
+     * @return a single clause or empty if any alternative is unconstrained
+     */
+    private static List<Set<Term>> disjunction(
+            final List<Query> aAlternatives) {
+        if (aAlternatives.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<Term> union = new HashSet<>();
+        for (Query alternative : aAlternatives) {
+            Set<Term> clause = mostSelective(extract(alternative));
+            if (null == clause) {
+                return Collections.emptyList();
+            }
+            union.addAll(clause);
+        }
+        return single(union);
+    }
+
+    /**
+     * Wraps a single clause.
+     *
+     * @param aClause clause
+     * @return conjunction of one clause
+     */
+    private static List<Set<Term>> single(final Set<Term> aClause) {
+        List<Set<Term>> clauses = new ArrayList<>(1);
+        clauses.add(aClause);
+        return clauses;
+    }
+
+}
@@ -0,0 +1,69 @@
+package processors;
+
+import java.io.Serializable;
+
+import twitter4j.Status;
+
+/**
+ * A tweet taken from the stream and waiting to be sent forward.
+ * <p>
+ * twitter4j keeps the raw JSON of a status in a thread-local store of the
+ * stream thread only, so it has to be captured on that thread together with
+ * the status. It is serializable, so it can be spilled to disk.
+ */
+public class ReceivedTweet implements Serializable {
+
+    /** Serial version. */
+    private static final long serialVersionUID = 1L;
+
+    /** Parsed status. */
+    private final Status status;
+
+    /** Raw JSON or null if it is not kept. */
+    private final String json;
+
+    /** Receive time in milliseconds. */
+    private final long receivedAt;
+
+    /**
+     * Constructor.
+     *
+     * @param aStatus parsed status
+     * @param aJson raw JSON or null
+     * @param aReceivedAt receive time in milliseconds
+     */
+    public ReceivedTweet(final Status aStatus, final String aJson,
+            final long aReceivedAt) {
+        status = aStatus;
+        json = aJson;
+        receivedAt = aReceivedAt;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return parsed status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return raw JSON or null if it is not kept
+     */
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return receive time in milliseconds
+     */
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+}
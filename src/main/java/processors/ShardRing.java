@@ -0,0 +1,103 @@
+package processors;
+
+import java.util.Arrays;
+
+/**
+ * A consistent-hash ring assigning keys, e.g. user IDs, to shards.
+ * <p>
+ * Every shard owns a number of virtual points on a 32-bit ring and a key
+ * belongs to the shard owning the first point at or after its hash, so
+ * shards get about the same number of keys and adding a shard moves only
+ * about 1/n of the keys. An instance is immutable.
+ */
+public class ShardRing {
+
+    /** Virtual points per shard. */
+    private static final int POINTS_PER_SHARD = 64;
+
+    /** Number of shards. */
+    private final int shards;
+
+    /** Point hashes in ascending order. */
+    private final int[] points;
+
+    /** Shard owning a point. */
+    private final int[] owners;
+
+    /**
+     * Constructor.
+     *
+     * @param aShards number of shards
+     */
+    public ShardRing(final int aShards) {
+        if (aShards <= 0) {
+            throw new IllegalArgumentException("invalid shards " + aShards);
+        }
+        shards = aShards;
+        int count = aShards * POINTS_PER_SHARD;
+        // hash and shard packed into one long, so sorting keeps them together
+        long[] packed = new long[count];
+        for (int s = 0; s < aShards; s++) {
+            for (int v = 0; v < POINTS_PER_SHARD; v++) {
+                int hash = LongIntHashMap.mix(((long) s << 32) | v);
+                packed[s * POINTS_PER_SHARD + v] =
+                        ((long) hash << 32) | s;
+            }
+        }
+        Arrays.sort(packed);
+        points = new int[count];
+        owners = new int[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = (int) (packed[i] >> 32);
+            owners[i] = (int) packed[i];
+        }
+    }
+
+    /**
+     * Finds the shard of a key.
+     *
+     * @param aKey key
+     * @return shard, from 0 to the number of shards - 1
+     */
+    public int shardOf(final long aKey) {
+        int i = Arrays.binarySearch(points, LongIntHashMap.mix(aKey));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[(i == points.length) ? 0 : i];
+    }
+
+    /**
+     * Splits keys into shards.
+     *
+     * @param aKeys keys
+     * @return keys per shard, in their given order; a shard may be empty
+     */
+    public long[][] split(final long[] aKeys) {
+        int[] sizes = new int[shards];
+        int[] assigned = new int[aKeys.length];
+        for (int i = 0; i < aKeys.length; i++) {
+            assigned[i] = shardOf(aKeys[i]);
+            sizes[assigned[i]]++;
+        }
+        long[][] split = new long[shards][];
+        for (int s = 0; s < shards; s++) {
+            split[s] = new long[sizes[s]];
+            sizes[s] = 0;
+        }
+        for (int i = 0; i < aKeys.length; i++) {
+            split[assigned[i]][sizes[assigned[i]]++] = aKeys[i];
+        }
+        return split;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of shards
+     */
+    public int getShards() {
+        return shards;
+    }
+
+}
@@ -0,0 +1,255 @@
+package processors;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue that overflows into a {@link MappedRingBuffer} on disk.
+ * <p>
+ * Elements go to the in-memory {@link BoundedQueue} until it is full. From
+ * then on every element is serialized into the file, also after the memory
+ * queue has room again, until the file has been drained; the consumer takes
+ * the memory queue first and the file after it, so the elements of one
+ * producer leave in the order they came. Heap use stays bounded by the
+ * memory capacity, and an element is only dropped if the file is full too.
+ * Producers may be concurrent; the consumer has to be a single thread.
+ *
+ * @param <E> element type
+ */
+public class SpillingQueue<E extends Serializable> implements Closeable {
+
+    /** In-memory queue. */
+    private final BoundedQueue<E> memory;
+
+    /** Overflow file or null if overflow is dropped. */
+    private final MappedRingBuffer spill;
+
+    /** Whether elements are appended to the file. */
+    private volatile boolean spilling;
+
+    /** Element taken from the file by {@link #peek()}, not yet polled. */
+    private E peeked;
+
+    /** Number of elements written to the file. */
+    private final AtomicLong spilled = new AtomicLong();
+
+    /** Number of rejected elements. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aCapacity maximum number of elements in memory
+     * @param aSpillFile overflow file, created; null to drop the overflow
+     * @param aSpillSize overflow file size in bytes
+     * @throws IOException if the overflow file cannot be created
+     */
+    public SpillingQueue(final int aCapacity, final Path aSpillFile,
+            final int aSpillSize) throws IOException {
+        memory = new BoundedQueue<E>(aCapacity);
+        spill = (null == aSpillFile) ? null
+                : new MappedRingBuffer(aSpillFile, aSpillSize);
+    }
+
+    /**
+     * Adds an element, to the file if the memory is full or the file is in
+     * use already.
+     *
+     * @param aElement element
+     * @return true - if the element was added, false - if it was dropped
+     */
+    public boolean offer(final E aElement) {
+        if (!spilling && memory.offer(aElement)) {
+            return true;
+        }
+        if (null == spill) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        byte[] record;
+        try {
+            record = serialize(aElement);
+        } catch (IOException e) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        synchronized (spill) {
+            // the consumer may have emptied the file meanwhile
+            if (!spilling && memory.offer(aElement)) {
+                return true;
+            }
+            if (!spill.offer(record)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            spilling = true;
+        }
+        spilled.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Removes the oldest element.
+     *
+     * @return element or null if the queue is empty
+     */
+    public E poll() {
+        E element = memory.poll();
+        if (null == element) {
+            element = peekSpill();
+            peeked = null;
+        }
+        return element;
+    }
+
+    /**
+     * Returns the oldest element without removing it.
+     *
+     * @return element or null if the queue is empty
+     */
+    public E peek() {
+        E element = memory.peek();
+        return (null != element) ? element : peekSpill();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of queued elements, in memory and in the file
+     */
+    public int size() {
+        return memory.size() + getSpillSize();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of elements in the file
+     */
+    public int getSpillSize() {
+        if (null == spill) {
+            return 0;
+        }
+        return spill.size() + ((null != peeked) ? 1 : 0);
+    }
+
+    /**
+     * Getter.
+     *
+     * @return maximum number of elements in memory
+     */
+    public int getCapacity() {
+        return memory.getCapacity();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return overflow file size in bytes, 0 if overflow is dropped
+     */
+    public int getSpillCapacity() {
+        return (null == spill) ? 0 : spill.getCapacity();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of elements written to the file
+     */
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of elements dropped because memory and file were full
+     */
+    public long getDroppedCount() {
+        // the memory queue counts elements that were spilled instead
+        return dropped.get();
+    }
+
+    /**
+     * Deletes the overflow file; elements in it are lost.
+     *
+     * @throws IOException if the file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (null != spill) {
+            spill.close();
+        }
+    }
+
+    /**
+     * Takes the oldest element of the file into {@link #peeked}.
+     *
+     * @return element or null if the file is empty
+     */
+    private E peekSpill() {
+        if (null == spill || null != peeked) {
+            return peeked;
+        }
+        while (true) {
+            byte[] record;
+            synchronized (spill) {
+                record = spill.poll();
+                if (null == record) {
+                    // producers go back to the memory queue
+                    spilling = false;
+                    return null;
+                }
+            }
+            try {
+                peeked = deserialize(record);
+                return peeked;
+            } catch (IOException | ClassNotFoundException e) {
+                // cannot happen for records this queue wrote, skip it
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Serializes an element.
+     *
+     * @param aElement element
+     * @return bytes
+     * @throws IOException if the element cannot be serialized
+     */
+    private static byte[] serialize(final Object aElement)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(aElement);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes an element.
+     *
+     * @param aRecord bytes
+     * @return element
+     * @throws IOException if the bytes are corrupt
+     * @throws ClassNotFoundException if a class is unknown
+     */
+    @SuppressWarnings("unchecked")
+    private E deserialize(final byte[] aRecord)
+            throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(aRecord))) {
+            return (E) in.readObject();
+        }
+    }
+
+}
@@ -0,0 +1,268 @@
+package processors;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.util.StandardValidators;
+
+/**
+ * The standard {@link MatcherService}.
+ * <p>
+ * Compiled matchers are cached by their key words or queries, the least
+ * recently requested ones are evicted beyond the cache size. Processors keep
+ * the matchers they got, so eviction only stops further sharing. A set is
+ * compiled by one caller at a time; others asking for the same set wait for
+ * it instead of compiling it again. The cache is dropped when the service
+ * is disabled, so a changed analyzer chain applies to all processors. The
+ * chain replaces the analyzers of the processors and has to be set.
+ */
+@Tags({"MM", "keyword", "query", "search", "analyzer"})
+@CapabilityDescription("Compiles key words and queries once and shares the "
+        + "compiled matchers and analyzer chains among processors.")
+public class StandardMatcherService extends AbstractControllerService
+        implements MatcherService {
+
+    /**
+     * Service property. It has no default: the key word and the query
+     * processors default to different analyzers, so the chain is chosen
+     * explicitly instead of silently replacing one of them.
+     */
+    public static final PropertyDescriptor ANALYZER =
+            Analyzers.analyzerProperty();
+
+    /** Service property. */
+    public static final PropertyDescriptor CUSTOM_ANALYZER =
+            Analyzers.customAnalyzerProperty();
+
+    /** Service property. */
+    public static final PropertyDescriptor LANGUAGE_ANALYZERS =
+            Analyzers.languageAnalyzersProperty();
+
+    /** Service property. */
+    public static final PropertyDescriptor CACHE_SIZE =
+            new PropertyDescriptor.Builder().name("Cache Size").description(
+                    "Specifies the maximum number of compiled key word and "
+                            + "query sets kept for sharing.")
+                    .defaultValue("100").required(true)
+                    .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+                    .build();
+
+    /** List of service properties. */
+    private static final List<PropertyDescriptor> PROPERTIES;
+
+    static {
+        final List<PropertyDescriptor> supDescriptors =
+                new ArrayList<PropertyDescriptor>();
+        supDescriptors.add(ANALYZER);
+        supDescriptors.add(CUSTOM_ANALYZER);
+        supDescriptors.add(LANGUAGE_ANALYZERS);
+        supDescriptors.add(CACHE_SIZE);
+        PROPERTIES = Collections.unmodifiableList(supDescriptors);
+    }
+
+    /** Main analyzer name, read on enabling. */
+    private volatile String analyzer;
+
+    /** Custom analyzer specification, read on enabling. */
+    private volatile String customAnalyzer;
+
+    /** Language:analyzer pairs, read on enabling. */
+    private volatile String languageAnalyzers;
+
+    /** Compiled sets, least recently requested first; null if disabled. */
+    private volatile Map<List<Object>, Entry> cache;
+
+    /** Number of compiled sets. */
+    private final AtomicLong compiles = new AtomicLong();
+
+    /** Number of requests served from the cache. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return PROPERTIES;
+    }
+
+    /**
+     * Reads the analyzer chain and starts with an empty cache.
+     *
+     * @param aContext configuration context
+     */
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext aContext) {
+        analyzer = aContext.getProperty(ANALYZER).getValue();
+        customAnalyzer = aContext.getProperty(CUSTOM_ANALYZER).getValue();
+        languageAnalyzers = aContext.getProperty(LANGUAGE_ANALYZERS).getValue();
+        final int size = aContext.getProperty(CACHE_SIZE).asInteger();
+        cache = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+
+            /** Serial version. */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<List<Object>, Entry> aEldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Drops the compiled matchers.
+     */
+    @OnDisabled
+    public void onDisabled() {
+        cache = null;
+        getLogger().info("Compiled " + compiles.get() + " matchers, shared "
+                + hits.get() + " times");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PerLanguage<KeywordMatcher> getKeywordMatchers(
+            final List<String> aKeywords, final boolean aUseAutomaton,
+            final boolean aPatterns) throws IOException, ParseException {
+        List<Object> key = new ArrayList<Object>(4);
+        key.add("Keywords");
+        key.add(aUseAutomaton);
+        key.add(aPatterns);
+        key.add(new ArrayList<String>(aKeywords));
+        return get(key, a -> new KeywordMatcher(aKeywords, aUseAutomaton,
+                aPatterns, a));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PerLanguage<QueryMatcher> getQueryMatchers(
+            final Map<String, String> aQueries)
+            throws IOException, ParseException {
+        // the routing order is part of the key
+        List<Object> key = new ArrayList<Object>(1 + 2 * aQueries.size());
+        key.add("Queries");
+        for (Map.Entry<String, String> query : aQueries.entrySet()) {
+            key.add(query.getKey());
+            key.add(query.getValue());
+        }
+        final Map<String, String> queries =
+                new LinkedHashMap<String, String>(aQueries);
+        return get(key, a -> new QueryMatcher(queries, a));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collection<ValidationResult> customValidate(
+            final ValidationContext aContext) {
+        final List<ValidationResult> results =
+                new ArrayList<ValidationResult>();
+        try {
+            Analyzers.parseLanguages(
+                    aContext.getProperty(LANGUAGE_ANALYZERS).getValue());
+            String analyzerName = aContext.getProperty(ANALYZER).getValue();
+            // a missing analyzer is reported as a missing required property
+            if (null != analyzerName) {
+                Analyzers.get(analyzerName,
+                        aContext.getProperty(CUSTOM_ANALYZER).getValue());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            results.add(new ValidationResult.Builder()
+                    .subject(ANALYZER.getName()).valid(false)
+                    .explanation("cannot create analyzer: " + e.getMessage())
+                    .build());
+        }
+        return results;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of compiled key word and query sets
+     */
+    public long getCompiles() {
+        return compiles.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of requests served from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns a cached set, compiling it if needed.
+     *
+     * @param <M> matcher type
+     * @param aKey key words or queries and how they are compiled
+     * @param aCompiler matcher compiler
+     * @return compiled matchers per analyzer chain
+     * @throws IOException if an analyzer or matcher cannot be built
+     * @throws ParseException if a search term cannot be parsed
+     */
+    @SuppressWarnings("unchecked")
+    private <M> PerLanguage<M> get(final List<Object> aKey,
+            final PerLanguage.Compiler<M> aCompiler)
+            throws IOException, ParseException {
+        Map<List<Object>, Entry> current = cache;
+        if (null == current) {
+            throw new IllegalStateException("matcher service is disabled");
+        }
+        Entry entry;
+        synchronized (current) {
+            entry = current.get(aKey);
+            if (null == entry) {
+                entry = new Entry();
+                current.put(aKey, entry);
+            }
+        }
+        // compiling holds the entry only, other sets are served meanwhile
+        synchronized (entry) {
+            if (null == entry.matchers) {
+                entry.matchers = new PerLanguage<M>(analyzer, customAnalyzer,
+                        languageAnalyzers, aCompiler);
+                compiles.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return (PerLanguage<M>) entry.matchers;
+        }
+    }
+
+    /**
+     * A cache slot, filled by the first caller.
+     */
+    private static final class Entry {
+
+        /** Compiled matchers or null until compiled. */
+        private PerLanguage<?> matchers;
+    }
+
+}
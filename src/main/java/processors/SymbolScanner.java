@@ -0,0 +1,368 @@
+package processors;
+
+import java.util.Arrays;
+
+/**
+ * A single-pass scanner for the cashtags, hashtags and links of a tweet.
+ * <p>
+ * The rules follow the ones Twitter uses: a cashtag is '$' and one to six
+ * ASCII letters, optionally followed by '.' or '_' and one or two letters
+ * ("$BRK.B"); a hashtag is '#' and letters, digits and '_' with at least one
+ * letter; both must not touch a letter, digit or '_' on either side, and
+ * "&amp;#" is an HTML entity rather than a hashtag. A link starts with
+ * "http://" or "https://" and ends before white space and trailing
+ * punctuation.
+ * <p>
+ * Symbols are recorded as offsets into the text plus a 64-bit key, a hash
+ * of the lower-cased symbol including its '$' or '#', so "$thc" and "$THC"
+ * share a key. The arrays are reused between texts and only grow, so a
+ * warmed-up scanner does not allocate. A scanner is not thread-safe; keep
+ * one per thread.
+ */
+public class SymbolScanner {
+
+    /** Symbol type of cashtags. */
+    public static final int CASHTAG = 0;
+
+    /** Symbol type of hashtags. */
+    public static final int HASHTAG = 1;
+
+    /** Symbol type of links. */
+    public static final int URL = 2;
+
+    /** Maximum number of letters of a cashtag before the suffix. */
+    private static final int CASHTAG_LETTERS = 6;
+
+    /** Maximum number of letters of a cashtag suffix. */
+    private static final int SUFFIX_LETTERS = 2;
+
+    /** FNV-1a offset basis. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /** FNV-1a prime. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Scheme prefix of links. */
+    private static final String HTTP = "http";
+
+    /** Punctuation stripped from the end of links. */
+    private static final String TRAILING_PUNCTUATION = ".,;:!?'\")]}\u2026";
+
+    /** ASCII characters that may start a symbol. */
+    private static final boolean[] STARTS = new boolean[128];
+
+    static {
+        STARTS['$'] = true;
+        STARTS['#'] = true;
+        STARTS['h'] = true;
+        STARTS['H'] = true;
+    }
+
+    /** Initial number of symbols per text. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Number of symbols of the last text. */
+    private int count;
+
+    /** Symbol types. */
+    private int[] types = new int[INITIAL_CAPACITY];
+
+    /** Start offsets, including the '$' or '#'. */
+    private int[] starts = new int[INITIAL_CAPACITY];
+
+    /** End offsets, exclusive. */
+    private int[] ends = new int[INITIAL_CAPACITY];
+
+    /** Keys. */
+    private long[] keys = new long[INITIAL_CAPACITY];
+
+    /**
+     * Scans a text, replacing the symbols of the previous one.
+     *
+     * @param aText text
+     * @return number of symbols
+     */
+    public int scan(final CharSequence aText) {
+        count = 0;
+        int length = aText.length();
+        int i = 0;
+        char before = ' ';
+        while (i < length) {
+            char c = aText.charAt(i);
+            // fast path: most characters cannot start a symbol
+            if (c >= STARTS.length || !STARTS[c]) {
+                before = c;
+                i++;
+                continue;
+            }
+            int end = -1;
+            int type = -1;
+            if ('$' == c && !isWordChar(before) && '$' != before) {
+                end = cashtagEnd(aText, i + 1);
+                type = CASHTAG;
+            } else if ('#' == c && !isWordChar(before) && '&' != before) {
+                end = hashtagEnd(aText, i + 1);
+                type = HASHTAG;
+            } else if ('h' == lower(c)
+                    && !Character.isLetterOrDigit(before)) {
+                end = urlEnd(aText, i);
+                type = URL;
+            }
+            if (end < 0) {
+                before = c;
+                i++;
+                continue;
+            }
+            add(type, i, end, hash(aText, i, end));
+            before = aText.charAt(end - 1);
+            i = end;
+        }
+        return count;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of symbols of the last text
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Getter.
+     *
+     * @param aIndex symbol index
+     * @return symbol type, {@link #CASHTAG}, {@link #HASHTAG} or {@link #URL}
+     */
+    public int getType(final int aIndex) {
+        return types[aIndex];
+    }
+
+    /**
+     * Getter.
+     *
+     * @param aIndex symbol index
+     * @return start offset in the text
+     */
+    public int getStart(final int aIndex) {
+        return starts[aIndex];
+    }
+
+    /**
+     * Getter.
+     *
+     * @param aIndex symbol index
+     * @return end offset in the text, exclusive
+     */
+    public int getEnd(final int aIndex) {
+        return ends[aIndex];
+    }
+
+    /**
+     * Getter.
+     *
+     * @param aIndex symbol index
+     * @return key of the lower-cased symbol
+     */
+    public long getKey(final int aIndex) {
+        return keys[aIndex];
+    }
+
+    /**
+     * Records a symbol.
+     *
+     * @param aType symbol type
+     * @param aStart start offset
+     * @param aEnd end offset
+     * @param aKey key
+     */
+    private void add(final int aType, final int aStart, final int aEnd,
+            final long aKey) {
+        if (count == types.length) {
+            int capacity = count << 1;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+        }
+        types[count] = aType;
+        starts[count] = aStart;
+        ends[count] = aEnd;
+        keys[count] = aKey;
+        count++;
+    }
+
+    /**
+     * Finds the end of a cashtag.
+     *
+     * @param aText text
+     * @param aFrom offset after the '$'
+     * @return end offset or -1 if there is no cashtag
+     */
+    private static int cashtagEnd(final CharSequence aText, final int aFrom) {
+        int end = letters(aText, aFrom, CASHTAG_LETTERS);
+        if (end == aFrom) {
+            return -1;
+        }
+        int length = aText.length();
+        if (end + 1 < length
+                && ('.' == aText.charAt(end) || '_' == aText.charAt(end))) {
+            int suffixEnd = letters(aText, end + 1, SUFFIX_LETTERS);
+            if (suffixEnd > end + 1) {
+                end = suffixEnd;
+            }
+        }
+        return (end < length && isWordChar(aText.charAt(end))) ? -1 : end;
+    }
+
+    /**
+     * Finds the end of a hashtag.
+     *
+     * @param aText text
+     * @param aFrom offset after the '#'
+     * @return end offset or -1 if there is no hashtag
+     */
+    private static int hashtagEnd(final CharSequence aText, final int aFrom) {
+        int length = aText.length();
+        boolean letter = false;
+        int end = aFrom;
+        while (end < length && isWordChar(aText.charAt(end))) {
+            letter |= Character.isLetter(aText.charAt(end));
+            end++;
+        }
+        return letter ? end : -1;
+    }
+
+    /**
+     * Finds the end of a link.
+     *
+     * @param aText text
+     * @param aFrom offset of the 'h'
+     * @return end offset or -1 if there is no link
+     */
+    private static int urlEnd(final CharSequence aText, final int aFrom) {
+        int start = schemeEnd(aText, aFrom);
+        if (start < 0) {
+            return -1;
+        }
+        int length = aText.length();
+        int end = start;
+        while (end < length && !Character.isWhitespace(aText.charAt(end))) {
+            end++;
+        }
+        while (end > start && isTrailingPunctuation(aText.charAt(end - 1))) {
+            end--;
+        }
+        return (end > start) ? end : -1;
+    }
+
+    /**
+     * Matches "http://" or "https://", ignoring case.
+     *
+     * @param aText text
+     * @param aFrom offset of the 'h'
+     * @return offset after the scheme or -1 if there is none
+     */
+    private static int schemeEnd(final CharSequence aText, final int aFrom) {
+        int length = aText.length();
+        int i = aFrom;
+        for (int p = 0; p < HTTP.length(); p++) {
+            if (i >= length || HTTP.charAt(p) != lower(aText.charAt(i))) {
+                return -1;
+            }
+            i++;
+        }
+        if (i < length && 's' == lower(aText.charAt(i))) {
+            i++;
+        }
+        if (i + 2 >= length || ':' != aText.charAt(i)
+                || '/' != aText.charAt(i + 1) || '/' != aText.charAt(i + 2)) {
+            return -1;
+        }
+        return i + 3;
+    }
+
+    /**
+     * Skips ASCII letters.
+     *
+     * @param aText text
+     * @param aFrom start offset
+     * @param aMax maximum number of letters
+     * @return offset after the letters
+     */
+    private static int letters(final CharSequence aText, final int aFrom,
+            final int aMax) {
+        int end = aFrom;
+        int limit = Math.min(aText.length(), aFrom + aMax);
+        while (end < limit && isAsciiLetter(aText.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Hashes a lower-cased region with FNV-1a and spreads the bits.
+     *
+     * @param aText text
+     * @param aStart start offset
+     * @param aEnd end offset
+     * @return key
+     */
+    private static long hash(final CharSequence aText, final int aStart,
+            final int aEnd) {
+        long h = FNV_OFFSET;
+        for (int i = aStart; i < aEnd; i++) {
+            h = (h ^ Character.toLowerCase(aText.charAt(i))) * FNV_PRIME;
+        }
+        // the finalizer of MurmurHash3
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Checks for a letter, digit or '_'.
+     *
+     * @param aChar character
+     * @return true - if the character continues a word
+     */
+    private static boolean isWordChar(final char aChar) {
+        return '_' == aChar || Character.isLetterOrDigit(aChar);
+    }
+
+    /**
+     * Checks for an ASCII letter.
+     *
+     * @param aChar character
+     * @return true - if the character is 'a' to 'z' or 'A' to 'Z'
+     */
+    private static boolean isAsciiLetter(final char aChar) {
+        char c = lower(aChar);
+        return c >= 'a' && c <= 'z';
+    }
+
+    /**
+     * Lower-cases an ASCII letter.
+     *
+     * @param aChar character
+     * @return lower-case letter or any other character unchanged
+     */
+    private static char lower(final char aChar) {
+        return (aChar >= 'A' && aChar <= 'Z') ? (char) (aChar | 0x20) : aChar;
+    }
+
+    /**
+     * Checks for punctuation that ends a sentence rather than a link.
+     *
+     * @param aChar character
+     * @return true - if the character is stripped from the end of a link
+     */
+    private static boolean isTrailingPunctuation(final char aChar) {
+        return TRAILING_PUNCTUATION.indexOf(aChar) >= 0;
+    }
+
+}
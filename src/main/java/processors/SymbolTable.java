@@ -0,0 +1,141 @@
+package processors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes by cashtag and hashtag.
+ * <p>
+ * Every route has a list of symbols, e.g. "$THC, #HardFork". The keys of
+ * the symbols, as computed by {@link SymbolScanner}, are put into a
+ * {@link LongIntHashMap} pointing to a bit mask of the routes that list the
+ * symbol, so the routes of a tweet are the union of the masks of its
+ * symbols, found without boxing or allocating. There are at most 64 routes.
+ * Symbols are matched case-insensitively by their 64-bit key; two different
+ * symbols sharing a key is too unlikely to be checked. A table is immutable
+ * and can be shared by any number of threads.
+ */
+public class SymbolTable {
+
+    /** Maximum number of routes. */
+    public static final int MAX_ROUTES = Long.SIZE;
+
+    /** Value of the map for absent keys. */
+    private static final int NONE = -1;
+
+    /** Route names, by bit. */
+    private final List<String> routes;
+
+    /** Index into {@link #masks} by symbol key. */
+    private final LongIntHashMap symbols;
+
+    /** Route masks of the symbols. */
+    private final long[] masks;
+
+    /**
+     * Builds a table.
+     *
+     * @param aRoutes symbol lists by route name, in bit order
+     * @throws IllegalArgumentException if there are too many routes or a
+     *         symbol is not a cashtag or hashtag
+     */
+    public SymbolTable(final Map<String, String> aRoutes) {
+        if (aRoutes.size() > MAX_ROUTES) {
+            throw new IllegalArgumentException("more than " + MAX_ROUTES
+                    + " routes");
+        }
+        routes = Collections.unmodifiableList(
+                new ArrayList<String>(aRoutes.keySet()));
+        symbols = new LongIntHashMap(aRoutes.size() * 4, NONE);
+        long[] symbolMasks = new long[16];
+        int count = 0;
+        SymbolScanner scanner = new SymbolScanner();
+        for (int route = 0; route < routes.size(); route++) {
+            String list = aRoutes.get(routes.get(route));
+            for (String symbol : parseSymbols(list)) {
+                scanner.scan(symbol);
+                long key = scanner.getKey(0);
+                int index = symbols.get(key);
+                if (NONE == index) {
+                    if (count == symbolMasks.length) {
+                        symbolMasks = Arrays.copyOf(symbolMasks, count << 1);
+                    }
+                    index = count++;
+                    symbols.put(key, index);
+                }
+                symbolMasks[index] |= 1L << route;
+            }
+        }
+        masks = Arrays.copyOf(symbolMasks, count);
+    }
+
+    /**
+     * Collects the routes of the cashtags and hashtags of the last text of a
+     * scanner.
+     *
+     * @param aScanner scanner
+     * @return bit mask of routes, 0 if there is none
+     */
+    public long routes(final SymbolScanner aScanner) {
+        long mask = 0;
+        for (int i = 0; i < aScanner.getCount(); i++) {
+            if (SymbolScanner.URL == aScanner.getType(i)) {
+                continue;
+            }
+            int index = symbols.get(aScanner.getKey(i));
+            if (NONE != index) {
+                mask |= masks[index];
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return route names, by bit
+     */
+    public List<String> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of distinct symbols
+     */
+    public int size() {
+        return masks.length;
+    }
+
+    /**
+     * Splits a list of symbols at commas and white space and checks every
+     * symbol.
+     *
+     * @param aSymbols symbol list, e.g. "$THC, #HardFork"
+     * @return symbols
+     * @throws IllegalArgumentException if an entry is not a single cashtag
+     *         or hashtag
+     */
+    public static List<String> parseSymbols(final String aSymbols) {
+        List<String> result = new ArrayList<String>();
+        SymbolScanner scanner = new SymbolScanner();
+        for (String symbol : aSymbols.split("[,\\s]+")) {
+            if (symbol.isEmpty()) {
+                continue;
+            }
+            if (1 != scanner.scan(symbol)
+                    || SymbolScanner.URL == scanner.getType(0)
+                    || symbol.length() != scanner.getEnd(0)) {
+                throw new IllegalArgumentException("'" + symbol
+                        + "' is not a cashtag or hashtag");
+            }
+            result.add(symbol);
+        }
+        return result;
+    }
+
+}
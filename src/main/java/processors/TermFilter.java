@@ -0,0 +1,219 @@
+package processors;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A pre-filter rejecting tweets that cannot match any of a set of queries
+ * before they are loaded into an in-memory document.
+ * <p>
+ * Every query is reduced to its required term clauses (see
+ * {@link QueryTerms}) and every term of a clause gets an ID. The tokens of a
+ * tweet are looked up by hash and marked in a per-thread array; the tweet
+ * passes if every clause of at least one query has a marked term. A query
+ * without clauses can match anything, so it turns the filter off. A filter
+ * is immutable and can be shared by any number of threads.
+ */
+public class TermFilter {
+
+    /** Analyzer for the text field. */
+    private final Analyzer analyzer;
+
+    /** Term IDs of the text field. */
+    private final Map<BytesRef, Integer> textTerms;
+
+    /** Term IDs of the user ID field. */
+    private final Map<BytesRef, Integer> userIdTerms;
+
+    /** Clauses of term IDs, by query; null if every tweet passes. */
+    private final int[][][] clauses;
+
+    /** Per-thread marks. */
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Builds a filter.
+     *
+     * @param aQueries parsed queries
+     * @param aAnalyzer analyzer the queries were parsed with
+     */
+    public TermFilter(final Collection<Query> aQueries,
+            final Analyzer aAnalyzer) {
+        analyzer = aAnalyzer;
+        Map<Term, Integer> ids = new HashMap<Term, Integer>();
+        List<int[][]> queries = new ArrayList<int[][]>();
+        for (Query query : aQueries) {
+            List<Set<Term>> required = QueryTerms.extract(query);
+            if (required.isEmpty()) {
+                queries = null;
+                break;
+            }
+            int[][] clause = new int[required.size()][];
+            for (int c = 0; c < clause.length; c++) {
+                Set<Term> terms = required.get(c);
+                clause[c] = new int[terms.size()];
+                int t = 0;
+                for (Term term : terms) {
+                    Integer id = ids.get(term);
+                    if (null == id) {
+                        id = ids.size();
+                        ids.put(term, id);
+                    }
+                    clause[c][t++] = id;
+                }
+            }
+            queries.add(clause);
+        }
+        textTerms = new HashMap<BytesRef, Integer>();
+        userIdTerms = new HashMap<BytesRef, Integer>();
+        for (Map.Entry<Term, Integer> term : ids.entrySet()) {
+            // terms of other fields are never in the document
+            String field = term.getKey().field();
+            if (MatchEngine.TEXT_FIELD.equals(field)) {
+                textTerms.put(term.getKey().bytes(), term.getValue());
+            } else if (MatchEngine.USER_ID_FIELD.equals(field)) {
+                userIdTerms.put(term.getKey().bytes(), term.getValue());
+            }
+        }
+        clauses = (null == queries) ? null
+                : queries.toArray(new int[queries.size()][][]);
+        final int termCount = ids.size();
+        scratch = ThreadLocal.withInitial(() -> new Scratch(termCount));
+    }
+
+    /**
+     * Checks whether a tweet can match any of the queries.
+     *
+     * @param aText tweet text
+     * @param aUserId user ID or null if it is not indexed
+     * @return false - if no query can match, true - if the tweet has to be
+     *         run against the queries
+     * @throws IOException if the text cannot be analysed
+     */
+    public boolean accepts(final String aText, final String aUserId)
+            throws IOException {
+        if (null == clauses) {
+            return true;
+        }
+        Scratch s = scratch.get();
+        s.start();
+        boolean marked = false;
+        if (!textTerms.isEmpty()) {
+            try (TokenStream stream =
+                    analyzer.tokenStream(MatchEngine.TEXT_FIELD, aText)) {
+                TermToBytesRefAttribute term =
+                        stream.addAttribute(TermToBytesRefAttribute.class);
+                stream.reset();
+                while (stream.incrementToken()) {
+                    Integer id = textTerms.get(term.getBytesRef());
+                    if (null != id) {
+                        s.mark(id);
+                        marked = true;
+                    }
+                }
+                stream.end();
+            }
+        }
+        if (null != aUserId && !userIdTerms.isEmpty()) {
+            Integer id = userIdTerms.get(new BytesRef(aUserId));
+            if (null != id) {
+                s.mark(id);
+                marked = true;
+            }
+        }
+        if (!marked) {
+            return false;
+        }
+        for (int[][] query : clauses) {
+            if (s.satisfies(query)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return true - if tweets can be rejected, false - if every tweet passes
+     */
+    public boolean isEnabled() {
+        return null != clauses;
+    }
+
+    /**
+     * Per-thread term marks. A generation counter avoids clearing the marks
+     * between tweets.
+     */
+    private static final class Scratch {
+
+        /** Generation in which a term was last seen. */
+        private final int[] marks;
+
+        /** Current generation. */
+        private int generation;
+
+        /**
+         * Constructor.
+         *
+         * @param aTermCount number of terms
+         */
+        Scratch(final int aTermCount) {
+            marks = new int[aTermCount];
+        }
+
+        /** Starts a new tweet. */
+        void start() {
+            if (++generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        /**
+         * Marks a term as seen.
+         *
+         * @param aId term ID
+         */
+        void mark(final int aId) {
+            marks[aId] = generation;
+        }
+
+        /**
+         * Checks the clauses of a query.
+         *
+         * @param aClauses clauses of term IDs
+         * @return true - if every clause has a seen term
+         */
+        boolean satisfies(final int[][] aClauses) {
+            for (int[] clause : aClauses) {
+                boolean seen = false;
+                for (int id : clause) {
+                    if (marks[id] == generation) {
+                        seen = true;
+                        break;
+                    }
+                }
+                if (!seen) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,506 @@
+package processors;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * A persistent, time-partitioned archive of tweets.
+ * <p>
+ * Every partition covers a fixed period and is a Lucene index of its own in
+ * a sub-directory named after the period start, opened on
+ * {@link MMapDirectory}. Documents have the fields of the matching
+ * processors ({@link MatchEngine#TEXT_FIELD}, {@link MatchEngine#USER_ID_FIELD}
+ * and {@value #STATUS_URL_FIELD}) plus the tweet time, indexed as a point for
+ * range queries and as doc values for sorting.
+ * <p>
+ * Only the two most recent partitions keep an {@link IndexWriter}; older
+ * ones are committed, closed and searched read-only. Writes are made visible
+ * by {@link #refresh()} (near-real-time reopen, no commit) and made durable
+ * by {@link #commit()}, so both can run at their own interval instead of
+ * once per tweet. Expired partitions are dropped as whole directories by
+ * {@link #expire(long)}; no per-document deletes are needed.
+ * <p>
+ * An archive is thread-safe: tweets may be added, searched and committed
+ * concurrently.
+ */
+public class TweetArchive {
+
+    /** Name of the status URL field. */
+    public static final String STATUS_URL_FIELD = "StatusURL";
+
+    /** Name of the tweet time field, milliseconds since the epoch. */
+    public static final String TIME_FIELD = "Time";
+
+    /** Newest tweets first. */
+    private static final Sort NEWEST_FIRST =
+            new Sort(new SortField(TIME_FIELD, SortField.Type.LONG, true));
+
+    /** Number of most recent partitions that keep their writer open. */
+    private static final int OPEN_PARTITIONS = 2;
+
+    /** Largest segment cached in memory before it is written, in MB. */
+    private static final double NRT_CACHE_SEGMENT_MB = 5.0;
+
+    /** Total size of the cached segments, in MB. */
+    private static final double NRT_CACHE_TOTAL_MB = 60.0;
+
+    /** Archive directory. */
+    private final Path root;
+
+    /** Analyzer of the text field. */
+    private final Analyzer analyzer;
+
+    /** Partition period in milliseconds. */
+    private final long period;
+
+    /** Indexing buffer of every writer, in MB. */
+    private final double ramBufferMb;
+
+    /** Partitions by period start. */
+    private final TreeMap<Long, Partition> partitions =
+            new TreeMap<Long, Partition>();
+
+    /**
+     * Adds and searches share the lock, sealing and dropping partitions
+     * take it exclusively.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Opens an archive, reopening the partitions already on disk.
+     *
+     * @param aRoot archive directory, created if needed
+     * @param aAnalyzer analyzer of the text field; the same analyzer has to
+     *            be used to parse the queries
+     * @param aPeriod partition period in milliseconds, whole seconds
+     * @param aRamBufferMb indexing buffer of every writer, in MB
+     * @throws IOException if the archive cannot be opened
+     */
+    public TweetArchive(final Path aRoot, final Analyzer aAnalyzer,
+            final long aPeriod, final double aRamBufferMb) throws IOException {
+        if (aPeriod <= 0 || 0 != aPeriod % 1000) {
+            throw new IllegalArgumentException("invalid period " + aPeriod);
+        }
+        root = aRoot;
+        analyzer = aAnalyzer;
+        period = aPeriod;
+        ramBufferMb = aRamBufferMb;
+        Files.createDirectories(root);
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root)) {
+            for (Path dir : dirs) {
+                Long start = parseStart(dir.getFileName().toString());
+                if (null != start && Files.isDirectory(dir)) {
+                    partitions.put(start, new Partition(dir));
+                }
+            }
+        }
+        try {
+            for (Partition partition : partitions.values()) {
+                partition.openReadOnly();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a tweet. It becomes searchable after the next {@link #refresh()}
+     * and durable after the next {@link #commit()}.
+     * <p>
+     * A tweet with a status URL replaces an earlier one with the same URL in
+     * its partition, so adding a batch again, e.g. after the FlowFiles were
+     * rolled back, does not index the tweets twice. The partition depends
+     * only on the time, which is the same for every copy of a tweet.
+     *
+     * @param aTime tweet time in milliseconds since the epoch
+     * @param aText tweet text
+     * @param aUserId user ID, may be null
+     * @param aStatusUrl status URL, may be null; identifies the tweet
+     * @throws IOException if the tweet cannot be indexed
+     */
+    public void add(final long aTime, final String aText, final String aUserId,
+            final String aStatusUrl) throws IOException {
+        Document document = new Document();
+        document.add(new TextField(MatchEngine.TEXT_FIELD, aText,
+                Field.Store.YES));
+        if (null != aUserId) {
+            document.add(new StringField(MatchEngine.USER_ID_FIELD, aUserId,
+                    Field.Store.YES));
+        }
+        if (null != aStatusUrl) {
+            document.add(new StringField(STATUS_URL_FIELD, aStatusUrl,
+                    Field.Store.YES));
+        }
+        document.add(new LongPoint(TIME_FIELD, aTime));
+        document.add(new NumericDocValuesField(TIME_FIELD, aTime));
+        document.add(new StoredField(TIME_FIELD, aTime));
+
+        lock.readLock().lock();
+        try {
+            IndexWriter writer = writer(aTime - Math.floorMod(aTime, period));
+            if (null != aStatusUrl) {
+                writer.updateDocument(new Term(STATUS_URL_FIELD, aStatusUrl),
+                        document);
+            } else {
+                writer.addDocument(document);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Makes the added tweets searchable without committing them.
+     *
+     * @throws IOException if a reader cannot be reopened
+     */
+    public void refresh() throws IOException {
+        lock.readLock().lock();
+        try {
+            for (Partition partition : snapshot()) {
+                partition.searchers.maybeRefresh();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Makes the added tweets durable and seals the partitions that are no
+     * longer among the most recent ones.
+     *
+     * @throws IOException if a partition cannot be committed
+     */
+    public void commit() throws IOException {
+        lock.readLock().lock();
+        try {
+            for (Partition partition : snapshot()) {
+                IndexWriter writer = partition.writer;
+                if (null != writer && writer.hasUncommittedChanges()) {
+                    writer.commit();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            int open = 0;
+            for (Partition partition : partitions.descendingMap().values()) {
+                if (null != partition.writer && ++open > OPEN_PARTITIONS) {
+                    partition.openReadOnly();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the partitions that end before a point in time.
+     *
+     * @param aBefore milliseconds since the epoch
+     * @return number of dropped partitions
+     * @throws IOException if a partition cannot be deleted
+     */
+    public int expire(final long aBefore) throws IOException {
+        List<Partition> expired = new ArrayList<Partition>();
+        lock.writeLock().lock();
+        try {
+            Map<Long, Partition> old =
+                    partitions.headMap(aBefore - period, true);
+            expired.addAll(old.values());
+            old.clear();
+            for (Partition partition : expired) {
+                partition.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Partition partition : expired) {
+            IOUtils.rm(partition.path);
+        }
+        return expired.size();
+    }
+
+    /**
+     * Searches all partitions.
+     *
+     * @param aQuery query over the archive fields
+     * @param aCount maximum number of tweets
+     * @return matching tweets, newest first
+     * @throws IOException if the archive cannot be read
+     */
+    public List<Document> search(final Query aQuery, final int aCount)
+            throws IOException {
+        List<Document> documents = new ArrayList<Document>();
+        lock.readLock().lock();
+        try {
+            List<Partition> current = snapshot();
+            List<IndexSearcher> acquired = new ArrayList<IndexSearcher>();
+            try {
+                IndexReader[] readers = new IndexReader[current.size()];
+                for (Partition partition : current) {
+                    IndexSearcher searcher = partition.searchers.acquire();
+                    readers[acquired.size()] = searcher.getIndexReader();
+                    acquired.add(searcher);
+                }
+                IndexSearcher searcher =
+                        new IndexSearcher(new MultiReader(readers, false));
+                TopDocs top = searcher.search(aQuery, aCount, NEWEST_FIRST);
+                for (ScoreDoc hit : top.scoreDocs) {
+                    documents.add(searcher.doc(hit.doc));
+                }
+            } finally {
+                for (int i = 0; i < acquired.size(); i++) {
+                    current.get(i).searchers.release(acquired.get(i));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return documents;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of partitions
+     */
+    public int getPartitionCount() {
+        return snapshot().size();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return analyzer of the text field
+     */
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /**
+     * Commits and closes all partitions.
+     *
+     * @throws IOException if a partition cannot be closed
+     */
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<Partition> all = new ArrayList<Partition>(partitions.values());
+            partitions.clear();
+            IOUtils.close(all.toArray(new Partition[0]));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the writer of a partition, creating the partition or reopening
+     * it for writing if needed. Requires the shared lock.
+     *
+     * @param aStart period start
+     * @return writer
+     * @throws IOException if the partition cannot be opened
+     */
+    private IndexWriter writer(final long aStart) throws IOException {
+        synchronized (partitions) {
+            Partition partition = partitions.get(aStart);
+            if (null == partition) {
+                partition = new Partition(root.resolve(formatStart(aStart)));
+                partitions.put(aStart, partition);
+            }
+            if (null == partition.writer) {
+                partition.openWriter();
+            }
+            return partition.writer;
+        }
+    }
+
+    /**
+     * Copies the partitions, oldest first.
+     *
+     * @return partitions
+     */
+    private List<Partition> snapshot() {
+        synchronized (partitions) {
+            return new ArrayList<Partition>(partitions.values());
+        }
+    }
+
+    /**
+     * Formats a partition directory name.
+     *
+     * @param aStart period start
+     * @return name, e.g. "20161018-130000"
+     */
+    private static String formatStart(final long aStart) {
+        return dateFormat().format(aStart);
+    }
+
+    /**
+     * Parses a partition directory name.
+     *
+     * @param aName name
+     * @return period start or null if it is not a partition
+     */
+    private static Long parseStart(final String aName) {
+        try {
+            SimpleDateFormat format = dateFormat();
+            Long start = format.parse(aName).getTime();
+            return format.format(start).equals(aName) ? start : null;
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates the format of partition directory names.
+     *
+     * @return UTC format
+     */
+    private static SimpleDateFormat dateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    /**
+     * One period of the archive.
+     */
+    private final class Partition implements Closeable {
+
+        /** Partition directory. */
+        private final Path path;
+
+        /** Index directory. */
+        private final Directory directory;
+
+        /** Writer or null if the partition is read-only. */
+        private volatile IndexWriter writer;
+
+        /** Searchers, near-real-time while the writer is open. */
+        private volatile SearcherManager searchers;
+
+        /**
+         * Constructor.
+         *
+         * @param aPath partition directory
+         * @throws IOException if the directory cannot be opened
+         */
+        Partition(final Path aPath) throws IOException {
+            path = aPath;
+            // small NRT segments stay in memory until they are merged
+            directory = new NRTCachingDirectory(new MMapDirectory(aPath),
+                    NRT_CACHE_SEGMENT_MB, NRT_CACHE_TOTAL_MB);
+        }
+
+        /**
+         * Opens the writer and near-real-time searchers.
+         *
+         * @throws IOException if the index cannot be opened
+         */
+        void openWriter() throws IOException {
+            IndexWriterConfig config = new IndexWriterConfig(analyzer)
+                    .setOpenMode(OpenMode.CREATE_OR_APPEND)
+                    .setRAMBufferSizeMB(ramBufferMb);
+            IndexWriter opened = new IndexWriter(directory, config);
+            SearcherManager previous = searchers;
+            searchers = new SearcherManager(opened, null);
+            writer = opened;
+            if (null != previous) {
+                previous.close();
+            }
+        }
+
+        /**
+         * Commits and closes the writer, if any, and opens read-only
+         * searchers.
+         *
+         * @throws IOException if the index cannot be committed or opened
+         */
+        void openReadOnly() throws IOException {
+            IndexWriter previous = writer;
+            if (null != previous) {
+                searchers.close();
+                searchers = null;
+                writer = null;
+                previous.close();
+            }
+            if (null == searchers) {
+                if (null == previous && !hasIndex()) {
+                    // an empty directory left by a crash before the commit
+                    new IndexWriter(directory, new IndexWriterConfig(analyzer))
+                            .close();
+                }
+                searchers = new SearcherManager(directory, null);
+            }
+        }
+
+        /**
+         * Checks for a committed index.
+         *
+         * @return true - if the directory holds an index, otherwise - false
+         * @throws IOException if the directory cannot be listed
+         */
+        private boolean hasIndex() throws IOException {
+            for (String file : directory.listAll()) {
+                if (file.startsWith("segments_")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException {
+            IOUtils.close(searchers, writer, directory);
+        }
+    }
+
+}
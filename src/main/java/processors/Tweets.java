@@ -0,0 +1,101 @@
+package processors;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import twitter4j.Status;
+
+/**
+ * Status handling shared by the processors that emit tweets, so live and
+ * replayed tweets are filtered and mapped to FlowFiles the same way.
+ */
+public final class Tweets {
+
+    /** Attribute with the creation time of a tweet in milliseconds. */
+    public static final String CREATED_AT = "CreatedAt";
+
+    /** Attribute with the time a tweet was received in milliseconds. */
+    public static final String RECEIVED_AT = "ReceivedAt";
+
+    /** Epoch of the timestamps in status IDs (Snowflake). */
+    private static final long ID_EPOCH = 1288834974657L;
+
+    /** Bits of a status ID below its timestamp. */
+    private static final int ID_TIME_SHIFT = 22;
+
+    /**
+     * Utility class.
+     */
+    private Tweets() {}
+
+    /**
+     * Checks for the noise - i.e. retweets, replies, quotes, etc.
+     *
+     * @param aStatus incoming tweet
+     * @return true - if it is not a primary tweet, otherwise - false
+     */
+    public static boolean isNoise(final Status aStatus) {
+        return aStatus.getInReplyToStatusId() > 0
+                || aStatus.getInReplyToUserId() > 0
+                || aStatus.getInReplyToScreenName() != null
+                || aStatus.getQuotedStatus() != null
+                || aStatus.getQuotedStatusId() > 0 || aStatus.isRetweet();
+    }
+
+    /**
+     * Maps a status to FlowFile attributes.
+     *
+     * @param aStatus status
+     * @return attributes
+     */
+    public static Map<String, String> toAttributes(final Status aStatus) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("Text", aStatus.getText());
+        attributes.put("UserId", String.valueOf(aStatus.getUser().getId()));
+        attributes.put("UserName", aStatus.getUser().getName());
+        attributes.put("UserScreenName", aStatus.getUser().getScreenName());
+        attributes.put("UserURL", aStatus.getUser().getURL());
+        attributes.put("StatusURL", statusUrl(aStatus));
+        attributes.put("FullStatus", aStatus.toString());
+        if (null != aStatus.getLang()) {
+            attributes.put("Lang", aStatus.getLang());
+        }
+        long createdAt = createdAt(aStatus);
+        if (createdAt >= 0) {
+            attributes.put(CREATED_AT, String.valueOf(createdAt));
+        }
+        return attributes;
+    }
+
+    /**
+     * Determines the creation time of a status. The creation date only has
+     * seconds; the timestamp in the status ID has milliseconds and is taken
+     * if it falls into the same second.
+     *
+     * @param aStatus status
+     * @return time in milliseconds or -1 if it is unknown
+     */
+    public static long createdAt(final Status aStatus) {
+        Date created = aStatus.getCreatedAt();
+        if (null == created) {
+            return -1;
+        }
+        long seconds = created.getTime();
+        long fromId = (aStatus.getId() >>> ID_TIME_SHIFT) + ID_EPOCH;
+        return (fromId >= seconds && fromId - seconds < 1000) ? fromId
+                : seconds;
+    }
+
+    /**
+     * Builds the web URL of a status.
+     *
+     * @param aStatus status
+     * @return URL
+     */
+    public static String statusUrl(final Status aStatus) {
+        return "https://twitter.com/" + aStatus.getUser().getScreenName()
+                + "/status/" + aStatus.getId();
+    }
+
+}
@@ -0,0 +1,206 @@
+package processors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-key hit counts over sliding and tumbling time windows.
+ * <p>
+ * Time is divided into buckets of one tick. Hits of the current bucket are
+ * counted in a {@link LongAdder} per key, so concurrent tasks incrementing
+ * the same popular key do not contend on one cache line. On every tick the
+ * current counts are moved into a ring of closed buckets per key; a window
+ * of n ticks is the sum of the last n closed buckets. The ring of a key is
+ * contiguous, so different keys never share a cache line either.
+ * <p>
+ * The number of keys is bounded; hits of keys beyond it are rejected. A hit
+ * counted concurrently with a tick may land in the next bucket, it is never
+ * lost. Counting is thread-safe; ticks and reads are serialized.
+ */
+public class WindowedCounters {
+
+    /** Maximum number of keys. */
+    private final int capacity;
+
+    /** Number of closed buckets kept per key. */
+    private final int buckets;
+
+    /** Counts of the current bucket by key index. */
+    private final LongAdder[] current;
+
+    /** Closed buckets, {@code buckets} per key. */
+    private final long[] ring;
+
+    /** Key indexes. */
+    private final ConcurrentMap<String, Integer> indexes;
+
+    /** Next free key index. */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /** Ring position of the most recently closed bucket. */
+    private int last = -1;
+
+    /** Number of closed buckets, at most {@code buckets}. */
+    private int closed;
+
+    /**
+     * Constructor.
+     *
+     * @param aCapacity maximum number of keys
+     * @param aBuckets number of closed buckets kept, i.e. the longest window
+     *            in ticks
+     */
+    public WindowedCounters(final int aCapacity, final int aBuckets) {
+        if (aCapacity <= 0 || aBuckets <= 0) {
+            throw new IllegalArgumentException("invalid size " + aCapacity
+                    + " x " + aBuckets);
+        }
+        capacity = aCapacity;
+        buckets = aBuckets;
+        current = new LongAdder[aCapacity];
+        ring = new long[Math.multiplyExact(aCapacity, aBuckets)];
+        indexes = new ConcurrentHashMap<String, Integer>(
+                Math.min(aCapacity, 1024));
+    }
+
+    /**
+     * Counts a hit in the current bucket.
+     *
+     * @param aKey key
+     * @return true - if it was counted, false - if there are too many keys
+     */
+    public boolean increment(final String aKey) {
+        Integer index = indexes.get(aKey);
+        if (null == index) {
+            index = indexes.computeIfAbsent(aKey, this::register);
+            if (null == index) {
+                return false;
+            }
+        }
+        current[index].increment();
+        return true;
+    }
+
+    /**
+     * Closes the current bucket and starts a new one.
+     */
+    public synchronized void tick() {
+        last = (last + 1) % buckets;
+        closed = Math.min(closed + 1, buckets);
+        // the map publishes the adder of a key together with its index
+        for (Integer k : indexes.values()) {
+            ring[k * buckets + last] = current[k].sumThenReset();
+        }
+    }
+
+    /**
+     * Sums the most recent closed buckets of every key.
+     *
+     * @param aTicks window length in ticks
+     * @return keys and counts, non-zero counts only, highest first
+     */
+    public synchronized List<Count> sum(final int aTicks) {
+        int ticks = Math.min(Math.min(aTicks, buckets), closed);
+        List<Count> counts = new ArrayList<Count>();
+        for (Map.Entry<String, Integer> key : indexes.entrySet()) {
+            long total = 0;
+            int base = key.getValue() * buckets;
+            for (int t = 0, b = last; t < ticks; t++) {
+                total += ring[base + b];
+                b = (0 == b) ? buckets - 1 : b - 1;
+            }
+            if (0 != total) {
+                counts.add(new Count(key.getKey(), total));
+            }
+        }
+        Collections.sort(counts);
+        return counts;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of keys seen
+     */
+    public int getKeyCount() {
+        return indexes.size();
+    }
+
+    /**
+     * Assigns the next index to a new key.
+     *
+     * @param aKey key
+     * @return index or null if there are too many keys
+     */
+    private Integer register(final String aKey) {
+        if (next.get() >= capacity) {
+            return null;
+        }
+        int index = next.getAndIncrement();
+        if (index >= capacity) {
+            return null;
+        }
+        current[index] = new LongAdder();
+        return index;
+    }
+
+    /**
+     * The hit count of a key in a window.
+     */
+    public static final class Count implements Comparable<Count> {
+
+        /** Key. */
+        private final String key;
+
+        /** Number of hits. */
+        private final long hits;
+
+        /**
+         * Constructor.
+         *
+         * @param aKey key
+         * @param aHits number of hits
+         */
+        Count(final String aKey, final long aHits) {
+            key = aKey;
+            hits = aHits;
+        }
+
+        /**
+         * Getter.
+         *
+         * @return key
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Getter.
+         *
+         * @return number of hits
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Orders by descending hits, then by key.
+         *
+         * @param aOther other count
+         * @return comparison result
+         */
+        @Override
+        public int compareTo(final Count aOther) {
+            int byHits = Long.compare(aOther.hits, hits);
+            return (0 != byHits) ? byHits : key.compareTo(aOther.key);
+        }
+    }
+
+}